@@ -29,6 +29,7 @@ import io.github.rosemoe.sora.lsp.events.EventListener
 import io.github.rosemoe.sora.lsp.events.EventType
 import io.github.rosemoe.sora.lsp.events.getByClass
 import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.TextEdit as ContentEdit
 import io.github.rosemoe.sora.util.Logger
 import org.eclipse.lsp4j.TextEdit
 
@@ -40,26 +41,58 @@ class ApplyEditsEvent : EventListener {
         val editList: List<TextEdit> = context.get("edits")
         val content = context.getByClass<Content>() ?: return
 
-        editList.forEach { textEdit: TextEdit ->
-            val range = textEdit.range
-            val text = textEdit.newText
-            var startIndex =
-                content.getCharIndex(range.start.line, range.start.character)
-            var endIndex =
-                content.getCharIndex(range.end.line, range.end.character)
-            if (endIndex < startIndex) {
+        val edits = editList.map { textEdit: TextEdit ->
+            var start = textEdit.range.start
+            var end = textEdit.range.end
+            if (end.line < start.line || (end.line == start.line && end.character < start.character)) {
                 Logger.instance(this.javaClass.name)
                     .w(
                         "Invalid location information found applying edits from %s to %s",
-                        range.start,
-                        range.end
+                        start,
+                        end
                     )
-                val diff = startIndex - endIndex
-                endIndex = startIndex
-                startIndex = endIndex - diff
+                start = end.also { end = start }
+            }
+            ContentEdit(
+                start.line,
+                start.character,
+                end.line,
+                end.character,
+                textEdit.newText
+            )
+        }.sortedWith(ContentEdit.POSITION_COMPARATOR)
+        // Positions of edits are all in the original document
+        content.applyEdits(removeOverlaps(edits))
+    }
+
+    /**
+     * Clamp edits that overlap the previous edit to start at its end, and skip edits covered by it.
+     * Servers should not send overlapping edits, but the document must not be left unchanged
+     * because of a single bad edit.
+     */
+    private fun removeOverlaps(edits: List<ContentEdit>): List<ContentEdit> {
+        val result = ArrayList<ContentEdit>(edits.size)
+        for (edit in edits) {
+            val last = result.lastOrNull()
+            if (last == null || last.isBefore(edit)) {
+                result.add(edit)
+                continue
+            }
+            Logger.instance(this.javaClass.name)
+                .w("Overlapping edits found applying edits: %s and %s", last, edit)
+            if (edit.endLine > last.endLine || (edit.endLine == last.endLine && edit.endColumn > last.endColumn)) {
+                result.add(
+                    ContentEdit(
+                        last.endLine,
+                        last.endColumn,
+                        edit.endLine,
+                        edit.endColumn,
+                        edit.newText
+                    )
+                )
             }
-            content.replace(startIndex, endIndex, text)
         }
+        return result
     }
 
 
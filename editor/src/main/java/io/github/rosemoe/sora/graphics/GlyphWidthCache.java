@@ -0,0 +1,351 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.graphics;
+
+import android.graphics.Typeface;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of single glyph advances, keyed by font configuration.
+ * <p>
+ * Editors, layouts and their worker threads that use the same font share one {@link FontWidths}
+ * table, so a glyph is measured only once per font in the whole process. Reads are lock-free:
+ * BMP widths are stored in lazily allocated pages of 256 floats, where {@code 0} means not cached,
+ * and supplementary code points in a copy-on-write sorted table published through a volatile field.
+ * <p>
+ * Only attributes that affect glyph advances form the key. Fake bold and skew are ignored, as the
+ * renderer toggles them on the fly without changing advances.
+ *
+ * @author Rosemoe
+ */
+public final class GlyphWidthCache {
+
+    /**
+     * Max count of font configurations kept. Pinch zooming creates a new text size for each step,
+     * so older configurations are evicted in LRU order. Evicted tables stay valid for paints that
+     * still hold them.
+     */
+    private static final int MAX_FONT_COUNT = 32;
+
+    private final static Map<FontKey, FontWidths> fonts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<FontKey, FontWidths> eldest) {
+            return size() > MAX_FONT_COUNT;
+        }
+    };
+
+    private final static AtomicLong hitCount = new AtomicLong();
+    private final static AtomicLong missCount = new AtomicLong();
+
+    private GlyphWidthCache() {
+    }
+
+    /**
+     * Get the shared width table for the current font configuration of the given paint
+     */
+    @NonNull
+    public static FontWidths obtain(@NonNull android.graphics.Paint paint) {
+        var key = new FontKey(paint);
+        synchronized (fonts) {
+            var widths = fonts.get(key);
+            if (widths == null) {
+                widths = new FontWidths();
+                fonts.put(key, widths);
+            }
+            return widths;
+        }
+    }
+
+    /**
+     * Drop all cached font configurations. Tables already obtained by paints are not affected.
+     */
+    public static void clear() {
+        synchronized (fonts) {
+            fonts.clear();
+        }
+    }
+
+    /**
+     * Get count of font configurations currently cached
+     */
+    public static int getFontCount() {
+        synchronized (fonts) {
+            return fonts.size();
+        }
+    }
+
+    /**
+     * Get count of glyph width queries answered from cache. Hits are committed in batches by
+     * measurers, so the value may lag behind slightly.
+     */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get count of glyph width queries that required measuring with the paint
+     */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Reset hit and miss counters
+     */
+    public static void resetCounters() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    static void commitHits(int count) {
+        if (count > 0) {
+            hitCount.addAndGet(count);
+        }
+    }
+
+    /**
+     * Glyph widths of a single font configuration
+     */
+    public final static class FontWidths {
+
+        private final static int PAGE_SHIFT = 8;
+        private final static int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+        private final float[][] pages = new float[65536 >> PAGE_SHIFT][];
+        private volatile SupplementaryTable supplementary = SupplementaryTable.EMPTY;
+        /**
+         * Latin-1 chars that take exactly one column of {@link #monospaceAdvance}
+         */
+        private final long[] monospaceChars = new long[4];
+        /**
+         * Published after {@link #monospaceChars} is filled. NaN if not detected yet
+         */
+        private volatile float monospaceAdvance = Float.NaN;
+
+        FontWidths() {
+        }
+
+        /**
+         * Get cached width of the given char, or {@code 0} if it is not cached
+         */
+        public float peekCharWidth(char ch) {
+            var page = pages[ch >>> PAGE_SHIFT];
+            return page == null ? 0f : page[ch & PAGE_MASK];
+        }
+
+        /**
+         * Measure the given char with the paint and store its width
+         */
+        public float measureCharWidth(char ch, @NonNull android.graphics.Paint paint) {
+            missCount.incrementAndGet();
+            float width = paint.measureText(new char[]{ch}, 0, 1);
+            var index = ch >>> PAGE_SHIFT;
+            var page = pages[index];
+            if (page == null) {
+                // Racing writers may each publish a page, losing some entries of the other.
+                // They are simply measured again later
+                page = new float[PAGE_MASK + 1];
+                pages[index] = page;
+            }
+            page[ch & PAGE_MASK] = width;
+            return width;
+        }
+
+        /**
+         * Get cached width of the given supplementary code point, or {@code 0} if it is not cached
+         */
+        public float peekCodePointWidth(int codePoint) {
+            return supplementary.get(codePoint);
+        }
+
+        /**
+         * Measure the given supplementary code point with the paint and store its width
+         */
+        public float measureCodePointWidth(int codePoint, @NonNull android.graphics.Paint paint) {
+            missCount.incrementAndGet();
+            var chars = Character.toChars(codePoint);
+            float width = paint.measureText(chars, 0, chars.length);
+            synchronized (this) {
+                supplementary = supplementary.with(codePoint, width);
+            }
+            return width;
+        }
+
+        /**
+         * Get the advance of a single column if this font is monospaced, or {@code 0} otherwise.
+         * <p>
+         * The font is considered monospaced if all printable ASCII characters have the same width.
+         * Printable Latin-1 characters of that width are then accepted by {@link #isMonospaceChar(char)}.
+         */
+        public float getMonospaceAdvance(@NonNull android.graphics.Paint paint) {
+            float advance = monospaceAdvance;
+            if (Float.isNaN(advance)) {
+                synchronized (this) {
+                    advance = monospaceAdvance;
+                    if (Float.isNaN(advance)) {
+                        advance = detectMonospace(paint);
+                        monospaceAdvance = advance;
+                    }
+                }
+            }
+            return advance;
+        }
+
+        /**
+         * Check if the given char takes exactly one column in this monospaced font. Only valid
+         * after {@link #getMonospaceAdvance(android.graphics.Paint)} returned a positive value.
+         */
+        public boolean isMonospaceChar(char ch) {
+            return ch < 256 && (monospaceChars[ch >>> 6] & (1L << ch)) != 0;
+        }
+
+        private float detectMonospace(android.graphics.Paint paint) {
+            float advance = charWidth(' ', paint);
+            if (advance <= 0) {
+                return 0f;
+            }
+            for (char ch = '!'; ch <= '~'; ch++) {
+                if (!isSameAdvance(charWidth(ch, paint), advance)) {
+                    return 0f;
+                }
+            }
+            for (char ch = ' '; ch <= '~'; ch++) {
+                monospaceChars[ch >>> 6] |= 1L << ch;
+            }
+            for (char ch = 0xA0; ch <= 0xFF; ch++) {
+                // Soft hyphen is invisible
+                if (ch != 0xAD && isSameAdvance(charWidth(ch, paint), advance)) {
+                    monospaceChars[ch >>> 6] |= 1L << ch;
+                }
+            }
+            return advance;
+        }
+
+        private float charWidth(char ch, android.graphics.Paint paint) {
+            float width = peekCharWidth(ch);
+            return width == 0 ? measureCharWidth(ch, paint) : width;
+        }
+
+        private static boolean isSameAdvance(float a, float b) {
+            return Math.abs(a - b) < 1e-3f;
+        }
+
+    }
+
+    /**
+     * Immutable sorted map from code point to width
+     */
+    private final static class SupplementaryTable {
+
+        final static SupplementaryTable EMPTY = new SupplementaryTable(new int[0], new float[0]);
+
+        private final int[] codePoints;
+        private final float[] widths;
+
+        SupplementaryTable(int[] codePoints, float[] widths) {
+            this.codePoints = codePoints;
+            this.widths = widths;
+        }
+
+        float get(int codePoint) {
+            int index = Arrays.binarySearch(codePoints, codePoint);
+            return index < 0 ? 0f : widths[index];
+        }
+
+        SupplementaryTable with(int codePoint, float width) {
+            int index = Arrays.binarySearch(codePoints, codePoint);
+            if (index >= 0) {
+                var newWidths = widths.clone();
+                newWidths[index] = width;
+                return new SupplementaryTable(codePoints, newWidths);
+            }
+            index = -(index + 1);
+            int size = codePoints.length;
+            var newCodePoints = new int[size + 1];
+            var newWidths = new float[size + 1];
+            System.arraycopy(codePoints, 0, newCodePoints, 0, index);
+            System.arraycopy(widths, 0, newWidths, 0, index);
+            newCodePoints[index] = codePoint;
+            newWidths[index] = width;
+            System.arraycopy(codePoints, index, newCodePoints, index + 1, size - index);
+            System.arraycopy(widths, index, newWidths, index + 1, size - index);
+            return new SupplementaryTable(newCodePoints, newWidths);
+        }
+
+    }
+
+    /**
+     * Paint attributes that affect glyph advances
+     */
+    private final static class FontKey {
+
+        private final Typeface typeface;
+        private final float textSize;
+        private final float textScaleX;
+        private final float letterSpacing;
+        private final int flags;
+        private final String fontFeatureSettings;
+        private final String fontVariationSettings;
+        private final Locale locale;
+        private final int hash;
+
+        FontKey(android.graphics.Paint paint) {
+            typeface = paint.getTypeface();
+            textSize = paint.getTextSize();
+            textScaleX = paint.getTextScaleX();
+            letterSpacing = paint.getLetterSpacing();
+            flags = paint.getFlags() & ~android.graphics.Paint.FAKE_BOLD_TEXT_FLAG;
+            fontFeatureSettings = paint.getFontFeatureSettings();
+            fontVariationSettings = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? paint.getFontVariationSettings() : null;
+            locale = paint.getTextLocale();
+            hash = Objects.hash(typeface, textSize, textScaleX, letterSpacing, flags, fontFeatureSettings, fontVariationSettings, locale);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FontKey fontKey = (FontKey) o;
+            return Float.compare(fontKey.textSize, textSize) == 0 && Float.compare(fontKey.textScaleX, textScaleX) == 0
+                    && Float.compare(fontKey.letterSpacing, letterSpacing) == 0 && flags == fontKey.flags
+                    && Objects.equals(typeface, fontKey.typeface) && Objects.equals(fontFeatureSettings, fontKey.fontFeatureSettings)
+                    && Objects.equals(fontVariationSettings, fontKey.fontVariationSettings) && Objects.equals(locale, fontKey.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -51,6 +51,11 @@ public class GraphicTextRow {
     private final static GraphicTextRow[] sCached = new GraphicTextRow[5];
     private Paint paint;
     private ContentLine text;
+    private char[] chars;
+    /**
+     * Reused for decoding compact lines
+     */
+    private char[] charBuffer;
     private RenderContext context;
     private Directions directions;
     private int line;
@@ -59,8 +64,9 @@ public class GraphicTextRow {
     private int tabWidth;
     private List<Span> spans;
     private boolean useCache = true;
-    private List<Integer> softBreaks;
+    private int[] softBreaks;
     private boolean quickMeasureMode;
+    private boolean monospaceFastPath;
     private final Directions tmpDirections = new Directions(new long[]{IntPair.pack(0, 0)}, 0);
 
     private GraphicTextRow() {
@@ -86,10 +92,12 @@ public class GraphicTextRow {
 
     public static void recycle(GraphicTextRow st) {
         st.text = null;
+        st.chars = null;
         st.spans = null;
         st.paint = null;
         st.textStart = st.textEnd = st.tabWidth = st.line = 0;
         st.useCache = true;
+        st.monospaceFastPath = false;
         st.softBreaks = null;
         st.directions = null;
         st.context = null;
@@ -110,6 +118,10 @@ public class GraphicTextRow {
     public void set(@NonNull Content content, int line, int start, int end, @Nullable List<Span> spans, @NonNull Paint paint, @NonNull RenderContext context) {
         this.paint = paint;
         text = content.getLine(line);
+        chars = text.getCharsForRead(charBuffer);
+        if (text.isCompact()) {
+            charBuffer = chars;
+        }
         directions = text.mayNeedBidi() ? content.getLineDirections(line) : null;
         textStart = start;
         textEnd = end;
@@ -117,13 +129,26 @@ public class GraphicTextRow {
         tabWidth = context.getTabWidth();
         this.context = context;
         this.line = line;
+        monospaceFastPath = context.getEditor().getProps().monospaceFastPath;
         tmpDirections.setLength(text.length());
     }
 
-    public void setSoftBreaks(@Nullable List<Integer> softBreaks) {
+    public void setSoftBreaks(@Nullable int[] softBreaks) {
         this.softBreaks = softBreaks;
     }
 
+    public void setSoftBreaks(@Nullable List<Integer> softBreaks) {
+        if (softBreaks == null) {
+            this.softBreaks = null;
+            return;
+        }
+        var breaks = new int[softBreaks.size()];
+        for (int i = 0; i < breaks.length; i++) {
+            breaks[i] = softBreaks.get(i);
+        }
+        this.softBreaks = breaks;
+    }
+
     public void disableCache() {
         useCache = false;
     }
@@ -188,11 +213,15 @@ public class GraphicTextRow {
                 return CharPosDesc.make(left, cache[left] - base);
             }
         }
+        if (countMonospaceColumns(start, textEnd) >= 0) {
+            int offset = paint.findMonospaceOffset(text, start, textEnd, advance, tabWidth);
+            return CharPosDesc.make(offset, countMonospaceColumns(start, offset) * paint.getMonospaceAdvance());
+        }
         var regionItr = new TextRegionIterator(textEnd, spans, softBreaks);
         float currentPosition = 0f;
         // Find in each region
         var lastStyle = 0L;
-        var chars = text.getBackingCharArray();
+        var chars = this.chars;
         float tabAdvance = paint.getSpaceWidth() * tabWidth;
         int offset = start;
         var first = true;
@@ -226,7 +255,7 @@ public class GraphicTextRow {
                         // Here is a tab
                         // Try to find advance
                         if (lastStart != i) {
-                            int idx = paint.findOffsetByRunAdvance(text, lastStart, i, advance - currentPosition, quickMeasureMode);
+                            int idx = paint.findOffsetByRunAdvance(chars, lastStart, i, advance - currentPosition, quickMeasureMode);
                             currentPosition += paint.measureTextRunAdvance(chars, lastStart, idx, regionStart, regionEnd, quickMeasureMode);
                             if (idx < i) {
                                 res = idx;
@@ -251,7 +280,7 @@ public class GraphicTextRow {
                     }
                 }
                 if (res == -1) {
-                    int idx = paint.findOffsetByRunAdvance(text, lastStart, regionEnd, advance - currentPosition, quickMeasureMode);
+                    int idx = paint.findOffsetByRunAdvance(chars, lastStart, regionEnd, advance - currentPosition, quickMeasureMode);
                     currentPosition += measureText(lastStart, idx);
                     res = idx;
                 }
@@ -299,6 +328,17 @@ public class GraphicTextRow {
 
         start = Math.max(start, textStart);
         end = Math.min(end, textEnd);
+        int columns = countMonospaceColumns(start, end);
+        if (columns >= 0) {
+            float advance = paint.getMonospaceAdvance();
+            if (widths != null) {
+                float tabAdvance = advance * tabWidth;
+                for (int i = start; i < end; i++) {
+                    widths[i] = text.charAt(i) == '\t' ? tabAdvance : advance;
+                }
+            }
+            return columns * advance;
+        }
         var regionItr = new TextRegionIterator(end, spans, softBreaks);
         float width = 0f;
         // Measure for each region
@@ -340,6 +380,17 @@ public class GraphicTextRow {
         return width;
     }
 
+    /**
+     * Count columns of text for measuring by arithmetic, or -1 if the text must be measured.
+     * Styles of spans only toggle fake bold and skew, which keep advances unchanged.
+     */
+    private int countMonospaceColumns(int start, int end) {
+        if (!monospaceFastPath || text.mayNeedBidi()) {
+            return -1;
+        }
+        return paint.countMonospaceColumns(text, start, end, tabWidth);
+    }
+
     @SuppressLint("NewApi")
     private float measureTextInner(int start, int end, int ctxStart, int ctxEnd, float[] widths) {
         if (start >= end) {
@@ -366,12 +417,12 @@ public class GraphicTextRow {
                         int startCommit = nextStart;
                         int endCommit = j;
                         if (startCommit < endCommit)
-                            width += paint.myGetTextRunAdvances(text.getBackingCharArray(), startCommit, endCommit - startCommit, ctxStart, ctxEnd - ctxStart, dirs.isRunRtl(i), widths, widths == null ? 0 : startCommit, quickMeasureMode);
+                            width += paint.myGetTextRunAdvances(chars, startCommit, endCommit - startCommit, ctxStart, ctxEnd - ctxStart, dirs.isRunRtl(i), widths, widths == null ? 0 : startCommit, quickMeasureMode);
                         nextStart = endCommit + 1;
                     }
                 }
                 if (nextStart < end1) {
-                    width += paint.myGetTextRunAdvances(text.getBackingCharArray(), nextStart, end1 - nextStart, ctxStart, ctxEnd - ctxStart, dirs.isRunRtl(i), widths, widths == null ? 0 : nextStart, quickMeasureMode);
+                    width += paint.myGetTextRunAdvances(chars, nextStart, end1 - nextStart, ctxStart, ctxEnd - ctxStart, dirs.isRunRtl(i), widths, widths == null ? 0 : nextStart, quickMeasureMode);
                 }
             }
             if (dirs.getRunStart(i) >= end) {
@@ -39,6 +39,7 @@ public class Paint extends android.graphics.Paint {
     private float tabWidth;
     private boolean renderFunctionCharacters;
     private SingleCharacterWidths widths;
+    private GlyphWidthCache.FontWidths glyphWidths;
 
     public Paint(boolean renderFunctionCharacters) {
         super();
@@ -49,9 +50,6 @@ public class Paint extends android.graphics.Paint {
 
     public void setRenderFunctionCharacters(boolean renderFunctionCharacters) {
         this.renderFunctionCharacters = renderFunctionCharacters;
-        if (widths != null) {
-            widths.clearCache();
-        }
     }
 
     public boolean isRenderFunctionCharacters() {
@@ -67,8 +65,93 @@ public class Paint extends android.graphics.Paint {
     public void onAttributeUpdate() {
         spaceWidth = measureText(" ");
         tabWidth = measureText("\t");
-        if (widths != null)
-            widths.clearCache();
+        glyphWidths = null;
+    }
+
+    /**
+     * Get the shared glyph width table of current font configuration
+     *
+     * @see GlyphWidthCache
+     */
+    @NonNull
+    public GlyphWidthCache.FontWidths getGlyphWidths() {
+        var glyphWidths = this.glyphWidths;
+        if (glyphWidths == null) {
+            this.glyphWidths = glyphWidths = GlyphWidthCache.obtain(this);
+        }
+        return glyphWidths;
+    }
+
+    /**
+     * Get the advance of a single column if current font is monospaced, or {@code 0} otherwise
+     */
+    public float getMonospaceAdvance() {
+        return getGlyphWidths().getMonospaceAdvance(this);
+    }
+
+    /**
+     * Count columns of the given text in current monospaced font, where a tab takes {@code tabWidth}
+     * columns. The width of text is then columns multiplied by {@link #getMonospaceAdvance()}.
+     *
+     * @return column count, or -1 if the font is not monospaced or the text contains characters
+     * that must be measured, such as emoji, CJK characters and function characters
+     */
+    public int countMonospaceColumns(@NonNull CharSequence text, int start, int end, int tabWidth) {
+        var glyphs = getGlyphWidths();
+        if (glyphs.getMonospaceAdvance(this) == 0f) {
+            return -1;
+        }
+        int columns = 0;
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            if (ch == '\t') {
+                columns += tabWidth;
+            } else if (glyphs.isMonospaceChar(ch)) {
+                columns++;
+            } else {
+                return -1;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @see #countMonospaceColumns(CharSequence, int, int, int)
+     */
+    public int countMonospaceColumns(@NonNull char[] text, int start, int end, int tabWidth) {
+        var glyphs = getGlyphWidths();
+        if (glyphs.getMonospaceAdvance(this) == 0f) {
+            return -1;
+        }
+        int columns = 0;
+        for (int i = start; i < end; i++) {
+            char ch = text[i];
+            if (ch == '\t') {
+                columns += tabWidth;
+            } else if (glyphs.isMonospaceChar(ch)) {
+                columns++;
+            } else {
+                return -1;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Find the max offset in [start, end] that the width of text from {@code start} does not exceed
+     * {@code advance}. The text must have been accepted by {@link #countMonospaceColumns(CharSequence, int, int, int)}.
+     */
+    public int findMonospaceOffset(@NonNull CharSequence text, int start, int end, float advance, int tabWidth) {
+        // Tolerate rounding error for advances computed from column counts
+        int maxColumns = (int) (advance / getMonospaceAdvance() + 1e-4f);
+        int columns = 0;
+        for (int i = start; i < end; i++) {
+            columns += text.charAt(i) == '\t' ? tabWidth : 1;
+            if (columns > maxColumns) {
+                return i;
+            }
+        }
+        return end;
     }
 
     public float getSpaceWidth() {
@@ -96,6 +179,12 @@ public class Paint extends android.graphics.Paint {
         onAttributeUpdate();
     }
 
+    @Override
+    public void setTextScaleX(float scaleX) {
+        super.setTextScaleX(scaleX);
+        onAttributeUpdate();
+    }
+
     @SuppressLint("NewApi")
     public float myGetTextRunAdvances(@NonNull char[] chars, int index, int count, int contextIndex, int contextCount, boolean isRtl, @Nullable float[] advances, int advancesIndex, boolean fast) {
         if (fast) {
@@ -156,17 +245,16 @@ public class Paint extends android.graphics.Paint {
     /**
      * Find offset for a certain advance returned by {@link #measureTextRunAdvance(char[], int, int, int, int, boolean)}
      */
-    public int findOffsetByRunAdvance(ContentLine text, int start, int end, float advance, boolean fast) {
+    public int findOffsetByRunAdvance(char[] text, int start, int end, float advance, boolean fast) {
         if (fast) {
             ensureCacheObject();
             var width = 0f;
-            var textChars = text.getBackingCharArray();
             for (int i = start; i < end; i++) {
-                char ch = textChars[i];
+                char ch = text[i];
                 float charWidth;
                 int j = i;
-                if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(textChars[i + 1])) {
-                    charWidth = widths.measureCodePoint(Character.toCodePoint(ch, textChars[i + 1]), this);
+                if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(text[i + 1])) {
+                    charWidth = widths.measureCodePoint(Character.toCodePoint(ch, text[i + 1]), this);
                     i++;
                 } else if (renderFunctionCharacters && FunctionCharacters.isEditorFunctionChar(ch)) {
                     charWidth = widths.measureText(FunctionCharacters.getNameForFunctionCharacter(ch), this);
@@ -183,15 +271,14 @@ public class Paint extends android.graphics.Paint {
         if (renderFunctionCharacters) {
             int lastEnd = start;
             float current = 0f;
-            var textChars = text.getBackingCharArray();
             for (int i = start;i < end;i++) {
-                char ch = textChars[i];
+                char ch = text[i];
                 if (FunctionCharacters.isEditorFunctionChar(ch)) {
                     int result = lastEnd == i ? i : breakTextImpl(text, lastEnd, i, advance - current);
                     if (result < i) {
                         return result;
                     }
-                    current += measureTextRunAdvance(textChars, lastEnd, i, lastEnd, i, false);
+                    current += measureTextRunAdvance(text, lastEnd, i, lastEnd, i, false);
                     current += measureText(FunctionCharacters.getNameForFunctionCharacter(ch));
                     if (current >= advance) {
                         return i;
@@ -208,11 +295,22 @@ public class Paint extends android.graphics.Paint {
         }
     }
 
-    private int breakTextImpl(ContentLine text, int start, int end, float advance) {
+    /**
+     * Find offset for a certain advance in the given line
+     *
+     * @deprecated Use {@link #findOffsetByRunAdvance(char[], int, int, float, boolean)} with
+     * {@link ContentLine#getCharsForRead(char[])}, which does not copy compact lines every time
+     */
+    @Deprecated
+    public int findOffsetByRunAdvance(ContentLine text, int start, int end, float advance, boolean fast) {
+        return findOffsetByRunAdvance(text.getCharsForRead(null), start, end, advance, fast);
+    }
+
+    private int breakTextImpl(char[] text, int start, int end, float advance) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            return getOffsetForAdvance(text.getBackingCharArray(), start, end, start, end, false, advance);
+            return getOffsetForAdvance(text, start, end, start, end, false, advance);
         } else {
-            return start + breakText(text.getBackingCharArray(), start, end - start, advance, null);
+            return start + breakText(text, start, end - start, advance, null);
         }
     }
 
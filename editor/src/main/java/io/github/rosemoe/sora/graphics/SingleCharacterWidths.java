@@ -23,26 +23,31 @@
  */
 package io.github.rosemoe.sora.graphics;
 
-import android.util.SparseArray;
-
-import java.util.Arrays;
-
 import io.github.rosemoe.sora.text.FunctionCharacters;
 
+/**
+ * Measures text by single characters. Glyph widths are kept in the process-wide
+ * {@link GlyphWidthCache} of the paint's font, so creating measurers is cheap.
+ * <p>
+ * An instance is not thread-safe, but instances on different threads can share the same font.
+ */
 public class SingleCharacterWidths {
 
+    /**
+     * Pending hits are committed to the global counter when this count is reached
+     */
+    private final static int HIT_COMMIT_THRESHOLD = 1024;
+
     public final float[] widths;
-    public final SparseArray<Float> codePointWidths;
     public final char[] buffer;
-    private final float[] cache;
     private final int tabWidth;
     private boolean handleFunctionCharacters;
+    private boolean monospaceFastPath;
+    private int pendingHits;
 
     public SingleCharacterWidths(int tabWidth) {
-        cache = new float[65536];
         buffer = new char[10];
         widths = new float[10];
-        codePointWidths = new SparseArray<>();
         this.tabWidth = tabWidth;
     }
 
@@ -54,36 +59,70 @@ public class SingleCharacterWidths {
         return handleFunctionCharacters;
     }
 
+    /**
+     * Compute widths of text by column counts when the font is monospaced and the text only
+     * contains characters of one column. Other text is still measured by characters.
+     *
+     * @see Paint#countMonospaceColumns(CharSequence, int, int, int)
+     */
+    public void setMonospaceFastPath(boolean monospaceFastPath) {
+        this.monospaceFastPath = monospaceFastPath;
+    }
+
+    public boolean isMonospaceFastPath() {
+        return monospaceFastPath;
+    }
+
     public static boolean isEmoji(char ch) {
         return ch == 0xd83c || ch == 0xd83d || ch == 0xd83e;
     }
 
     /**
-     * Clear caches of font
+     * Glyph widths are now shared by font configuration in {@link GlyphWidthCache}, and a paint
+     * switches to another table itself when its attributes change. Only pending statistics are
+     * committed here.
+     *
+     * @deprecated Nothing is cached per instance
      */
+    @Deprecated
     public void clearCache() {
-        Arrays.fill(cache, 0);
-        codePointWidths.clear();
+        commitHits();
     }
 
     /**
-     * Measure a single character
+     * Commit pending cache hits to {@link GlyphWidthCache#getHitCount()}
      */
-    public float measureChar(char ch, Paint p) {
+    public void commitHits() {
+        GlyphWidthCache.commitHits(pendingHits);
+        pendingHits = 0;
+    }
+
+    private float charWidth(char ch, GlyphWidthCache.FontWidths glyphs, Paint p) {
         var rate = 1;
         if (ch == '\t') {
             ch = ' ';
             rate = tabWidth;
         }
-        float width = cache[ch];
+        float width = glyphs.peekCharWidth(ch);
         if (width == 0) {
-            buffer[0] = ch;
-            width = p.measureText(buffer, 0, 1);
-            cache[ch] = width;
+            width = glyphs.measureCharWidth(ch, p);
+        } else {
+            pendingHits++;
         }
         return width * rate;
     }
 
+    /**
+     * Measure a single character
+     */
+    public float measureChar(char ch, Paint p) {
+        float width = charWidth(ch, p.getGlyphWidths(), p);
+        if (pendingHits >= HIT_COMMIT_THRESHOLD) {
+            commitHits();
+        }
+        return width;
+    }
+
     /**
      * Measure a single character
      */
@@ -91,11 +130,12 @@ public class SingleCharacterWidths {
         if (cp <= 65535) {
             return measureChar((char) cp, p);
         }
-        var width = codePointWidths.get(cp);
-        if (width == null) {
-            var count = Character.toChars(cp, buffer, 0);
-            width = p.measureText(buffer, 0, count);
-            codePointWidths.put(cp, width);
+        var glyphs = p.getGlyphWidths();
+        float width = glyphs.peekCodePointWidth(cp);
+        if (width == 0) {
+            width = glyphs.measureCodePointWidth(cp, p);
+        } else if (++pendingHits >= HIT_COMMIT_THRESHOLD) {
+            commitHits();
         }
         return width;
     }
@@ -104,6 +144,13 @@ public class SingleCharacterWidths {
      * Measure text
      */
     public float measureText(char[] chars, int start, int end, Paint p) {
+        if (monospaceFastPath) {
+            int columns = p.countMonospaceColumns(chars, start, end, tabWidth);
+            if (columns >= 0) {
+                return columns * p.getMonospaceAdvance();
+            }
+        }
+        var glyphs = p.getGlyphWidths();
         float width = 0f;
         for (int i = start; i < end; i++) {
             char ch = chars[i];
@@ -126,12 +173,13 @@ public class SingleCharacterWidths {
             } else if(isHandleFunctionCharacters() && FunctionCharacters.isEditorFunctionChar(ch)) {
                 var name = FunctionCharacters.getNameForFunctionCharacter(ch);
                 for (int j = 0;j < name.length();j++) {
-                    width += measureChar(name.charAt(j), p);
+                    width += charWidth(name.charAt(j), glyphs, p);
                 }
             } else {
-                width += measureChar(ch, p);
+                width += charWidth(ch, glyphs, p);
             }
         }
+        commitHits();
         return width;
     }
 
@@ -143,6 +191,13 @@ public class SingleCharacterWidths {
      * Measure text
      */
     public float measureText(CharSequence str, int start, int end, Paint p) {
+        if (monospaceFastPath) {
+            int columns = p.countMonospaceColumns(str, start, end, tabWidth);
+            if (columns >= 0) {
+                return columns * p.getMonospaceAdvance();
+            }
+        }
+        var glyphs = p.getGlyphWidths();
         float width = 0f;
         for (int i = start; i < end; i++) {
             char ch = str.charAt(i);
@@ -165,12 +220,13 @@ public class SingleCharacterWidths {
             } else if(isHandleFunctionCharacters() && FunctionCharacters.isEditorFunctionChar(ch)) {
                 var name = FunctionCharacters.getNameForFunctionCharacter(ch);
                 for (int j = 0;j < name.length();j++) {
-                    width += measureChar(name.charAt(j), p);
+                    width += charWidth(name.charAt(j), glyphs, p);
                 }
             } else {
-                width += measureChar(ch, p);
+                width += charWidth(ch, glyphs, p);
             }
         }
+        commitHits();
         return width;
     }
 
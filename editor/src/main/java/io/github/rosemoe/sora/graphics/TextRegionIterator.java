@@ -42,7 +42,7 @@ class TextRegionIterator extends RegionIterator {
 
     private final List<Span> spans;
 
-    public TextRegionIterator(int length, @NonNull List<Span> spans, @Nullable List<Integer> softBreaks) {
+    public TextRegionIterator(int length, @NonNull List<Span> spans, @Nullable int[] softBreaks) {
         super(length, new SpansPoints(spans), new SoftBreaksPoints(softBreaks));
         this.spans = spans;
     }
@@ -111,20 +111,20 @@ class TextRegionIterator extends RegionIterator {
 
     private static class SoftBreaksPoints implements RegionProvider {
 
-        private final List<Integer> points;
+        private final int[] points;
 
-        public SoftBreaksPoints(List<Integer> points) {
+        public SoftBreaksPoints(int[] points) {
             this.points = points;
         }
 
         @Override
         public int getPointCount() {
-            return points == null ? 0 : points.size();
+            return points == null ? 0 : points.length;
         }
 
         @Override
         public int getPointAt(int index) {
-            return points.get(index);
+            return points[index];
         }
     }
 
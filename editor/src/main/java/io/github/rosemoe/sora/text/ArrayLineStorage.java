@@ -0,0 +1,64 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+
+/**
+ * Default {@link LineStorage} implementation, which simply saves lines in an array.
+ * <p>
+ * Random access is fast, but inserting or deleting lines requires shifting all lines after the
+ * modified position. Consider {@link TreeLineStorage} for very large texts.
+ *
+ * @author Rosemoe
+ */
+public class ArrayLineStorage extends ArrayList<ContentLine> implements LineStorage {
+
+    public ArrayLineStorage() {
+        this(Content.getInitialLineCapacity());
+    }
+
+    public ArrayLineStorage(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    @NonNull
+    @Override
+    public synchronized ArrayLineStorage copy(boolean shallow) {
+        var copy = new ArrayLineStorage(size());
+        for (int i = 0; i < size(); i++) {
+            var line = get(i);
+            if (shallow) {
+                line.retain();
+                copy.add(line);
+            } else {
+                copy.add(new ContentLine(line));
+            }
+        }
+        return copy;
+    }
+
+}
@@ -70,6 +70,12 @@ public class CharArrayWrapper implements CharSequence, GetChars {
         return CharBuffer.wrap(data, offset + start, end - start);
     }
 
+    @NonNull
+    @Override
+    public String toString() {
+        return new String(data, offset, count);
+    }
+
     @Override
     public void getChars(int start, int end, char[] dest, int destOffset) {
         if (end > count) {
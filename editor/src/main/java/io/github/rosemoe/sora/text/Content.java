@@ -27,20 +27,24 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import io.github.rosemoe.sora.text.bidi.ContentBidi;
 import io.github.rosemoe.sora.text.bidi.Directions;
+import io.github.rosemoe.sora.text.search.TrigramIndex;
 
 /**
  * This class saves the text content for editor and maintains line widths.
  * It is thread-safe by default. Use {@link #Content(CharSequence, boolean)} constructor to
  * create a non thread-safe one.
+ * <p>
+ * Lines are saved in {@link ArrayLineStorage} by default. Use {@link #Content(CharSequence, boolean, LineStorage.Factory)}
+ * to specify another {@link LineStorage}, for example {@link TreeLineStorage} for very large texts.
  *
  * @author Rosemoe
  */
@@ -55,16 +59,28 @@ public class Content implements CharSequence {
         setInitialLineCapacity(DEFAULT_LIST_CAPACITY);
     }
 
-    private final List<ContentLine> lines;
+    private final LineStorage lines;
     private final List<ContentListener> contentListeners;
-    private final ReadWriteLock lock;
+    private final ReentrantReadWriteLock lock;
+    /**
+     * Modification sequence for optimistic reads. It is odd while a writer holds the write lock.
+     */
+    private final AtomicLong modSequence = new AtomicLong();
+    /**
+     * Written by optimistic readers before validating their reads
+     *
+     * @see #validateOptimisticRead(long)
+     */
+    private volatile int readFence;
     private int textLength;
     private int nestedBatchEdit;
     private final AtomicLong documentVersion = new AtomicLong(1L);
-    private final Indexer indexer;
+    private Indexer indexer;
     private final ContentBidi bidi;
     private UndoManager undoManager;
     private Cursor cursor;
+    private TrigramIndex trigramIndex;
+    private volatile boolean loading;
 
     /**
      * This constructor will create a Content object with no text
@@ -88,32 +104,87 @@ public class Content implements CharSequence {
      * to single instance is enabled.
      */
     public Content(CharSequence src, boolean threadSafe) {
-        if (src == null) {
-            src = "";
+        this(src, threadSafe, ArrayLineStorage::new);
+    }
+
+    /**
+     * Create a Content object with the given content text. Specify whether thread-safe access
+     * to single instance is enabled, and how the lines are stored.
+     *
+     * @param storageFactory Factory to create the {@link LineStorage} of this object
+     */
+    public Content(CharSequence src, boolean threadSafe, @NonNull LineStorage.Factory storageFactory) {
+        this(createLineStorage(storageFactory, src), threadSafe);
+        if (src == null || src.length() == 0 || textLength != 0) {
+            // Empty or loaded by the storage
+            return;
         }
+        setUndoEnabled(false);
+        insert(0, 0, src);
+        setUndoEnabled(true);
+    }
+
+    /**
+     * Create a Content object with the given lines. The storage is owned by the new object.
+     */
+    Content(@NonNull LineStorage lines, boolean threadSafe) {
+        this(lines, threadSafe, -1);
+    }
+
+    /**
+     * Create a Content object with the given lines and known text length. The storage is owned
+     * by the new object.
+     *
+     * @param textLength Length of text in the storage, or -1 to compute it
+     */
+    Content(@NonNull LineStorage lines, boolean threadSafe, int textLength) {
         if (threadSafe) {
             lock = new ReentrantReadWriteLock();
         } else {
             lock = null;
         }
-        textLength = 0;
         nestedBatchEdit = 0;
-        lines = new ArrayList<>(getInitialLineCapacity());
-        lines.add(new ContentLine());
+        this.lines = lines;
+        if (lines.isEmpty()) {
+            lines.add(new ContentLine());
+        }
+        if (textLength < 0) {
+            textLength = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                textLength += lines.getColumnCount(i) + lines.getLineSeparator(i).getLength();
+            }
+        }
+        this.textLength = textLength;
         contentListeners = new ArrayList<>();
         bidi = new ContentBidi(this);
         undoManager = new UndoManager();
         setMaxUndoStackSize(Content.DEFAULT_MAX_UNDO_STACK_SIZE);
         indexer = new CachedIndexer(this);
-        if (src.length() == 0) {
-            setUndoEnabled(true);
-            return;
-        }
-        setUndoEnabled(false);
-        insert(0, 0, src);
         setUndoEnabled(true);
     }
 
+    /**
+     * Create a read-only view over the given lines, for {@link ContentSnapshot}. The view has no
+     * lock and no undo manager, as it is never modified.
+     */
+    Content(@NonNull LineStorage lines, int textLength) {
+        lock = null;
+        this.lines = lines;
+        this.textLength = textLength;
+        contentListeners = new ArrayList<>(1);
+        bidi = new ContentBidi(this);
+        indexer = new CachedIndexer(this);
+    }
+
+    @NonNull
+    private static LineStorage createLineStorage(@NonNull LineStorage.Factory storageFactory, @Nullable CharSequence src) {
+        var storage = storageFactory.createLineStorage();
+        if (src != null && src.length() > 0) {
+            storage.loadText(src);
+        }
+        return storage;
+    }
+
     /**
      * Returns the default capacity of text line list
      *
@@ -161,18 +232,83 @@ public class Content implements CharSequence {
         return lock != null;
     }
 
+    /**
+     * Check whether this text can be modified. Texts backed by a read-only {@link LineStorage}, such
+     * as those created by {@link ContentIO#createFromMappedFile(java.io.File, java.nio.charset.Charset)}, can not be modified.
+     */
+    public boolean isReadOnly() {
+        return lines.isReadOnly();
+    }
+
+    /**
+     * Check whether this text is still being filled by a {@link StreamingContentLoader}. Texts
+     * that are loading should not be modified by user actions.
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+
+    void setLoading(boolean loading) {
+        this.loading = loading;
+    }
+
     protected void lock(boolean write) {
         if (lock == null) {
             return;
         }
-        (write ? lock.writeLock() : lock.readLock()).lock();
+        if (write) {
+            lock.writeLock().lock();
+            if (lock.getWriteHoldCount() == 1) {
+                modSequence.incrementAndGet();
+            }
+        } else {
+            lock.readLock().lock();
+        }
     }
 
     protected void unlock(boolean write) {
         if (lock == null) {
             return;
         }
-        (write ? lock.writeLock() : lock.readLock()).unlock();
+        if (write) {
+            if (lock.getWriteHoldCount() == 1) {
+                modSequence.incrementAndGet();
+            }
+            lock.writeLock().unlock();
+        } else {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Start an optimistic read. Reads done after this call must be checked by
+     * {@link #validateOptimisticRead(long)} before their results are used. If the
+     * validation fails, or the read throws, the caller should read again under {@link #lock(boolean)}.
+     *
+     * @return A stamp for validation, or 0 if the text is being modified or the object is not thread-safe
+     */
+    protected long tryOptimisticRead() {
+        if (lock == null) {
+            return 0L;
+        }
+        long seq = modSequence.get();
+        return (seq & 1L) == 0L ? seq + 2L : 0L;
+    }
+
+    /**
+     * Check that no write has happened since the given stamp is obtained
+     *
+     * @see #tryOptimisticRead()
+     */
+    protected boolean validateOptimisticRead(long stamp) {
+        if (stamp == 0L) {
+            return false;
+        }
+        // Reads before a volatile write can not be reordered after it, nor can the volatile read
+        // after it be reordered before it. This acts as the acquire fence that is not available
+        // on older platforms
+        readFence = 0;
+        return modSequence.get() == stamp - 2L;
     }
 
     @Override
@@ -195,6 +331,21 @@ public class Content implements CharSequence {
      * @return The character at the given position
      */
     public char charAt(int line, int column) {
+        long stamp = tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                var target = lines.get(line);
+                // Out of bounds columns are reported under the lock
+                if (column >= 0 && column <= target.length() + target.getLineSeparator().getLength()) {
+                    var ch = target.charAt(column);
+                    if (validateOptimisticRead(stamp)) {
+                        return ch;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Concurrent modification or invalid arguments. Check again under the lock
+            }
+        }
         lock(false);
         try {
             checkLineAndColumn(line, column);
@@ -247,6 +398,17 @@ public class Content implements CharSequence {
      * @return Raw ContentLine used by Content
      */
     public ContentLine getLine(int line) {
+        long stamp = tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                var result = lines.get(line);
+                if (validateOptimisticRead(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Check again under the lock
+            }
+        }
         lock(false);
         try {
             return lines.get(line);
@@ -255,6 +417,35 @@ public class Content implements CharSequence {
         }
     }
 
+    /**
+     * Get text of the given line for reading, without creating line objects for lines that are
+     * not loaded yet. The result should not be modified.
+     *
+     * @see LineStorage#getReadOnlyLine(int)
+     */
+    @NonNull
+    public CharSequence getReadOnlyLine(int line) {
+        lock(false);
+        try {
+            return lines.getReadOnlyLine(line);
+        } finally {
+            unlock(false);
+        }
+    }
+
+    /**
+     * Get the line separator of the given line
+     */
+    @NonNull
+    public LineSeparator getLineSeparator(int line) {
+        lock(false);
+        try {
+            return lines.getLineSeparator(line);
+        } finally {
+            unlock(false);
+        }
+    }
+
     /**
      * Get how many lines there are
      *
@@ -272,7 +463,23 @@ public class Content implements CharSequence {
      * @return Character count on line
      */
     public int getColumnCount(int line) {
-        return getLine(line).length();
+        long stamp = tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                int result = lines.getColumnCount(line);
+                if (validateOptimisticRead(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Check again under the lock
+            }
+        }
+        lock(false);
+        try {
+            return lines.getColumnCount(line);
+        } finally {
+            unlock(false);
+        }
     }
 
     /**
@@ -298,6 +505,17 @@ public class Content implements CharSequence {
      * @param offset Offset in dest to store the chars
      */
     public void getRegionOnLine(int line, int start, int end, char[] dest, int offset) {
+        long stamp = tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                lines.get(line).getChars(start, end, dest, offset);
+                if (validateOptimisticRead(stamp)) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // Check again under the lock. Chars written to dest are overwritten
+            }
+        }
         lock(false);
         try {
             lines.get(line).getChars(start, end, dest, offset);
@@ -346,8 +564,7 @@ public class Content implements CharSequence {
             if (line < 0 || line >= getLineCount()) {
                 return false;
             }
-            ContentLine text = getLine(line);
-            if (column > text.length() + text.getLineSeparator().getLength() || column < 0) {
+            if (column > lines.getColumnCount(line) + lines.getLineSeparator(line).getLength() || column < 0) {
                 return false;
             }
             return getIndexer().getCharIndex(line, column) == index;
@@ -364,6 +581,7 @@ public class Content implements CharSequence {
      * @param text   The text you want to insert at the position
      */
     public void insert(int line, int column, CharSequence text) {
+        checkModifiable();
         lock(true);
         documentVersion.getAndIncrement();
         try {
@@ -378,9 +596,9 @@ public class Content implements CharSequence {
         if (text == null) {
             throw new IllegalArgumentException("text can not be null");
         }
-        if (column > lines.get(line).length()) {
+        if (column > lines.getColumnCount(line)) {
             // Never insert texts between line separator characters
-            column = lines.get(line).length();
+            column = lines.getColumnCount(line);
         }
 
         // Notify listeners and cursor manager
@@ -438,6 +656,7 @@ public class Content implements CharSequence {
      * @param end   End position in content
      */
     public void delete(int start, int end) {
+        checkModifiable();
         lock(true);
         checkIndex(start);
         checkIndex(end);
@@ -462,6 +681,7 @@ public class Content implements CharSequence {
      * @param columnOnEndLine   The end column position
      */
     public void delete(int startLine, int columnOnStartLine, int endLine, int columnOnEndLine) {
+        checkModifiable();
         lock(true);
         documentVersion.getAndIncrement();
         try {
@@ -477,16 +697,15 @@ public class Content implements CharSequence {
         if (startLine == endLine && columnOnStartLine == columnOnEndLine) {
             return;
         }
-        var endLineObj = lines.get(endLine);
-        if (columnOnEndLine > endLineObj.length() && endLine + 1 < getLineCount()) {
+        if (columnOnEndLine > lines.getColumnCount(endLine) && endLine + 1 < getLineCount()) {
             // Expected to delete the whole newline
             deleteInternal(startLine, columnOnStartLine, endLine + 1, 0);
             return;
         }
-        var startLineObj = lines.get(startLine);
-        if (columnOnStartLine > startLineObj.length()) {
+        int startLineLength = lines.getColumnCount(startLine);
+        if (columnOnStartLine > startLineLength) {
             // Expected to delete the whole newline
-            deleteInternal(startLine, startLineObj.length(), endLine, columnOnEndLine);
+            deleteInternal(startLine, startLineLength, endLine, columnOnEndLine);
             return;
         }
         var changedContent = new StringBuilder();
@@ -548,13 +767,7 @@ public class Content implements CharSequence {
      * Make the given line mutable
      */
     private ContentLine makeLineMutable(int line) {
-        var data = lines.get(line);
-        var mut = data.toMutable();
-        if (mut != data) {
-            lines.set(line, mut);
-            data.release();
-        }
-        return mut;
+        return lines.getMutableLine(line);
     }
 
     /**
@@ -571,6 +784,7 @@ public class Content implements CharSequence {
         if (text == null) {
             throw new IllegalArgumentException("text can not be null");
         }
+        checkModifiable();
         lock(true);
         documentVersion.getAndIncrement();
         try {
@@ -582,6 +796,64 @@ public class Content implements CharSequence {
         }
     }
 
+    /**
+     * Apply several edits to this text at once. Positions of edits are all in the text before any
+     * edit is applied, and the edits must not overlap. Edits at the same position are applied in
+     * the given order.
+     * <p>
+     * Edits are applied one by one from the last one in the text, so text between them is not
+     * touched. Listeners receive changes of each edit, and then
+     * {@link ContentListener#afterApplyEdits(Content, List)} once with all the edits. All the edits
+     * are undone or redone as a single action.
+     *
+     * @param edits Non-overlapping edits
+     * @throws IllegalArgumentException if the edits overlap
+     */
+    public void applyEdits(@NonNull List<TextEdit> edits) {
+        checkModifiable();
+        if (edits.isEmpty()) {
+            return;
+        }
+        var sorted = new ArrayList<>(edits);
+        // Stable, so that edits at the same position keep their order
+        Collections.sort(sorted, TextEdit.POSITION_COMPARATOR);
+        for (int i = 1; i < sorted.size(); i++) {
+            if (!sorted.get(i - 1).isBefore(sorted.get(i))) {
+                throw new IllegalArgumentException("edits overlap: " + sorted.get(i - 1) + " and " + sorted.get(i));
+            }
+        }
+        lock(true);
+        beginBatchEdit();
+        try {
+            for (var edit : sorted) {
+                checkLineAndColumn(edit.getStartLine(), edit.getStartColumn());
+                checkLineAndColumn(edit.getEndLine(), edit.getEndColumn());
+            }
+            // Apply from the last one, so that positions of previous edits are not changed
+            for (int i = sorted.size() - 1; i >= 0; i--) {
+                var edit = sorted.get(i);
+                boolean deletes = edit.getStartLine() != edit.getEndLine() || edit.getStartColumn() != edit.getEndColumn();
+                boolean inserts = edit.getNewText().length() > 0;
+                documentVersion.getAndIncrement();
+                if (deletes && inserts) {
+                    dispatchBeforeReplace();
+                }
+                if (deletes) {
+                    deleteInternal(edit.getStartLine(), edit.getStartColumn(), edit.getEndLine(), edit.getEndColumn());
+                }
+                if (inserts) {
+                    insertInternal(edit.getStartLine(), edit.getStartColumn(), edit.getNewText());
+                }
+            }
+            for (var lis : contentListeners) {
+                lis.afterApplyEdits(this, sorted);
+            }
+        } finally {
+            endBatchEdit();
+            unlock(true);
+        }
+    }
+
     /**
      * Replace text in the given region with the text
      */
@@ -760,11 +1032,78 @@ public class Content implements CharSequence {
      */
     public Indexer getIndexer() {
         if (cursor != null) {
-            return cursor.getIndexer();
+            return cursor.getTextIndexer();
         }
         return indexer;
     }
 
+    /**
+     * Set whether to use {@link PrefixSumIndexer} for this text, instead of {@link CachedIndexer}.
+     * <p>
+     * {@link PrefixSumIndexer} converts positions in O(log n) time wherever they are, which is
+     * preferred for large texts whose positions are queried randomly, such as diagnostics and
+     * search results. The indexer is shared with the {@link Cursor} of this text.
+     */
+    public void setPrefixSumIndexerEnabled(boolean enabled) {
+        if (enabled == isPrefixSumIndexerEnabled()) {
+            return;
+        }
+        lock(true);
+        try {
+            indexer = enabled ? new PrefixSumIndexer(this) : new CachedIndexer(this);
+            if (cursor != null) {
+                cursor.setSharedIndexer(enabled ? indexer : null);
+            }
+        } finally {
+            unlock(true);
+        }
+    }
+
+    /**
+     * @see #setPrefixSumIndexerEnabled(boolean)
+     */
+    public boolean isPrefixSumIndexerEnabled() {
+        return indexer instanceof PrefixSumIndexer;
+    }
+
+    /**
+     * Set whether to maintain a {@link TrigramIndex} for this text. The index lets searches
+     * skip lines that can not contain the query, which is preferred for large texts that are
+     * searched repeatedly. Building the index costs O(n) time, and each modification then
+     * rebuilds the index of modified lines.
+     * <p>
+     * The index is not kept by copies of this text.
+     */
+    public void setTrigramIndexEnabled(boolean enabled) {
+        if (enabled == isTrigramIndexEnabled()) {
+            return;
+        }
+        lock(true);
+        try {
+            trigramIndex = enabled ? new TrigramIndex(this) : null;
+        } finally {
+            unlock(true);
+        }
+    }
+
+    /**
+     * @see #setTrigramIndexEnabled(boolean)
+     */
+    public boolean isTrigramIndexEnabled() {
+        return trigramIndex != null;
+    }
+
+    /**
+     * Get the trigram index of this text
+     *
+     * @return The index, or null if it is not enabled
+     * @see #setTrigramIndexEnabled(boolean)
+     */
+    @Nullable
+    public TrigramIndex getTrigramIndex() {
+        return trigramIndex;
+    }
+
     /**
      * Quick method to get sub string of this object
      *
@@ -992,6 +1331,9 @@ public class Content implements CharSequence {
     public Cursor getCursor() {
         if (cursor == null) {
             cursor = new Cursor(this);
+            if (isPrefixSumIndexerEnabled()) {
+                cursor.setSharedIndexer(indexer);
+            }
         }
         return cursor;
     }
@@ -1029,11 +1371,16 @@ public class Content implements CharSequence {
      */
     private void dispatchAfterDelete(int a, int b, int c, int d, @NonNull CharSequence e) {
         undoManager.afterDelete(this, a, b, c, d, e);
-        if (cursor != null)
-            cursor.afterDelete(a, b, c, d, e);
+        // Indexer may be shared with cursor, so update it first
         if (indexer instanceof ContentListener) {
             ((ContentListener) indexer).afterDelete(this, a, b, c, d, e);
         }
+        if (cursor != null)
+            cursor.afterDelete(a, b, c, d, e);
+        // Update index before listeners, which may start searching
+        if (trigramIndex != null) {
+            trigramIndex.afterDelete(this, a, b, c, d, e);
+        }
         for (ContentListener lis : contentListeners) {
             lis.afterDelete(this, a, b, c, d, e);
         }
@@ -1057,16 +1404,30 @@ public class Content implements CharSequence {
      */
     private void dispatchAfterInsert(int a, int b, int c, int d, @NonNull CharSequence e) {
         undoManager.afterInsert(this, a, b, c, d, e);
-        if (cursor != null)
-            cursor.afterInsert(a, b, c, d, e);
+        // Indexer may be shared with cursor, so update it first
         if (indexer instanceof ContentListener) {
             ((ContentListener) indexer).afterInsert(this, a, b, c, d, e);
         }
+        if (cursor != null)
+            cursor.afterInsert(a, b, c, d, e);
+        // Update index before listeners, which may start searching
+        if (trigramIndex != null) {
+            trigramIndex.afterInsert(this, a, b, c, d, e);
+        }
         for (ContentListener lis : contentListeners) {
             lis.afterInsert(this, a, b, c, d, e);
         }
     }
 
+    /**
+     * Check whether this text can be modified
+     */
+    protected void checkModifiable() {
+        if (lines.isReadOnly()) {
+            throw new UnsupportedOperationException("text is read-only");
+        }
+    }
+
     /**
      * Check whether the index is valid
      *
@@ -1097,8 +1458,7 @@ public class Content implements CharSequence {
      */
     protected void checkLineAndColumn(int line, int column) {
         checkLine(line);
-        var text = lines.get(line);
-        int len = text.length() + text.getLineSeparator().getLength();
+        int len = lines.getColumnCount(line) + lines.getLineSeparator(line).getLength();
         if (column > len || column < 0) {
             throw new StringIndexOutOfBoundsException(
                     "Column " + column + " out of bounds. line: " + line + " , column count (line separator included):" + len);
@@ -1129,26 +1489,40 @@ public class Content implements CharSequence {
     public Content copyText(boolean newContentThreadSafe, boolean shallow) {
         lock(false);
         try {
-            var n = new Content(null, newContentThreadSafe);
-            n.lines.remove(0);
-            ((ArrayList<ContentLine>) n.lines).ensureCapacity(getLineCount());
-            if (shallow) {
-                for (ContentLine line : lines) {
-                    line.retain();
-                }
-                n.lines.addAll(lines);
-            } else {
-                for (ContentLine line : lines) {
-                    n.lines.add(new ContentLine(line));
-                }
-            }
-            n.textLength = textLength;
-            return n;
+            var content = new Content(lines.copy(shallow), newContentThreadSafe, textLength);
+            content.setPrefixSumIndexerEnabled(isPrefixSumIndexerEnabled());
+            return content;
         } finally {
             unlock(false);
         }
     }
 
+    /**
+     * Create an immutable snapshot of current text. The snapshot is not affected by later
+     * modifications to this object, and can be read by any thread without locking.
+     * <p>
+     * With {@link TreeLineStorage}, the snapshot shares lines with this object and is created in
+     * O(1) time. Otherwise, the lines are shallow copied in O(n) time, where n is the line count.
+     * Only the read lock is held during creation, so other readers are not blocked.
+     *
+     * @see ContentSnapshot
+     */
+    @NonNull
+    public ContentSnapshot createSnapshot() {
+        LineStorage snapshot;
+        int length;
+        long version;
+        lock(false);
+        try {
+            snapshot = lines.snapshot();
+            length = textLength;
+            version = getDocumentVersion();
+        } finally {
+            unlock(false);
+        }
+        return new ContentSnapshot(snapshot, length, version);
+    }
+
     /**
      * Shallow copy text in this Content object.
      * Returns a new Content object with the same text as this object. By default, the object is not
@@ -1174,10 +1548,7 @@ public class Content implements CharSequence {
     public void release() {
         lock(true);
         try {
-            for (ContentLine line : lines) {
-                line.release();
-            }
-            lines.clear();
+            lines.release();
             textLength = 0;
             this.cursor = null;
             this.bidi.destroy();
@@ -1187,12 +1558,12 @@ public class Content implements CharSequence {
     }
 
     protected int getColumnCountUnsafe(int line) {
-        return lines.get(line).length();
+        return lines.getColumnCount(line);
     }
 
     @NonNull
     protected LineSeparator getLineSeparatorUnsafe(int line) {
-        return lines.get(line).getLineSeparator();
+        return lines.getLineSeparator(line);
     }
 
     /**
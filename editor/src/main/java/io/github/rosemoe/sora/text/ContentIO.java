@@ -26,6 +26,7 @@ package io.github.rosemoe.sora.text;
 import androidx.annotation.NonNull;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -34,6 +35,7 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * Helper class for creating or saving {@link Content} objects, with minimal extra memory usage when
@@ -108,6 +110,62 @@ public class ContentIO {
         return content;
     }
 
+    /**
+     * Create a {@link Content} from stream, whose lines are saved in the {@link LineStorage} created
+     * by the given factory.
+     * The stream will get closed if the operation is successfully done.
+     *
+     * @param stream         Source stream
+     * @param charset        Charset for decoding the content
+     * @param storageFactory Factory of line storage, such as {@code TreeLineStorage::new}
+     * @see #createFrom(Reader, LineStorage.Factory)
+     */
+    @NonNull
+    public static Content createFrom(@NonNull InputStream stream, @NonNull Charset charset, @NonNull LineStorage.Factory storageFactory) throws IOException {
+        return createFrom(new InputStreamReader(stream, charset), storageFactory);
+    }
+
+    /**
+     * Create a {@link Content} from reader, whose lines are saved in the {@link LineStorage} created
+     * by the given factory.
+     * <p>
+     * The whole text is read before the lines are created, so that storages supporting
+     * {@link LineStorage#loadText(CharSequence)} can load it at once.
+     * <p>
+     * The reader will get closed if the operation is successfully done.
+     */
+    @NonNull
+    public static Content createFrom(@NonNull Reader reader, @NonNull LineStorage.Factory storageFactory) throws IOException {
+        var buffer = new char[BUFFER_SIZE];
+        int length = 0;
+        int count;
+        while ((count = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += count;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        reader.close();
+        return new Content(new CharArrayWrapper(buffer, length), true, storageFactory);
+    }
+
+    /**
+     * Create a read-only {@link Content} by memory-mapping the given file.
+     * <p>
+     * Only line offsets are indexed when the file is opened, and lines are decoded when they are
+     * accessed. This is suitable for viewing huge files, such as logs. The file should not be modified
+     * while the returned text is in use.
+     *
+     * @param file    Source file
+     * @param charset Charset for decoding the content
+     * @see MappedLineStorage
+     */
+    @NonNull
+    public static Content createFromMappedFile(@NonNull File file, @NonNull Charset charset) throws IOException {
+        // No lock is required as the text is never modified
+        return new Content(new MappedLineStorage(file, charset), false);
+    }
+
     /**
      * Write the text to the given stream with default charset. Close the stream if {@code closeOnSucceed} is true.
      *
@@ -143,11 +201,21 @@ public class ContentIO {
     public static void writeTo(@NonNull Content text, @NonNull Writer writer, boolean closeOnSucceed) throws IOException {
         // Use buffered writer to avoid frequently IO when there are a lot of short lines
         final var buffered = (writer instanceof BufferedWriter) ? (BufferedWriter)writer : new BufferedWriter(writer, BUFFER_SIZE);
+        // Compact lines are copied through this buffer, so that they are kept compact
+        final var chars = new char[BUFFER_SIZE];
         try {
             text.runReadActionsOnLines(0, text.getLineCount() - 1, (Content.ContentLineConsumer2) (index, line, flag) -> {
                 try {
                     // Write line content
-                    buffered.write(line.getBackingCharArray(), 0, line.length());
+                    if (line.isCompact()) {
+                        for (int start = 0; start < line.length(); start += chars.length) {
+                            int end = Math.min(line.length(), start + chars.length);
+                            line.getChars(start, end, chars, 0);
+                            buffered.write(chars, 0, end - start);
+                        }
+                    } else {
+                        buffered.write(line.getCharsForRead(chars), 0, line.length());
+                    }
                     // Write line feed (the last line has empty line feed)
                     buffered.write(line.getLineSeparator().getChars());
                 } catch (IOException e) {
@@ -28,6 +28,7 @@ import android.text.GetChars;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.rosemoe.sora.annotations.UnsupportedUserUsage;
@@ -37,7 +38,16 @@ import io.github.rosemoe.sora.util.ShareableData;
 
 public class ContentLine implements CharSequence, GetChars, BidiRequirementChecker, ShareableData<ContentLine> {
 
+    private static volatile boolean sCompactStorageEnabled = true;
+
+    /**
+     * Characters in UTF-16. Null if the line is stored in {@link #compactValue}
+     */
     private char[] value;
+    /**
+     * Characters in Latin-1, one byte for each char. Null if the line is stored in {@link #value}
+     */
+    private byte[] compactValue;
     private int length;
 
     private int rtlAffectingCount;
@@ -54,25 +64,77 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
     }
 
     public ContentLine(@NonNull ContentLine src) {
-        this(src.length + 16);
+        this(false);
         length = src.length;
         rtlAffectingCount = src.rtlAffectingCount;
         lineSeparator = src.lineSeparator;
-        System.arraycopy(src.value, 0, value, 0, length);
+        if (src.compactValue != null) {
+            compactValue = new byte[length + 16];
+            System.arraycopy(src.compactValue, 0, compactValue, 0, length);
+        } else {
+            value = new char[length + 16];
+            System.arraycopy(src.value, 0, value, 0, length);
+        }
     }
 
     public ContentLine(int size) {
         length = 0;
-        value = new char[size];
+        allocate(size);
     }
 
     private ContentLine(boolean initialize) {
         if (initialize) {
             length = 0;
-            value = new char[32];
+            allocate(32);
+        }
+    }
+
+    /**
+     * Set whether new lines store their text in Latin-1, with one byte for each character, until
+     * a character out of Latin-1 is inserted. This halves the memory used by typical source files.
+     * Enabled by default.
+     * <p>
+     * Lines created before this call are not affected.
+     */
+    public static void setCompactStorageEnabled(boolean enabled) {
+        sCompactStorageEnabled = enabled;
+    }
+
+    public static boolean isCompactStorageEnabled() {
+        return sCompactStorageEnabled;
+    }
+
+    private void allocate(int size) {
+        if (sCompactStorageEnabled) {
+            compactValue = new byte[size];
+        } else {
+            value = new char[size];
         }
     }
 
+    /**
+     * Check if the line is currently stored in Latin-1
+     */
+    public boolean isCompact() {
+        return compactValue != null;
+    }
+
+    /**
+     * Convert the storage to UTF-16
+     */
+    private void inflate() {
+        var src = compactValue;
+        if (src == null) {
+            return;
+        }
+        var dest = new char[src.length];
+        for (int i = 0; i < length; i++) {
+            dest[i] = (char) (src[i] & 0xff);
+        }
+        value = dest;
+        compactValue = null;
+    }
+
     private void checkIndex(int index) {
         if (index < 0 || index > length) {
             throw new StringIndexOutOfBoundsException("index = " + index + ", length = " + length);
@@ -80,7 +142,14 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
     }
 
     private void ensureCapacity(int capacity) {
-        if (value.length < capacity) {
+        if (compactValue != null) {
+            if (compactValue.length < capacity) {
+                int newLength = compactValue.length * 2 < capacity ? capacity + 2 : compactValue.length * 2;
+                byte[] newValue = new byte[newLength];
+                System.arraycopy(compactValue, 0, newValue, 0, length);
+                compactValue = newValue;
+            }
+        } else if (value.length < capacity) {
             int newLength = value.length * 2 < capacity ? capacity + 2 : value.length * 2;
             char[] newValue = new char[newLength];
             System.arraycopy(value, 0, newValue, 0, length);
@@ -173,8 +242,29 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
                             + s.length());
         int len = end - start;
         ensureCapacity(length + len);
-        System.arraycopy(value, dstOffset, value, dstOffset + len,
-                length - dstOffset);
+        var bytes = compactValue;
+        if (bytes != null) {
+            System.arraycopy(bytes, dstOffset, bytes, dstOffset + len,
+                    length - dstOffset);
+            // Latin-1 characters never affect RTL
+            for (; start < end; start++) {
+                var ch = s.charAt(start);
+                if (ch > 0xff) {
+                    // The gap is copied as well, and then filled below
+                    var dest = new char[bytes.length];
+                    for (int i = 0; i < length + len; i++) {
+                        dest[i] = (char) (bytes[i] & 0xff);
+                    }
+                    value = dest;
+                    compactValue = null;
+                    break;
+                }
+                bytes[dstOffset++] = (byte) ch;
+            }
+        } else {
+            System.arraycopy(value, dstOffset, value, dstOffset + len,
+                    length - dstOffset);
+        }
         for (int i = start; i < end; i++) {
             var ch = s.charAt(i);
             value[dstOffset++] = ch;
@@ -188,6 +278,18 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
 
     @NonNull
     public ContentLine insert(int offset, char c) {
+        if (compactValue != null) {
+            if (c <= 0xff) {
+                ensureCapacity(length + 1);
+                if (offset < length) {
+                    System.arraycopy(compactValue, offset, compactValue, offset + 1, length - offset);
+                }
+                compactValue[offset] = (byte) c;
+                length += 1;
+                return this;
+            }
+            inflate();
+        }
         ensureCapacity(length + 1);
         if (offset < length) {
             System.arraycopy(value, offset, value, offset + 1, length - offset);
@@ -223,7 +325,10 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
         if (start > end)
             throw new StringIndexOutOfBoundsException();
         int len = end - start;
-        if (len > 0) {
+        if (len > 0 && compactValue != null) {
+            System.arraycopy(compactValue, start + len, compactValue, start, length - end);
+            length -= len;
+        } else if (len > 0) {
             for (int i = start; i < end; i++) {
                 if (TextBidi.couldAffectRtl(value[i])) {
                     rtlAffectingCount--;
@@ -269,7 +374,8 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
             var separator = getLineSeparator();
             return separator.getLength() > 0 ? getLineSeparator().getContent().charAt(index - length) : '\n';
         }
-        return value[index];
+        var bytes = compactValue;
+        return bytes != null ? (char) (bytes[index] & 0xff) : value[index];
     }
 
     @Override
@@ -280,11 +386,17 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
         if (end < start) {
             throw new StringIndexOutOfBoundsException("start is greater than end");
         }
+        var res = new ContentLine(false);
+        res.length = end - start;
+        if (compactValue != null) {
+            byte[] newValue = new byte[end - start + 16];
+            System.arraycopy(compactValue, start, newValue, 0, end - start);
+            res.compactValue = newValue;
+            return res;
+        }
         char[] newValue = new char[end - start + 16];
         System.arraycopy(value, start, newValue, 0, end - start);
-        var res = new ContentLine(false);
         res.value = newValue;
-        res.length = end - start;
 
         // Compute new value when required
         if (rtlAffectingCount > 0) {
@@ -301,12 +413,23 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
      * A convenient method to append text to a StringBuilder
      */
     public void appendTo(@NonNull StringBuilder sb) {
-        sb.append(value, 0, length);
+        var bytes = compactValue;
+        if (bytes != null) {
+            sb.ensureCapacity(sb.length() + length);
+            for (int i = 0; i < length; i++) {
+                sb.append((char) (bytes[i] & 0xff));
+            }
+        } else {
+            sb.append(value, 0, length);
+        }
     }
 
     @Override
     @NonNull
     public String toString() {
+        if (compactValue != null) {
+            return new String(compactValue, 0, length, StandardCharsets.ISO_8859_1);
+        }
         return new String(value, 0, length);
     }
 
@@ -316,6 +439,13 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
      */
     @NonNull
     public String toStringWithNewline() {
+        if (compactValue != null) {
+            if (compactValue.length == length) {
+                ensureCapacity(length + 1);
+            }
+            compactValue[length] = '\n';
+            return new String(compactValue, 0, length + 1, StandardCharsets.ISO_8859_1);
+        }
         if (value.length == length) {
             ensureCapacity(length + 1);
         }
@@ -326,10 +456,38 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
     /**
      * Get the backing char array of this object.
      * The result array should not be modified.
+     * <p>
+     * The storage is never changed by this call. For a compact line, a new array with decoded
+     * characters is returned each time. Hot paths should use {@link #getCharsForRead(char[])}
+     * with their own buffer, or {@link #charAt(int)}.
      */
     @NonNull
     public char[] getBackingCharArray() {
-        return value;
+        return getCharsForRead(null);
+    }
+
+    /**
+     * Get characters of this line for reading, indexed by column, without changing the storage.
+     * The result array should not be modified.
+     * <p>
+     * For a UTF-16 line, the backing array is returned. For a compact line, characters are decoded
+     * into {@code buffer} if it is large enough, or into a new array otherwise. Only reuse the
+     * result as buffer when {@link #isCompact()} returns true.
+     */
+    @NonNull
+    public char[] getCharsForRead(@Nullable char[] buffer) {
+        var bytes = compactValue;
+        if (bytes == null) {
+            return value;
+        }
+        int len = length;
+        if (buffer == null || buffer.length < len) {
+            buffer = new char[len + 16];
+        }
+        for (int i = 0; i < len; i++) {
+            buffer[i] = (char) (bytes[i] & 0xff);
+        }
+        return buffer;
     }
 
     public void getChars(int srcBegin, int srcEnd, @NonNull char[] dst, int dstBegin) {
@@ -339,6 +497,13 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
             throw new StringIndexOutOfBoundsException(srcEnd);
         if (srcBegin > srcEnd)
             throw new StringIndexOutOfBoundsException("srcBegin > srcEnd");
+        var bytes = compactValue;
+        if (bytes != null) {
+            for (int i = srcBegin; i < srcEnd; i++) {
+                dst[dstBegin++] = (char) (bytes[i] & 0xff);
+            }
+            return;
+        }
         System.arraycopy(value, srcBegin, dst, dstBegin, srcEnd - srcBegin);
     }
 
@@ -362,8 +527,13 @@ public class ContentLine implements CharSequence, GetChars, BidiRequirementCheck
     public ContentLine copy() {
         var clone = new ContentLine(false);
         clone.length = length;
-        clone.value = new char[value.length];
-        System.arraycopy(value, 0, clone.value, 0, length);
+        if (compactValue != null) {
+            clone.compactValue = new byte[compactValue.length];
+            System.arraycopy(compactValue, 0, clone.compactValue, 0, length);
+        } else {
+            clone.value = new char[value.length];
+            System.arraycopy(value, 0, clone.value, 0, length);
+        }
         clone.rtlAffectingCount = rtlAffectingCount;
         clone.lineSeparator = lineSeparator;
         return clone;
@@ -25,6 +25,8 @@ package io.github.rosemoe.sora.text;
 
 import androidx.annotation.NonNull;
 
+import java.util.List;
+
 import io.github.rosemoe.sora.annotations.UnsupportedUserUsage;
 
 /**
@@ -69,6 +71,21 @@ public interface ContentListener {
      */
     void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent);
 
+    /**
+     * This is to notify you that the Content object has applied the given edits by
+     * {@link Content#applyEdits(java.util.List)}. Changes of text are already notified by
+     * {@link #afterDelete(Content, int, int, int, int, CharSequence)} and
+     * {@link #afterInsert(Content, int, int, int, int, CharSequence)} calls of each edit, from the
+     * last edit in text to the first. This is called once after them, with all the edits sorted
+     * by their positions.
+     *
+     * @param content The Content which has applied the edits
+     * @param edits   Applied edits, positions of which are in the text before modification
+     */
+    default void afterApplyEdits(@NonNull Content content, @NonNull List<TextEdit> edits) {
+
+    }
+
     /**
      * Internal API
      */
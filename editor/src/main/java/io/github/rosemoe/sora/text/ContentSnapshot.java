@@ -0,0 +1,139 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable view of a {@link Content} at a document version, created by
+ * {@link Content#createSnapshot()}.
+ * <p>
+ * The snapshot is only a view over the lines of its source. It is not affected by modifications to
+ * its source, and it can not be modified, so it has no lock or undo manager. It can be read by any
+ * thread while the source text is being edited.
+ * It's recommended to call {@link #release()} when the snapshot is no longer used.
+ *
+ * @author Rosemoe
+ */
+public final class ContentSnapshot extends Content {
+
+    private final long documentVersion;
+
+    ContentSnapshot(@NonNull LineStorage lines, int textLength, long documentVersion) {
+        super(lines, textLength);
+        this.documentVersion = documentVersion;
+    }
+
+    /**
+     * Get the document version of source text when this snapshot is created
+     */
+    @Override
+    public long getDocumentVersion() {
+        return documentVersion;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    protected void checkModifiable() {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    @Override
+    public TextRange undo() {
+        checkModifiable();
+        return null;
+    }
+
+    @Override
+    public void redo() {
+        checkModifiable();
+    }
+
+    @Override
+    public boolean isUndoManagerWorking() {
+        return false;
+    }
+
+    @Override
+    public boolean canUndo() {
+        return false;
+    }
+
+    @Override
+    public boolean canRedo() {
+        return false;
+    }
+
+    @Override
+    public boolean isUndoEnabled() {
+        return false;
+    }
+
+    @Override
+    public void setUndoEnabled(boolean enabled) {
+        checkModifiable();
+    }
+
+    @Override
+    public int getMaxUndoStackSize() {
+        return 0;
+    }
+
+    @Override
+    public void setMaxUndoStackSize(int maxSize) {
+        checkModifiable();
+    }
+
+    @Override
+    public boolean beginBatchEdit() {
+        checkModifiable();
+        return false;
+    }
+
+    @Override
+    public boolean endBatchEdit() {
+        checkModifiable();
+        return false;
+    }
+
+    /**
+     * Snapshots have no undo manager
+     *
+     * @return Always null
+     */
+    @Override
+    public UndoManager getUndoManager() {
+        return null;
+    }
+
+    @Override
+    public void setUndoManager(UndoManager manager) {
+        checkModifiable();
+    }
+
+}
@@ -24,6 +24,7 @@
 package io.github.rosemoe.sora.text;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import io.github.rosemoe.sora.util.IntPair;
 
@@ -39,7 +40,9 @@ public final class Cursor {
     public final static int DIRECTION_RTL = 2;
 
     private final Content content;
-    private final CachedIndexer indexer;
+    private Indexer indexer;
+    private boolean sharedIndexer;
+    private CachedIndexer legacyIndexer;
     private CharPosition leftSel, rightSel;
     private CharPosition cache0, cache1, cache2;
     private int selDirection = DIRECTION_NONE;
@@ -190,10 +193,40 @@ public final class Cursor {
      *
      * @return Using Indexer
      */
-    public CachedIndexer getIndexer() {
+    public Indexer getTextIndexer() {
         return indexer;
     }
 
+    /**
+     * Get a {@link CachedIndexer} for the text.
+     * <p>
+     * When the text shares its {@link PrefixSumIndexer} with the cursor, a separate
+     * {@link CachedIndexer} is created on first call and kept updated afterwards.
+     *
+     * @return CachedIndexer of the text
+     * @deprecated Use {@link #getTextIndexer()} instead
+     */
+    @Deprecated
+    public CachedIndexer getIndexer() {
+        if (!sharedIndexer) {
+            return (CachedIndexer) indexer;
+        }
+        if (legacyIndexer == null) {
+            legacyIndexer = new CachedIndexer(content);
+        }
+        return legacyIndexer;
+    }
+
+    /**
+     * Use the given indexer of {@link Content}, which is updated by the text itself. If null is
+     * given, cursor creates its own {@link CachedIndexer}.
+     */
+    void setSharedIndexer(@Nullable Indexer indexer) {
+        sharedIndexer = indexer != null;
+        this.indexer = sharedIndexer ? indexer : new CachedIndexer(content);
+        legacyIndexer = null;
+    }
+
     /**
      * Get whether text is selected
      *
@@ -320,7 +353,11 @@ public final class Cursor {
      * Internal call back before replace
      */
     void beforeReplace() {
-        indexer.beforeReplace(content);
+        if (!sharedIndexer) {
+            ((CachedIndexer) indexer).beforeReplace(content);
+        } else if (legacyIndexer != null) {
+            legacyIndexer.beforeReplace(content);
+        }
     }
 
     /**
@@ -334,7 +371,15 @@ public final class Cursor {
      */
     void afterInsert(int startLine, int startColumn, int endLine, int endColumn,
                      CharSequence insertedContent) {
-        indexer.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        if (!sharedIndexer) {
+            ((CachedIndexer) indexer).afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        } else if (legacyIndexer != null) {
+            legacyIndexer.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        }
+        if (content.isLoading()) {
+            // Text appended by loader should not move the selection
+            return;
+        }
         int beginIdx = cache0.getIndex();
         if (getLeft() >= beginIdx) {
             leftSel = indexer.getCharPosition(getLeft() + insertedContent.length()).fromThis();
@@ -355,7 +400,11 @@ public final class Cursor {
      */
     void afterDelete(int startLine, int startColumn, int endLine, int endColumn,
                      CharSequence deletedContent) {
-        indexer.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        if (!sharedIndexer) {
+            ((CachedIndexer) indexer).afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        } else if (legacyIndexer != null) {
+            legacyIndexer.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        }
         int beginIdx = cache1.getIndex();
         int endIdx = cache2.getIndex();
         int left = getLeft();
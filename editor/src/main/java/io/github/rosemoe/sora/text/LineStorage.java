@@ -0,0 +1,153 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Storage of {@link ContentLine}s used by {@link Content}.
+ * <p>
+ * Implementations may keep line metadata without creating {@link ContentLine} objects for every line. So
+ * {@link #getColumnCount(int)} and {@link #getLineSeparator(int)} should be used when the line text itself is
+ * not required.
+ *
+ * @author Rosemoe
+ * @see ArrayLineStorage
+ * @see TreeLineStorage
+ * @see MappedLineStorage
+ */
+public interface LineStorage extends List<ContentLine> {
+
+    /**
+     * Get the length of the given line, line separator excluded
+     */
+    default int getColumnCount(int line) {
+        return get(line).length();
+    }
+
+    /**
+     * Get text of the given line for reading, line separator excluded. Unlike {@link #get(int)},
+     * this does not create line objects for lines that are not created yet.
+     * <p>
+     * The result should not be modified, and it may not reflect later modifications.
+     */
+    @NonNull
+    default CharSequence getReadOnlyLine(int line) {
+        return get(line);
+    }
+
+    /**
+     * Get the line separator of the given line
+     */
+    @NonNull
+    default LineSeparator getLineSeparator(int line) {
+        return get(line).getLineSeparator();
+    }
+
+    /**
+     * Fill this empty storage with the lines of the given text at once.
+     *
+     * @param text Text to load
+     * @return {@code true} if the text is loaded. {@code false} if bulk loading is not supported by
+     * the storage, and the text should be inserted normally.
+     */
+    default boolean loadText(@NonNull CharSequence text) {
+        return false;
+    }
+
+    /**
+     * Get the line object at the given index for modification. If the line is shared with other
+     * owners, it is replaced by a copy in this storage.
+     */
+    @NonNull
+    default ContentLine getMutableLine(int index) {
+        var data = get(index);
+        var mut = data.toMutable();
+        if (mut != data) {
+            set(index, mut);
+            data.release();
+        }
+        return mut;
+    }
+
+    /**
+     * Check whether the lines can be modified. {@link Content} rejects modifications when its storage is
+     * read-only.
+     */
+    default boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Release all the line objects held and clear this storage.
+     *
+     * @see ContentLine#release()
+     */
+    default void release() {
+        for (int i = 0; i < size(); i++) {
+            get(i).release();
+        }
+        clear();
+    }
+
+    /**
+     * Copy the lines into a new storage of the same kind.
+     *
+     * @param shallow If true, line objects are shared with the new storage and are copied when
+     *                they are modified by either owner.
+     */
+    @NonNull
+    LineStorage copy(boolean shallow);
+
+    /**
+     * Create a view of current lines, which is not affected by later modifications to this
+     * storage. The view is only read, and is released by {@link #release()} when it is no longer
+     * used.
+     * <p>
+     * By default, this makes a shallow copy, which costs O(n) time.
+     * <p>
+     * This is called with only the read lock of text held, so it may run concurrently with reads
+     * and other calls to this method or {@link #copy(boolean)}.
+     */
+    @NonNull
+    default LineStorage snapshot() {
+        return copy(true);
+    }
+
+    /**
+     * Factory for creating {@link LineStorage} for new {@link Content} objects
+     */
+    interface Factory {
+
+        /**
+         * Create a new empty storage
+         */
+        @NonNull
+        LineStorage createLineStorage();
+
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only {@link LineStorage} over a memory-mapped file.
+ * <p>
+ * Only an index of line offsets is built when the storage is created. Line text is decoded from the
+ * mapped bytes on demand, and a limited count of recently used lines are cached. So the memory usage
+ * is roughly proportional to the lines in use, rather than the file size.
+ * <p>
+ * The charset must encode CR and LF as single bytes that never occur in other characters, for example
+ * UTF-8, US-ASCII, ISO-8859-1 and GBK. UTF-16 and UTF-32 are not supported.
+ *
+ * @author Rosemoe
+ * @see ContentIO#createFromMappedFile(File, Charset)
+ */
+public class MappedLineStorage extends AbstractList<ContentLine> implements LineStorage {
+
+    public final static int DEFAULT_CACHE_SIZE = 1024;
+    private final static int SCAN_BUFFER_SIZE = 65536;
+    private final static LineSeparator[] SEPARATORS = LineSeparator.values();
+
+    private final Charset charset;
+    private final int cacheSize;
+    private final Map<Integer, ContentLine> cache;
+    private ByteBuffer buffer;
+    private int lineCount;
+    /**
+     * Byte offsets of line starts. The extra element at the end is the byte count of file.
+     */
+    private int[] lineStarts;
+    /**
+     * Char count of lines, line separator excluded
+     */
+    private int[] lineLengths;
+    private byte[] separators;
+
+    /**
+     * Map the given file with {@link #DEFAULT_CACHE_SIZE}
+     *
+     * @see #MappedLineStorage(File, Charset, int)
+     */
+    public MappedLineStorage(@NonNull File file, @NonNull Charset charset) throws IOException {
+        this(file, charset, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Map the given file and build the line index
+     *
+     * @param file      File to map. The file is expected to be unchanged while the storage is used.
+     * @param charset   Charset for decoding the file
+     * @param cacheSize Max count of decoded lines to be cached
+     * @throws IllegalArgumentException if the charset is not supported
+     * @throws IOException              if the file can not be mapped, or it is larger than 2GB
+     */
+    public MappedLineStorage(@NonNull File file, @NonNull Charset charset, int cacheSize) throws IOException {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("cache size must be positive");
+        }
+        var separatorBytes = "\r\n".getBytes(charset);
+        if (separatorBytes.length != 2 || separatorBytes[0] != '\r' || separatorBytes[1] != '\n') {
+            throw new IllegalArgumentException("unsupported charset: " + charset.name());
+        }
+        this.charset = charset;
+        this.cacheSize = cacheSize;
+        this.cache = createCache(cacheSize);
+        try (var raf = new RandomAccessFile(file, "r"); var channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file is too large to be mapped: " + size + " bytes");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        buildIndex();
+    }
+
+    private MappedLineStorage(@NonNull MappedLineStorage src) {
+        charset = src.charset;
+        cacheSize = src.cacheSize;
+        cache = createCache(cacheSize);
+        buffer = src.buffer;
+        lineCount = src.lineCount;
+        lineStarts = src.lineStarts;
+        lineLengths = src.lineLengths;
+        separators = src.separators;
+    }
+
+    @NonNull
+    private static Map<Integer, ContentLine> createCache(int cacheSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ContentLine> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    private void buildIndex() {
+        final int size = buffer.limit();
+        // Char counts are computed from bytes for UTF-8 and single-byte charsets
+        final boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        final boolean singleByte = charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1f;
+        lineStarts = new int[1024];
+        lineLengths = new int[1024];
+        separators = new byte[1024];
+        lineCount = 0;
+        var src = buffer.duplicate();
+        src.position(0);
+        var chunk = new byte[SCAN_BUFFER_SIZE];
+        int chunkStart = 0;
+        int lineStart = 0;
+        // UTF-16 length of current line, or -1 if the line must be decoded to know its length
+        int chars = 0;
+        // Count and value range of UTF-8 continuation bytes expected
+        int pending = 0;
+        int lower = 0x80, upper = 0xBF;
+        boolean pendingCR = false;
+        while (chunkStart < size) {
+            int count = Math.min(chunk.length, size - chunkStart);
+            src.get(chunk, 0, count);
+            for (int i = 0; i < count; i++) {
+                byte b = chunk[i];
+                int offset = chunkStart + i;
+                if (pendingCR) {
+                    pendingCR = false;
+                    if (b == '\n') {
+                        appendLine(lineStart, offset - 1, LineSeparator.CRLF, chars);
+                        lineStart = offset + 1;
+                        chars = 0;
+                        continue;
+                    }
+                    appendLine(lineStart, offset - 1, LineSeparator.CR, chars);
+                    lineStart = offset;
+                    chars = 0;
+                }
+                if (b == '\n' || b == '\r') {
+                    if (pending != 0) {
+                        // Truncated sequence
+                        chars = -1;
+                        pending = 0;
+                    }
+                    if (b == '\r') {
+                        pendingCR = true;
+                        continue;
+                    }
+                    appendLine(lineStart, offset, LineSeparator.LF, chars);
+                    lineStart = offset + 1;
+                    chars = 0;
+                } else if (chars == -1) {
+                    // Decoded anyway
+                } else if (singleByte) {
+                    chars++;
+                } else if (b >= 0) {
+                    if (pending != 0) {
+                        chars = -1;
+                        pending = 0;
+                    } else {
+                        chars++;
+                    }
+                } else if (!utf8) {
+                    chars = -1;
+                } else {
+                    int value = b & 0xff;
+                    if (pending != 0) {
+                        if (value < lower || value > upper) {
+                            chars = -1;
+                            pending = 0;
+                        } else {
+                            pending--;
+                            lower = 0x80;
+                            upper = 0xBF;
+                        }
+                    } else if (value >= 0xC2 && value <= 0xDF) {
+                        chars++;
+                        pending = 1;
+                        lower = 0x80;
+                        upper = 0xBF;
+                    } else if (value >= 0xE0 && value <= 0xEF) {
+                        // Overlong forms and surrogates are malformed
+                        chars++;
+                        pending = 2;
+                        lower = value == 0xE0 ? 0xA0 : 0x80;
+                        upper = value == 0xED ? 0x9F : 0xBF;
+                    } else if (value >= 0xF0 && value <= 0xF4) {
+                        // Supplementary chars take two UTF-16 units
+                        chars += 2;
+                        pending = 3;
+                        lower = value == 0xF0 ? 0x90 : 0x80;
+                        upper = value == 0xF4 ? 0x8F : 0xBF;
+                    } else {
+                        chars = -1;
+                    }
+                }
+            }
+            chunkStart += count;
+        }
+        if (pending != 0) {
+            chars = -1;
+        }
+        if (pendingCR) {
+            appendLine(lineStart, size - 1, LineSeparator.CR, chars);
+            lineStart = size;
+            chars = 0;
+        }
+        appendLine(lineStart, size, LineSeparator.NONE, chars);
+        if (lineStarts.length == lineCount) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount + 1);
+        }
+        lineStarts[lineCount] = size;
+    }
+
+    /**
+     * Add a line to index
+     *
+     * @param start     Start byte offset of the line
+     * @param end       End byte offset of the line, separator excluded
+     * @param separator Separator of the line
+     * @param chars     UTF-16 length of the line, or -1 if it is unknown
+     */
+    private void appendLine(int start, int end, @NonNull LineSeparator separator, int chars) {
+        if (lineCount == lineStarts.length) {
+            int newSize = lineCount << 1;
+            lineStarts = Arrays.copyOf(lineStarts, newSize);
+            lineLengths = Arrays.copyOf(lineLengths, newSize);
+            separators = Arrays.copyOf(separators, newSize);
+        }
+        lineStarts[lineCount] = start;
+        // Decode only when the char count can not be inferred from bytes, such as malformed input
+        lineLengths[lineCount] = chars != -1 ? chars : decode(start, end).length();
+        separators[lineCount] = (byte) separator.ordinal();
+        lineCount++;
+    }
+
+    @NonNull
+    private CharBuffer decode(int start, int end) {
+        var src = buffer.duplicate();
+        src.limit(end);
+        src.position(start);
+        // Malformed input is replaced, so the result length is stable
+        return charset.decode(src);
+    }
+
+    private void checkAccessIndex(int index) {
+        if (index < 0 || index >= lineCount) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds. length = " + lineCount);
+        }
+    }
+
+    @Override
+    public ContentLine get(int index) {
+        checkAccessIndex(index);
+        synchronized (cache) {
+            var line = cache.get(index);
+            if (line == null) {
+                var separator = SEPARATORS[separators[index]];
+                var text = decode(lineStarts[index], lineStarts[index + 1] - separator.getLength());
+                line = new ContentLine(text.length());
+                line.insert(0, text);
+                line.setLineSeparator(separator);
+                cache.put(index, line);
+            }
+            return line;
+        }
+    }
+
+    @Override
+    public int size() {
+        return lineCount;
+    }
+
+    @Override
+    public int getColumnCount(int line) {
+        checkAccessIndex(line);
+        return lineLengths[line];
+    }
+
+    @NonNull
+    @Override
+    public LineSeparator getLineSeparator(int line) {
+        checkAccessIndex(line);
+        return SEPARATORS[separators[line]];
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    /**
+     * Drop the mapped file and the line index. The storage becomes empty.
+     */
+    @Override
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        buffer = null;
+        lineCount = 0;
+        lineStarts = null;
+        lineLengths = null;
+        separators = null;
+        modCount++;
+    }
+
+    @Override
+    public void release() {
+        clear();
+    }
+
+    /**
+     * The mapped file and line index are shared with the new storage, as they are never modified.
+     * Only the decoded line cache is owned by each storage.
+     */
+    @NonNull
+    @Override
+    public MappedLineStorage copy(boolean shallow) {
+        return new MappedLineStorage(this);
+    }
+
+}
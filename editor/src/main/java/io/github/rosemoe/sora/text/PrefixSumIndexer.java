@@ -0,0 +1,276 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.rosemoe.sora.annotations.UnsupportedUserUsage;
+import io.github.rosemoe.sora.util.FenwickTree;
+
+/**
+ * Indexer Impl for Content, with prefix sums of line lengths.
+ * <p>
+ * Lengths of lines (with their separators) are stored in blocks of lines. Char count and line
+ * count of blocks are summed in two Fenwick trees, so that both (line,column) to index and index to
+ * (line,column) conversions take O(log n + B) time, where B is the block size, no matter
+ * where the queried position is. Small modifications in a single line update the trees
+ * in O(log n) time. Modifications that add or remove lines rebuild the trees of block sums only.
+ * <p>
+ * Unlike {@link CachedIndexer}, which is fast for positions near recently queried ones, this
+ * indexer is suitable for random accesses in large texts.
+ *
+ * @author Rosemoe
+ * @see Content#setPrefixSumIndexerEnabled(boolean)
+ */
+public class PrefixSumIndexer implements Indexer, ContentListener {
+
+    /**
+     * Preferred line count in a block
+     */
+    private final static int BLOCK_SIZE = 256;
+
+    private final Content content;
+    private final List<Block> blocks = new ArrayList<>();
+    private final FenwickTree charTree = new FenwickTree();
+    private final FenwickTree lineTree = new FenwickTree();
+
+    /**
+     * Create a new PrefixSumIndexer for the given content
+     *
+     * @param content Content to manage
+     */
+    PrefixSumIndexer(@NonNull Content content) {
+        this.content = content;
+        content.lock(false);
+        try {
+            var lineCount = content.getLineCount();
+            var lengths = new int[lineCount];
+            for (int i = 0; i < lineCount; i++) {
+                lengths[i] = lengthOf(i);
+            }
+            addBlocks(0, lengths, 0, lineCount);
+            rebuildTrees();
+        } finally {
+            content.unlock(false);
+        }
+    }
+
+    /**
+     * Get length of line, including its line separator
+     */
+    private int lengthOf(int line) {
+        return content.getColumnCountUnsafe(line) + content.getLineSeparatorUnsafe(line).getLength();
+    }
+
+    /**
+     * Split the given lengths into blocks and insert them at the given block position
+     */
+    private void addBlocks(int blockIndex, @NonNull int[] lengths, int start, int end) {
+        var blockCount = (end - start + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        var list = new ArrayList<Block>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            int from = start + (end - start) * i / blockCount;
+            int to = start + (end - start) * (i + 1) / blockCount;
+            list.add(new Block(lengths, from, to));
+        }
+        blocks.addAll(blockIndex, list);
+    }
+
+    /**
+     * Rebuild Fenwick trees of block sums in O(B) time, where B is the block count
+     */
+    private void rebuildTrees() {
+        charTree.rebuild(blocks.size(), i -> blocks.get(i).sum);
+        lineTree.rebuild(blocks.size(), i -> blocks.get(i).size);
+    }
+
+    @Override
+    public int getCharIndex(int line, int column) {
+        return getCharPosition(line, column).index;
+    }
+
+    @Override
+    public int getCharLine(int index) {
+        return getCharPosition(index).line;
+    }
+
+    @Override
+    public int getCharColumn(int index) {
+        return getCharPosition(index).column;
+    }
+
+    @NonNull
+    @Override
+    public CharPosition getCharPosition(int index) {
+        var pos = new CharPosition();
+        getCharPosition(index, pos);
+        return pos;
+    }
+
+    @Override
+    public void getCharPosition(int index, @NonNull CharPosition dest) {
+        content.checkIndex(index);
+        content.lock(false);
+        try {
+            synchronized (this) {
+                int blockIndex = charTree.search(index);
+                int remaining = index - charTree.prefixSum(blockIndex);
+                var block = blocks.get(blockIndex);
+                int line = lineTree.prefixSum(blockIndex);
+                int i = 0;
+                // The end of text is on the last line, which has no separator
+                while (i < block.size - 1 && remaining >= block.lengths[i]) {
+                    remaining -= block.lengths[i];
+                    i++;
+                }
+                dest.index = index;
+                dest.line = line + i;
+                dest.column = remaining;
+            }
+        } finally {
+            content.unlock(false);
+        }
+    }
+
+    @NonNull
+    @Override
+    public CharPosition getCharPosition(int line, int column) {
+        var pos = new CharPosition();
+        getCharPosition(line, column, pos);
+        return pos;
+    }
+
+    @Override
+    public void getCharPosition(int line, int column, @NonNull CharPosition dest) {
+        content.checkLineAndColumn(line, column);
+        content.lock(false);
+        try {
+            synchronized (this) {
+                int blockIndex = lineTree.search(line);
+                int offset = line - lineTree.prefixSum(blockIndex);
+                var block = blocks.get(blockIndex);
+                int index = charTree.prefixSum(blockIndex);
+                for (int i = 0; i < offset; i++) {
+                    index += block.lengths[i];
+                }
+                dest.index = index + column;
+                dest.line = line;
+                dest.column = column;
+            }
+        } finally {
+            content.unlock(false);
+        }
+    }
+
+    /**
+     * Replace lengths of lines in [startLine, endLine] with the given count of lines, whose
+     * lengths are read from the text
+     */
+    private void replaceLines(int startLine, int endLine, int newLineCount) {
+        int blockIndex = lineTree.search(startLine);
+        int offset = startLine - lineTree.prefixSum(blockIndex);
+        var block = blocks.get(blockIndex);
+        if (startLine == endLine && newLineCount == 1) {
+            // Modification in single line
+            int length = lengthOf(startLine);
+            int delta = length - block.lengths[offset];
+            block.lengths[offset] = length;
+            block.sum += delta;
+            charTree.add(blockIndex, delta);
+            return;
+        }
+        // Find affected blocks
+        int lastBlockIndex = lineTree.search(endLine);
+        int lastOffset = endLine - lineTree.prefixSum(lastBlockIndex);
+        var lastBlock = blocks.get(lastBlockIndex);
+        int tailSize = lastBlock.size - lastOffset - 1;
+        int newSize = offset + newLineCount + tailSize;
+        // Merge small block into its next one
+        Block nextBlock = null;
+        if (newSize < BLOCK_SIZE / 2 && lastBlockIndex + 1 < blocks.size()) {
+            nextBlock = blocks.get(++lastBlockIndex);
+            newSize += nextBlock.size;
+        }
+        var lengths = new int[newSize];
+        System.arraycopy(block.lengths, 0, lengths, 0, offset);
+        for (int i = 0; i < newLineCount; i++) {
+            lengths[offset + i] = lengthOf(startLine + i);
+        }
+        System.arraycopy(lastBlock.lengths, lastOffset + 1, lengths, offset + newLineCount, tailSize);
+        if (nextBlock != null) {
+            System.arraycopy(nextBlock.lengths, 0, lengths, offset + newLineCount + tailSize, nextBlock.size);
+        }
+        blocks.subList(blockIndex, lastBlockIndex + 1).clear();
+        if (newSize <= 2 * BLOCK_SIZE) {
+            blocks.add(blockIndex, new Block(lengths, 0, newSize));
+        } else {
+            addBlocks(blockIndex, lengths, 0, newSize);
+        }
+        rebuildTrees();
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public void beforeReplace(@NonNull Content content) {
+        //Do nothing
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public synchronized void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+                                         @NonNull CharSequence insertedContent) {
+        replaceLines(startLine, startLine, endLine - startLine + 1);
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public synchronized void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+                                         @NonNull CharSequence deletedContent) {
+        replaceLines(startLine, endLine, 1);
+    }
+
+    /**
+     * Lengths of a continuous range of lines
+     */
+    private static class Block {
+
+        final int[] lengths;
+        final int size;
+        int sum;
+
+        Block(@NonNull int[] src, int start, int end) {
+            size = end - start;
+            lengths = new int[size];
+            System.arraycopy(src, start, lengths, 0, size);
+            for (int length : lengths) {
+                sum += length;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Load text into a {@link Content} progressively, so that the first lines can be displayed and
+ * analyzed while the rest of the source is still being read.
+ * <p>
+ * Reading and decoding is done on a background thread. Decoded chunks are appended to the end of
+ * the target text on the given delivery {@link Executor}, which should be the thread that the
+ * text is modified on (the UI thread for texts displayed in editor). Thus listeners of the text,
+ * such as the editor, its layout and the analyze manager, receive ordinary insertions and are
+ * updated incrementally.
+ * <p>
+ * While loading, {@link Content#isLoading()} returns true, and undo is disabled for the text. For
+ * example:
+ * <pre>
+ *     var text = new Content();
+ *     editor.setText(text);
+ *     new StreamingContentLoader(text, reader).start(editor::post);
+ * </pre>
+ *
+ * @author Rosemoe
+ */
+public class StreamingContentLoader {
+
+    /**
+     * Default count of chars in a chunk
+     */
+    public final static int DEFAULT_CHUNK_SIZE = 65536;
+
+    /**
+     * Max count of chunks that are read but not yet appended to the text
+     */
+    private final static int MAX_PENDING_CHUNKS = 4;
+
+    private static int sThreadId;
+
+    private final Content content;
+    private final Reader reader;
+    private final int chunkSize;
+    private final Semaphore pendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+    private Listener listener;
+    private Executor executor;
+    private Thread thread;
+    private volatile boolean cancelled;
+    private boolean finished;
+    private boolean undoEnabled;
+
+    /**
+     * Create a loader with default chunk size
+     *
+     * @param content Target text. It should be empty.
+     * @param reader  Source reader. It is closed after loading.
+     */
+    public StreamingContentLoader(@NonNull Content content, @NonNull Reader reader) {
+        this(content, reader, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a loader
+     *
+     * @param content   Target text. It should be empty.
+     * @param reader    Source reader. It is closed after loading.
+     * @param chunkSize Count of chars to read before appending them to the text
+     */
+    public StreamingContentLoader(@NonNull Content content, @NonNull Reader reader, int chunkSize) {
+        if (chunkSize < 2) {
+            throw new IllegalArgumentException("chunk size is too small");
+        }
+        this.content = content;
+        this.reader = reader;
+        this.chunkSize = chunkSize;
+    }
+
+    private synchronized static int nextThreadId() {
+        sThreadId++;
+        return sThreadId;
+    }
+
+    /**
+     * Set listener of loading progress. Callbacks are invoked on the delivery executor.
+     */
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    public Content getContent() {
+        return content;
+    }
+
+    /**
+     * Start loading. This should be called on the thread where the text is modified.
+     *
+     * @param deliveryExecutor Executor to run modifications to the text
+     * @throws IllegalStateException if the loader is already started, or the text is read-only
+     */
+    public synchronized void start(@NonNull Executor deliveryExecutor) {
+        if (thread != null) {
+            throw new IllegalStateException("loader is already started");
+        }
+        if (content.isReadOnly()) {
+            throw new IllegalStateException("text is read-only");
+        }
+        executor = deliveryExecutor;
+        undoEnabled = content.isUndoEnabled();
+        content.setUndoEnabled(false);
+        content.setLoading(true);
+        thread = new Thread(this::readChunks);
+        thread.setDaemon(true);
+        thread.setName("StreamingContentLoader-" + nextThreadId());
+        thread.start();
+    }
+
+    /**
+     * Stop loading. Text that is already appended is kept. The listener still receives
+     * {@link Listener#onLoadFinished(StreamingContentLoader)} when the loader stops.
+     */
+    public void cancel() {
+        cancelled = true;
+        var thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Check whether the loader is started and not finished yet
+     */
+    public boolean isRunning() {
+        return thread != null && !finished;
+    }
+
+    private void readChunks() {
+        Throwable error = null;
+        try {
+            var buffer = new char[chunkSize];
+            int length = 0;
+            boolean eof = false;
+            while (!eof && !cancelled) {
+                int count = reader.read(buffer, length, buffer.length - length);
+                if (count == -1) {
+                    eof = true;
+                } else {
+                    length += count;
+                }
+                if (length == 0 || (!eof && length < buffer.length)) {
+                    continue;
+                }
+                // Keep trailing CR for next chunk, so that a CRLF is never split
+                int deliverLength = length;
+                if (!eof && buffer[length - 1] == '\r') {
+                    deliverLength--;
+                }
+                deliverChunk(new String(buffer, 0, deliverLength));
+                if (deliverLength < length) {
+                    buffer[0] = '\r';
+                    length = 1;
+                } else {
+                    length = 0;
+                }
+            }
+        } catch (IOException e) {
+            // Reading may be interrupted by cancellation
+            if (!cancelled) {
+                error = e;
+            }
+        } catch (InterruptedException e) {
+            // Interrupted while waiting for chunks to be appended. Stop loading
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+        var finalError = error;
+        executor.execute(() -> finish(finalError));
+    }
+
+    private void deliverChunk(@NonNull String chunk) throws InterruptedException {
+        pendingChunks.acquire();
+        executor.execute(() -> {
+            try {
+                if (!cancelled) {
+                    appendChunk(chunk);
+                }
+            } finally {
+                pendingChunks.release();
+            }
+        });
+    }
+
+    private void appendChunk(@NonNull String chunk) {
+        int startLine = content.getLineCount() - 1;
+        content.insert(startLine, content.getColumnCount(startLine), chunk);
+        var listener = this.listener;
+        if (listener != null) {
+            listener.onLinesLoaded(this, startLine, content.getLineCount() - 1);
+        }
+    }
+
+    private void finish(@Nullable Throwable error) {
+        finished = true;
+        content.setLoading(false);
+        content.setUndoEnabled(undoEnabled);
+        var listener = this.listener;
+        if (listener != null) {
+            if (error != null) {
+                listener.onLoadFailed(this, error);
+            } else {
+                listener.onLoadFinished(this);
+            }
+        }
+    }
+
+    /**
+     * Listener for loading progress
+     */
+    public interface Listener {
+
+        /**
+         * Called when a chunk is appended to the text
+         *
+         * @param startLine First line that is modified by the chunk
+         * @param endLine   Last line of the text after the chunk is appended
+         */
+        default void onLinesLoaded(@NonNull StreamingContentLoader loader, int startLine, int endLine) {
+
+        }
+
+        /**
+         * Called when the source is completely loaded, or the loader is cancelled
+         */
+        default void onLoadFinished(@NonNull StreamingContentLoader loader) {
+
+        }
+
+        /**
+         * Called when the source can not be read. Text that is already appended is kept.
+         */
+        default void onLoadFailed(@NonNull StreamingContentLoader loader, @NonNull Throwable error) {
+
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.Comparator;
+
+/**
+ * Describes replacing text in a region with new text. Positions are in the text before any edit
+ * is applied.
+ *
+ * @author Rosemoe
+ * @see Content#applyEdits(java.util.List)
+ */
+public class TextEdit {
+
+    /**
+     * Compare edits by start positions, and then by end positions
+     */
+    public final static Comparator<TextEdit> POSITION_COMPARATOR = (a, b) -> {
+        int result = Integer.compare(a.startLine, b.startLine);
+        if (result == 0) {
+            result = Integer.compare(a.startColumn, b.startColumn);
+        }
+        if (result == 0) {
+            result = Integer.compare(a.endLine, b.endLine);
+        }
+        if (result == 0) {
+            result = Integer.compare(a.endColumn, b.endColumn);
+        }
+        return result;
+    };
+
+    private final int startLine;
+    private final int startColumn;
+    private final int endLine;
+    private final int endColumn;
+    private final CharSequence newText;
+
+    public TextEdit(int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence newText) {
+        if (startLine > endLine || (startLine == endLine && startColumn > endColumn)) {
+            throw new IllegalArgumentException("start is after end");
+        }
+        this.startLine = startLine;
+        this.startColumn = startColumn;
+        this.endLine = endLine;
+        this.endColumn = endColumn;
+        this.newText = newText;
+    }
+
+    public TextEdit(@NonNull TextRange range, @NonNull CharSequence newText) {
+        this(range.getStart().line, range.getStart().column, range.getEnd().line, range.getEnd().column, newText);
+    }
+
+    public int getStartLine() {
+        return startLine;
+    }
+
+    public int getStartColumn() {
+        return startColumn;
+    }
+
+    public int getEndLine() {
+        return endLine;
+    }
+
+    public int getEndColumn() {
+        return endColumn;
+    }
+
+    @NonNull
+    public CharSequence getNewText() {
+        return newText;
+    }
+
+    /**
+     * Check whether this edit ends before (or at) the start of the given edit
+     */
+    public boolean isBefore(@NonNull TextEdit edit) {
+        return endLine < edit.startLine || (endLine == edit.startLine && endColumn <= edit.startColumn);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "TextEdit{" +
+                "startLine=" + startLine +
+                ", startColumn=" + startColumn +
+                ", endLine=" + endLine +
+                ", endColumn=" + endColumn +
+                ", newText=" + newText +
+                '}';
+    }
+}
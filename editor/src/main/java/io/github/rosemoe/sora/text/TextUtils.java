@@ -167,16 +167,15 @@ public class TextUtils {
      * @param line The line to search
      */
     public static long findLeadingAndTrailingWhitespacePos(ContentLine line) {
-        var buffer = line.getBackingCharArray();
         int column = line.length();
         int leading = 0;
         int trailing = column;
-        while (leading < column && isWhitespace(buffer[leading])) {
+        while (leading < column && isWhitespace(line.charAt(leading))) {
             leading++;
         }
         // Only them this action is needed
         if (leading != column) {
-            while (trailing > 0 && isWhitespace(buffer[trailing - 1])) {
+            while (trailing > 0 && isWhitespace(line.charAt(trailing - 1))) {
                 trailing--;
             }
         }
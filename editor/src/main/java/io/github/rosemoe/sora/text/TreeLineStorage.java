@@ -0,0 +1,602 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LineStorage} backed by a balanced tree (a treap with implicit keys).
+ * <p>
+ * Inserting or deleting lines costs O(log n) regardless of the line count, at the cost of O(log n)
+ * random access. Text loaded by {@link #loadText(CharSequence)} is kept in shared chunks of about
+ * 16K chars, and {@link ContentLine} objects are only created for lines that are actually
+ * accessed. Queries of line length and line separator never create line objects. A chunk is
+ * no longer referenced once all of its lines are created or removed, so it can be collected.
+ * <p>
+ * The tree is persistent: nodes are never modified after they are shared by {@link #snapshot()} or
+ * {@link #copy(boolean) shallow copies}. Instead, modifications copy the nodes on the path to the
+ * modified position, and lines in shared nodes are copied before they are modified. So snapshots
+ * and shallow copies are created in O(1) time, and snapshots can be read by other threads without
+ * locking while this storage is modified.
+ *
+ * @author Rosemoe
+ */
+public class TreeLineStorage extends AbstractList<ContentLine> implements LineStorage {
+
+    /**
+     * Preferred char count of chunks for loaded text
+     */
+    private final static int CHUNK_SIZE = 16384;
+    private final static AtomicInteger sNextVersion = new AtomicInteger();
+
+    private Node root;
+    private int seed;
+    /**
+     * Nodes created with other versions are shared, and can not be modified by this storage
+     */
+    private int version = sNextVersion.incrementAndGet();
+    private boolean readOnly;
+
+    // Results of split()
+    private Node splitLeft;
+    private Node splitRight;
+
+    public TreeLineStorage() {
+        seed = (int) System.nanoTime() | 1;
+    }
+
+    private static int sizeOf(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Get a node that can be modified by this storage, with the same content as the given one
+     */
+    private Node own(Node node) {
+        if (node == null || node.version == version) {
+            return node;
+        }
+        var copy = new Node(node.priority, version);
+        copy.left = node.left;
+        copy.right = node.right;
+        copy.size = node.size;
+        // Read the chunk first, as it is cleared after the line is created
+        var chunk = node.chunk;
+        var line = node.line;
+        copy.line = line;
+        copy.lineShared = line != null;
+        copy.chunk = line == null ? chunk : null;
+        copy.start = node.start;
+        copy.length = node.length;
+        copy.separator = node.separator;
+        return copy;
+    }
+
+    /**
+     * Make nodes currently in tree shared, so that they are never modified
+     */
+    private void freeze() {
+        version = sNextVersion.incrementAndGet();
+    }
+
+    private Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority >= b.priority) {
+            a = own(a);
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        } else {
+            b = own(b);
+            b.left = merge(a, b.left);
+            b.update();
+            return b;
+        }
+    }
+
+    /**
+     * Split the given tree into [0, index) and [index, size), results are saved to
+     * {@link #splitLeft} and {@link #splitRight}
+     */
+    private void split(Node node, int index) {
+        if (node == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        node = own(node);
+        int leftSize = sizeOf(node.left);
+        if (index <= leftSize) {
+            split(node.left, index);
+            node.left = splitRight;
+            node.update();
+            splitRight = node;
+        } else {
+            split(node.right, index - leftSize - 1);
+            node.right = splitLeft;
+            node.update();
+            splitLeft = node;
+        }
+    }
+
+    private int nextPriority() {
+        // xorshift32
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        return x & Integer.MAX_VALUE;
+    }
+
+    private void checkAccessIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds. length = " + size());
+        }
+    }
+
+    private void checkInsertIndex(int index) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds. length = " + size());
+        }
+    }
+
+    @NonNull
+    private Node findNode(int index) {
+        checkAccessIndex(index);
+        var node = root;
+        while (true) {
+            int leftSize = sizeOf(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Find the node at the given index for modification. Shared nodes on the path are copied.
+     */
+    @NonNull
+    private Node findNodeMut(int index) {
+        checkAccessIndex(index);
+        root = own(root);
+        var node = root;
+        while (true) {
+            int leftSize = sizeOf(node.left);
+            if (index < leftSize) {
+                node.left = own(node.left);
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node.right = own(node.right);
+                node = node.right;
+            }
+        }
+    }
+
+    private void checkModifiable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("storage is read-only");
+        }
+    }
+
+    /**
+     * Get the line object of the node, create it from the shared chunk if absent
+     */
+    @NonNull
+    private ContentLine materialize(@NonNull Node node) {
+        var line = node.line;
+        if (line == null) {
+            synchronized (node) {
+                line = node.line;
+                if (line == null) {
+                    line = new ContentLine(node.length);
+                    line.insert(0, new CharArrayWrapper(node.chunk, node.start, node.length));
+                    line.setLineSeparator(node.separator);
+                    node.line = line;
+                    // Readers check the line before the chunk
+                    node.chunk = null;
+                }
+            }
+        }
+        return line;
+    }
+
+    @Override
+    public int size() {
+        return sizeOf(root);
+    }
+
+    @Override
+    public ContentLine get(int index) {
+        return materialize(findNode(index));
+    }
+
+    @NonNull
+    @Override
+    public CharSequence getReadOnlyLine(int line) {
+        var node = findNode(line);
+        var obj = node.line;
+        if (obj == null) {
+            var chunk = node.chunk;
+            if (chunk != null) {
+                return new CharArrayWrapper(chunk, node.start, node.length);
+            }
+            // Materialized by another thread just now
+            obj = node.line;
+        }
+        return obj;
+    }
+
+    @Override
+    public ContentLine set(int index, ContentLine element) {
+        checkModifiable();
+        var old = get(index);
+        var node = findNodeMut(index);
+        node.line = element;
+        node.lineShared = false;
+        node.chunk = null;
+        return old;
+    }
+
+    @NonNull
+    @Override
+    public ContentLine getMutableLine(int index) {
+        checkModifiable();
+        var node = findNodeMut(index);
+        var line = node.line;
+        if (line == null) {
+            return materialize(node);
+        }
+        if (node.lineShared) {
+            // The line is used by shared nodes, even if it is not retained
+            var copy = line.copy();
+            node.line = copy;
+            node.lineShared = false;
+            return copy;
+        }
+        var mut = line.toMutable();
+        if (mut != line) {
+            node.line = mut;
+            line.release();
+        }
+        return mut;
+    }
+
+    @Override
+    public void add(int index, ContentLine element) {
+        checkModifiable();
+        checkInsertIndex(index);
+        var node = new Node(nextPriority(), version);
+        node.line = element;
+        split(root, index);
+        root = merge(merge(splitLeft, node), splitRight);
+        splitLeft = splitRight = null;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(int index, @NonNull Collection<? extends ContentLine> c) {
+        checkModifiable();
+        checkInsertIndex(index);
+        if (c.isEmpty()) {
+            return false;
+        }
+        var builder = new TreeBuilder();
+        for (var line : c) {
+            var node = new Node(nextPriority(), version);
+            node.line = line;
+            builder.append(node);
+        }
+        split(root, index);
+        root = merge(merge(splitLeft, builder.build()), splitRight);
+        splitLeft = splitRight = null;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public ContentLine remove(int index) {
+        var old = get(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        checkModifiable();
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("start = " + fromIndex + ", end = " + toIndex + ", length = " + size());
+        }
+        if (fromIndex == toIndex) {
+            return;
+        }
+        split(root, toIndex);
+        var tail = splitRight;
+        split(splitLeft, fromIndex);
+        root = merge(splitLeft, tail);
+        splitLeft = splitRight = null;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        checkModifiable();
+        root = null;
+        modCount++;
+    }
+
+    @Override
+    public void release() {
+        if (readOnly) {
+            // Nothing is owned by snapshots
+            root = null;
+            return;
+        }
+        releaseTree(root);
+        clear();
+    }
+
+    private void releaseTree(Node node) {
+        if (node == null || node.version != version) {
+            // Lines in shared nodes are not owned by this storage
+            return;
+        }
+        var line = node.line;
+        if (line != null && !node.lineShared) {
+            line.release();
+        }
+        releaseTree(node.left);
+        releaseTree(node.right);
+    }
+
+    @Override
+    public int getColumnCount(int line) {
+        var node = findNode(line);
+        var obj = node.line;
+        return obj != null ? obj.length() : node.length;
+    }
+
+    @NonNull
+    @Override
+    public LineSeparator getLineSeparator(int line) {
+        var node = findNode(line);
+        var obj = node.line;
+        return obj != null ? obj.getLineSeparator() : node.separator;
+    }
+
+    @Override
+    public boolean loadText(@NonNull CharSequence text) {
+        checkModifiable();
+        if (root != null) {
+            throw new IllegalStateException("storage is not empty");
+        }
+        final int len = text.length();
+        var builder = new TreeBuilder();
+        var chunkNodes = new ArrayList<Node>();
+        int chunkStart = 0;
+        int lineStart = 0;
+        for (int i = 0; i < len; i++) {
+            var ch = text.charAt(i);
+            if (ch == '\n' || ch == '\r') {
+                var separator = LineSeparator.LF;
+                int next = i + 1;
+                if (ch == '\r') {
+                    if (next < len && text.charAt(next) == '\n') {
+                        separator = LineSeparator.CRLF;
+                        next++;
+                    } else {
+                        separator = LineSeparator.CR;
+                    }
+                }
+                chunkNodes.add(createChunkNode(lineStart, i - lineStart, separator));
+                lineStart = next;
+                i = next - 1;
+                if (lineStart - chunkStart >= CHUNK_SIZE) {
+                    appendChunk(builder, chunkNodes, text, chunkStart, lineStart);
+                    chunkStart = lineStart;
+                }
+            }
+        }
+        chunkNodes.add(createChunkNode(lineStart, len - lineStart, LineSeparator.NONE));
+        appendChunk(builder, chunkNodes, text, chunkStart, len);
+        root = builder.build();
+        modCount++;
+        return true;
+    }
+
+    @NonNull
+    private Node createChunkNode(int start, int length, @NonNull LineSeparator separator) {
+        var node = new Node(nextPriority(), version);
+        node.start = start;
+        node.length = length;
+        node.separator = separator;
+        return node;
+    }
+
+    /**
+     * Copy text in [start, end) to a new chunk, and append the given nodes of lines in the region
+     * to the builder
+     */
+    private static void appendChunk(@NonNull TreeBuilder builder, @NonNull List<Node> nodes, @NonNull CharSequence text, int start, int end) {
+        var chunk = new char[end - start];
+        android.text.TextUtils.getChars(text, start, end, chunk, 0);
+        for (var node : nodes) {
+            node.chunk = chunk;
+            node.start -= start;
+            builder.append(node);
+        }
+        nodes.clear();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Copy the storage. Shallow copies share the tree with this storage, and are created in O(1) time.
+     */
+    @NonNull
+    @Override
+    public synchronized TreeLineStorage copy(boolean shallow) {
+        var copy = new TreeLineStorage();
+        if (shallow) {
+            freeze();
+            copy.root = root;
+        } else {
+            copy.root = copyTree(root, copy.version);
+        }
+        return copy;
+    }
+
+    /**
+     * Create a read-only view of current lines in O(1) time. The view is not affected by later
+     * modifications to this storage, and can be read by any thread without locking.
+     */
+    @NonNull
+    @Override
+    public TreeLineStorage snapshot() {
+        var copy = copy(true);
+        copy.readOnly = true;
+        return copy;
+    }
+
+    private static Node copyTree(Node node, int version) {
+        if (node == null) {
+            return null;
+        }
+        var copy = new Node(node.priority, version);
+        copy.start = node.start;
+        copy.length = node.length;
+        copy.separator = node.separator;
+        var chunk = node.chunk;
+        var line = node.line;
+        if (line != null) {
+            copy.line = new ContentLine(line);
+        } else {
+            copy.chunk = chunk;
+        }
+        copy.left = copyTree(node.left, version);
+        copy.right = copyTree(node.right, version);
+        copy.size = node.size;
+        return copy;
+    }
+
+    private static class Node {
+
+        Node left;
+        Node right;
+        final int priority;
+        /**
+         * Version of the storage that creates this node
+         */
+        final int version;
+        int size = 1;
+
+        /**
+         * Materialized line object. When absent, the line text is region [start, start + length)
+         * in the shared chunk
+         */
+        volatile ContentLine line;
+        /**
+         * Chunk of loaded text, which is cleared once the line object is created
+         */
+        volatile char[] chunk;
+        /**
+         * Whether the line object is also used by shared nodes
+         */
+        boolean lineShared;
+        int start;
+        int length;
+        LineSeparator separator = LineSeparator.NONE;
+
+        Node(int priority, int version) {
+            this.priority = priority;
+            this.version = version;
+        }
+
+        void update() {
+            size = 1 + sizeOf(left) + sizeOf(right);
+        }
+
+    }
+
+    /**
+     * Build a treap from ordered nodes in linear time
+     */
+    private static class TreeBuilder {
+
+        private final List<Node> rightSpine = new ArrayList<>();
+
+        void append(@NonNull Node node) {
+            Node last = null;
+            while (!rightSpine.isEmpty() && rightSpine.get(rightSpine.size() - 1).priority < node.priority) {
+                last = rightSpine.remove(rightSpine.size() - 1);
+            }
+            node.left = last;
+            if (!rightSpine.isEmpty()) {
+                rightSpine.get(rightSpine.size() - 1).right = node;
+            }
+            rightSpine.add(node);
+        }
+
+        Node build() {
+            if (rightSpine.isEmpty()) {
+                return null;
+            }
+            var root = rightSpine.get(0);
+            computeSize(root);
+            rightSpine.clear();
+            return root;
+        }
+
+        private static int computeSize(Node node) {
+            if (node == null) {
+                return 0;
+            }
+            node.size = 1 + computeSize(node.left) + computeSize(node.right);
+            return node.size;
+        }
+
+    }
+
+}
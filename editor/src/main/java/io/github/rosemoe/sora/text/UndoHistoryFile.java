@@ -0,0 +1,527 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stack of {@link UndoManager.ContentAction}s stored in a local file, used by {@link UndoManager}
+ * to keep older history out of memory.
+ * <p>
+ * Actions are appended to the file as records, whose offsets are indexed in memory, so that any
+ * record can be read directly. Popping an action truncates the file. Removing the oldest action
+ * only skips its record, and skipped records are compacted away once they take much space. When
+ * the file is opened again, the index is rebuilt by scanning record headers only.
+ * <p>
+ * New records are buffered in memory and written to the file in batches, so that pushing an action
+ * does not block the caller on disk I/O every time.
+ *
+ * @author Rosemoe
+ */
+final class UndoHistoryFile implements Closeable {
+
+    private final static int MAGIC = 0x534f5544;
+    private final static int VERSION = 3;
+    /**
+     * Magic, version, index of first record, text length, line count and text hash
+     */
+    private final static int HEADER_SIZE = 28;
+    private final static int FIRST_OFFSET = 8;
+    private final static int STAMP_OFFSET = 12;
+    /**
+     * Buffered records are written when they exceed this size in bytes
+     */
+    private final static int FLUSH_THRESHOLD = 64 * 1024;
+    /**
+     * Removed records are compacted when they exceed this size in bytes, and the size of the
+     * records in use
+     */
+    private final static int COMPACT_THRESHOLD = 1024 * 1024;
+
+    private final static byte TYPE_INSERT = 1;
+    private final static byte TYPE_DELETE = 2;
+    private final static byte TYPE_REPLACE = 3;
+    private final static byte TYPE_MULTI = 4;
+
+    private final RandomAccessFile file;
+    /**
+     * offsets[i] is the start of record i, and offsets[count] is the end of last record
+     */
+    private long[] offsets = new long[64];
+    private int first;
+    /**
+     * Value of {@link #first} stored in file header
+     */
+    private int storedFirst;
+    private int count;
+    /**
+     * Records after this offset are not written to the file yet, and are held in {@link #pending}
+     */
+    private long flushedLength = HEADER_SIZE;
+    private final RecordBuffer pending = new RecordBuffer();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+
+    UndoHistoryFile(@NonNull File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        offsets[0] = HEADER_SIZE;
+        if (!readIndex()) {
+            clear();
+        }
+    }
+
+    /**
+     * Check whether the given action can be stored
+     */
+    static boolean isSupported(@Nullable UndoManager.ContentAction action) {
+        if (action instanceof UndoManager.InsertAction || action instanceof UndoManager.DeleteAction) {
+            return true;
+        } else if (action instanceof UndoManager.ReplaceAction) {
+            var replace = (UndoManager.ReplaceAction) action;
+            return isSupported(replace.insert) && isSupported(replace.delete);
+        } else if (action instanceof UndoManager.MultiAction) {
+            for (var subAction : ((UndoManager.MultiAction) action).getActions()) {
+                if (!isSupported(subAction)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean readIndex() throws IOException {
+        long length = file.length();
+        if (length < HEADER_SIZE) {
+            return false;
+        }
+        file.seek(0);
+        if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+            return false;
+        }
+        int storedFirst = file.readInt();
+        long offset = HEADER_SIZE;
+        while (offset + 4 <= length) {
+            file.seek(offset);
+            int payloadLength = file.readInt();
+            if (payloadLength < 0) {
+                // Corrupt record, which would never advance the offset
+                return false;
+            }
+            long next = offset + 4 + payloadLength;
+            if (next > length) {
+                // Incomplete record
+                break;
+            }
+            ensureCapacity(count + 2);
+            offsets[++count] = next;
+            offset = next;
+        }
+        if (storedFirst < 0 || storedFirst > count) {
+            return false;
+        }
+        if (offset != length) {
+            file.setLength(offset);
+        }
+        flushedLength = offset;
+        first = this.storedFirst = storedFirst;
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (offsets.length < capacity) {
+            offsets = Arrays.copyOf(offsets, Math.max(capacity, offsets.length * 2));
+        }
+    }
+
+    /**
+     * Count of actions in the file
+     */
+    int size() {
+        return count - first;
+    }
+
+    /**
+     * Check whether the history is saved for the given text
+     */
+    boolean isSavedFor(@NonNull Content text) throws IOException {
+        file.seek(STAMP_OFFSET);
+        if (file.readInt() != text.length() || file.readInt() != text.getLineCount()) {
+            return false;
+        }
+        // Only hash the text when the cheap checks pass
+        return file.readLong() == hashOf(text);
+    }
+
+    /**
+     * Write all the actions to the file, and record the text that the history is for
+     */
+    void markSaved(@NonNull Content text) throws IOException {
+        flush();
+        writeStamp(text.length(), text.getLineCount(), hashOf(text));
+    }
+
+    /**
+     * Mark the history is not saved for any text
+     */
+    void markModified() throws IOException {
+        writeStamp(-1, -1, 0);
+    }
+
+    private void writeStamp(int textLength, int lineCount, long hash) throws IOException {
+        file.seek(STAMP_OFFSET);
+        file.writeInt(textLength);
+        file.writeInt(lineCount);
+        file.writeLong(hash);
+    }
+
+    /**
+     * Compute 64-bit FNV-1a hash of the text, including line separators
+     */
+    static long hashOf(@NonNull Content text) {
+        long hash = 0xcbf29ce484222325L;
+        int lineCount = text.getLineCount();
+        for (int i = 0; i < lineCount; i++) {
+            var line = text.getLine(i);
+            int length = line.length();
+            for (int j = 0; j < length; j++) {
+                hash = (hash ^ line.charAt(j)) * 0x100000001b3L;
+            }
+            var separator = text.getLineSeparator(i).getContent();
+            for (int j = 0; j < separator.length(); j++) {
+                hash = (hash ^ separator.charAt(j)) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Write buffered records and index of first record to the file
+     */
+    void flush() throws IOException {
+        if (pending.size() > 0) {
+            file.seek(flushedLength);
+            file.write(pending.array(), 0, pending.size());
+            flushedLength += pending.size();
+            pending.reset();
+        }
+        if (storedFirst != first) {
+            file.seek(FIRST_OFFSET);
+            file.writeInt(first);
+            storedFirst = first;
+        }
+    }
+
+    /**
+     * Remove all the actions
+     */
+    void clear() throws IOException {
+        file.setLength(0);
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        file.writeInt(0);
+        file.writeInt(-1);
+        file.writeInt(-1);
+        file.writeLong(0);
+        first = storedFirst = count = 0;
+        flushedLength = HEADER_SIZE;
+        pending.reset();
+    }
+
+    /**
+     * Append the action
+     */
+    void push(@NonNull UndoManager.ContentAction action) throws IOException {
+        int start = pending.size();
+        try {
+            pendingOut.writeInt(0);
+            writeAction(pendingOut, action);
+        } catch (IOException | RuntimeException e) {
+            pending.truncate(start);
+            throw e;
+        }
+        int recordLength = pending.size() - start;
+        pending.setInt(start, recordLength - 4);
+        ensureCapacity(count + 2);
+        offsets[count + 1] = offsets[count] + recordLength;
+        count++;
+        if (pending.size() >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    /**
+     * Remove and return the last action
+     */
+    @NonNull
+    UndoManager.ContentAction pop() throws IOException {
+        if (size() == 0) {
+            throw new IllegalStateException("no action");
+        }
+        var action = read(count - 1);
+        count--;
+        if (offsets[count] >= flushedLength) {
+            pending.truncate((int) (offsets[count] - flushedLength));
+        } else {
+            // Buffer is empty as the record is in the file
+            file.setLength(offsets[count]);
+            flushedLength = offsets[count];
+        }
+        return action;
+    }
+
+    /**
+     * Remove the oldest action from history. The space of removed records is reclaimed when it
+     * is large enough.
+     */
+    void removeFirst() throws IOException {
+        if (size() > 0) {
+            first++;
+            long removedLength = offsets[first] - HEADER_SIZE;
+            if (removedLength >= COMPACT_THRESHOLD && removedLength > offsets[count] - offsets[first]) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Move records in use to the start of file, and drop removed records
+     */
+    private void compact() throws IOException {
+        flush();
+        long delta = offsets[first] - HEADER_SIZE;
+        var buffer = new byte[64 * 1024];
+        for (long offset = offsets[first]; offset < flushedLength; ) {
+            int length = (int) Math.min(buffer.length, flushedLength - offset);
+            file.seek(offset);
+            file.readFully(buffer, 0, length);
+            file.seek(offset - delta);
+            file.write(buffer, 0, length);
+            offset += length;
+        }
+        flushedLength -= delta;
+        file.setLength(flushedLength);
+        count -= first;
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = offsets[i + first] - delta;
+        }
+        first = 0;
+        flush();
+    }
+
+    /**
+     * Read the action at the given record index
+     */
+    @NonNull
+    private UndoManager.ContentAction read(int index) throws IOException {
+        int payloadLength = (int) (offsets[index + 1] - offsets[index] - 4);
+        if (offsets[index] >= flushedLength) {
+            int start = (int) (offsets[index] - flushedLength) + 4;
+            return readAction(new DataInputStream(new ByteArrayInputStream(pending.array(), start, payloadLength)));
+        }
+        var data = new byte[payloadLength];
+        file.seek(offsets[index] + 4);
+        file.readFully(data);
+        return readAction(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Byte buffer that exposes its array and can be truncated
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+
+        RecordBuffer() {
+            super(4096);
+        }
+
+        @NonNull
+        byte[] array() {
+            return buf;
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+
+        void setInt(int offset, int value) {
+            buf[offset] = (byte) (value >>> 24);
+            buf[offset + 1] = (byte) (value >>> 16);
+            buf[offset + 2] = (byte) (value >>> 8);
+            buf[offset + 3] = (byte) value;
+        }
+
+    }
+
+    private static void writeAction(@NonNull DataOutputStream out, @NonNull UndoManager.ContentAction action) throws IOException {
+        if (action instanceof UndoManager.InsertAction) {
+            var insert = (UndoManager.InsertAction) action;
+            out.writeByte(TYPE_INSERT);
+            writeRange(out, insert.cursor);
+            writeEdit(out, insert.startLine, insert.startColumn, insert.endLine, insert.endColumn, insert.text);
+        } else if (action instanceof UndoManager.DeleteAction) {
+            var delete = (UndoManager.DeleteAction) action;
+            out.writeByte(TYPE_DELETE);
+            writeRange(out, delete.cursor);
+            writeEdit(out, delete.startLine, delete.startColumn, delete.endLine, delete.endColumn, delete.text);
+        } else if (action instanceof UndoManager.ReplaceAction) {
+            var replace = (UndoManager.ReplaceAction) action;
+            out.writeByte(TYPE_REPLACE);
+            writeRange(out, replace.cursor);
+            writeAction(out, replace.insert);
+            writeAction(out, replace.delete);
+        } else if (action instanceof UndoManager.MultiAction) {
+            var actions = ((UndoManager.MultiAction) action).getActions();
+            out.writeByte(TYPE_MULTI);
+            writeRange(out, action.cursor);
+            out.writeInt(actions.size());
+            for (var subAction : actions) {
+                writeAction(out, subAction);
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported action: " + action);
+        }
+    }
+
+    private static void writeEdit(@NonNull DataOutputStream out, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence text) throws IOException {
+        out.writeInt(startLine);
+        out.writeInt(startColumn);
+        out.writeInt(endLine);
+        out.writeInt(endColumn);
+        var bytes = text.toString().getBytes(StandardCharsets.UTF_16BE);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeRange(@NonNull DataOutputStream out, @Nullable TextRange range) throws IOException {
+        out.writeBoolean(range != null);
+        if (range != null) {
+            writePosition(out, range.getStart());
+            writePosition(out, range.getEnd());
+        }
+    }
+
+    private static void writePosition(@NonNull DataOutputStream out, @NonNull CharPosition position) throws IOException {
+        out.writeInt(position.index);
+        out.writeInt(position.line);
+        out.writeInt(position.column);
+    }
+
+    @NonNull
+    private static UndoManager.ContentAction readAction(@NonNull DataInputStream in) throws IOException {
+        var type = in.readByte();
+        var cursor = readRange(in);
+        UndoManager.ContentAction action;
+        switch (type) {
+            case TYPE_INSERT: {
+                var insert = new UndoManager.InsertAction();
+                insert.startLine = in.readInt();
+                insert.startColumn = in.readInt();
+                insert.endLine = in.readInt();
+                insert.endColumn = in.readInt();
+                insert.text = readText(in);
+                // Never merge with new actions
+                insert.createTime = 0;
+                action = insert;
+                break;
+            }
+            case TYPE_DELETE: {
+                var delete = new UndoManager.DeleteAction();
+                delete.startLine = in.readInt();
+                delete.startColumn = in.readInt();
+                delete.endLine = in.readInt();
+                delete.endColumn = in.readInt();
+                delete.text = readText(in);
+                delete.createTime = 0;
+                action = delete;
+                break;
+            }
+            case TYPE_REPLACE: {
+                var replace = new UndoManager.ReplaceAction();
+                replace.insert = (UndoManager.InsertAction) readAction(in);
+                replace.delete = (UndoManager.DeleteAction) readAction(in);
+                action = replace;
+                break;
+            }
+            case TYPE_MULTI: {
+                var multi = new UndoManager.MultiAction();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    multi.getActions().add(readAction(in));
+                }
+                action = multi;
+                break;
+            }
+            default:
+                throw new IOException("unknown action type " + type);
+        }
+        action.cursor = cursor;
+        return action;
+    }
+
+    @NonNull
+    private static String readText(@NonNull DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_16BE);
+    }
+
+    @Nullable
+    private static TextRange readRange(@NonNull DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new TextRange(readPosition(in), readPosition(in));
+    }
+
+    @NonNull
+    private static CharPosition readPosition(@NonNull DataInputStream in) throws IOException {
+        var position = new CharPosition();
+        position.index = in.readInt();
+        position.line = in.readInt();
+        position.column = in.readInt();
+        return position;
+    }
+
+}
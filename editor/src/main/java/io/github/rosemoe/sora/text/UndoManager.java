@@ -25,10 +25,15 @@ package io.github.rosemoe.sora.text;
 
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.text.GetChars;
+import android.text.TextUtils;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,9 +52,12 @@ public final class UndoManager implements ContentListener, Parcelable {
             o.maxStackSize = parcel.readInt();
             o.stackPointer = parcel.readInt();
             o.undoEnabled = parcel.readInt() > 0;
+            o.maxMemoryUsage = parcel.readLong();
             var count = parcel.readInt();
             while (count > 0) {
-                o.actionStack.add(parcel.readParcelable(UndoManager.class.getClassLoader()));
+                ContentAction action = parcel.readParcelable(UndoManager.class.getClassLoader());
+                o.actionStack.add(action);
+                o.retain(action);
                 count--;
             }
             return o;
@@ -60,13 +68,27 @@ public final class UndoManager implements ContentListener, Parcelable {
             return new UndoManager[flags];
         }
     };
+    private final static String LOG_TAG = "UndoManager";
+    /**
+     * Default max estimated memory usage of history, in bytes
+     */
+    public final static long DEFAULT_MAX_MEMORY_USAGE = 64L * 1024 * 1024;
+    /**
+     * Estimated memory usage of an action object, excluding its text
+     */
+    private final static int ACTION_OVERHEAD = 64;
     /**
      * The max time span limit for merging actions
      */
     private static long sMergeTimeLimit = 8000L;
     private final List<ContentAction> actionStack;
+    private final TextBuffer textBuffer = new TextBuffer();
     private boolean undoEnabled;
     private int maxStackSize;
+    private long maxMemoryUsage = DEFAULT_MAX_MEMORY_USAGE;
+    private long memoryUsage;
+    private UndoHistoryFile historyFile;
+    private int maxActionsInMemory;
     private InsertAction insertAction;
     private DeleteAction deleteAction;
     private Content targetContent;
@@ -114,6 +136,7 @@ public final class UndoManager implements ContentListener, Parcelable {
         parcel.writeInt(maxStackSize);
         parcel.writeInt(stackPointer);
         parcel.writeInt(undoEnabled ? 1 : 0);
+        parcel.writeLong(maxMemoryUsage);
         parcel.writeInt(actionStack.size());
         for (ContentAction contentAction : actionStack) {
             parcel.writeParcelable(contentAction, flags);
@@ -135,6 +158,9 @@ public final class UndoManager implements ContentListener, Parcelable {
     @Nullable
     public TextRange undo(Content content) {
         if (canUndo() && !isModifyingContent()) {
+            if (stackPointer == 0 && !loadSpilledAction()) {
+                return null;
+            }
             ignoreModification = true;
             var action = actionStack.get(stackPointer - 1);
             action.undo(content);
@@ -164,7 +190,14 @@ public final class UndoManager implements ContentListener, Parcelable {
         if (!actionStack.isEmpty() && actionStack.get(actionStack.size() - 1) instanceof MultiAction) {
             var action = ((MultiAction) actionStack.get(actionStack.size() - 1));
             if (action._actions.size() == 1) {
-                actionStack.set(actionStack.size() - 1, action._actions.get(0));
+                var single = action._actions.get(0);
+                actionStack.set(actionStack.size() - 1, single);
+                memoryUsage -= ACTION_OVERHEAD;
+            } else if (action._actions.isEmpty()) {
+                // All the modifications are cancelled out by merging
+                actionStack.remove(actionStack.size() - 1);
+                stackPointer--;
+                release(action);
             }
         }
     }
@@ -173,7 +206,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      * Whether it can undo
      */
     public boolean canUndo() {
-        return isUndoEnabled() && (stackPointer > 0);
+        return isUndoEnabled() && (stackPointer > 0 || getSpilledActionCount() > 0);
     }
 
     /**
@@ -227,18 +260,285 @@ public final class UndoManager implements ContentListener, Parcelable {
         cleanStack();
     }
 
+    /**
+     * Get max estimated memory usage of history
+     *
+     * @return max memory usage in bytes
+     */
+    public long getMaxMemoryUsage() {
+        return maxMemoryUsage;
+    }
+
+    /**
+     * Set max estimated memory usage of history. Oldest actions are removed, or moved to history
+     * file if it is set, when the history exceeds the limit. The last action is always kept.
+     *
+     * @param maxMemoryUsage max memory usage in bytes
+     */
+    public void setMaxMemoryUsage(long maxMemoryUsage) {
+        if (maxMemoryUsage <= 0) {
+            throw new IllegalArgumentException(
+                    "max memory usage can not be zero or smaller.Did you want to disable undo module by calling setUndoEnabled()?");
+        }
+        this.maxMemoryUsage = maxMemoryUsage;
+        cleanStack();
+    }
+
+    /**
+     * Get estimated memory usage of current history, in bytes
+     */
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Get count of actions in history, including actions that can be redone and actions that are
+     * stored in history file
+     */
+    public int getHistorySize() {
+        return actionStack.size() + getSpilledActionCount();
+    }
+
+    /**
+     * Get count of actions stored in history file
+     *
+     * @see #setHistoryFile(File, int, Content)
+     */
+    public int getSpilledActionCount() {
+        return historyFile == null ? 0 : historyFile.size();
+    }
+
+    /**
+     * Store older history in the given file, and keep at most {@code maxActionsInMemory} recent
+     * actions in memory. Stored actions are loaded when they are undone.
+     * <p>
+     * If the file contains history saved by {@link #saveHistory(Content)} for the given text,
+     * and this manager has no history now, the saved history is loaded and can be undone.
+     * Otherwise, the file is cleared. The file can not be shared by multiple managers.
+     * <p>
+     * The {@link #getMaxUndoStackSize()} limit applies to all the actions, while
+     * {@link #getMaxMemoryUsage()} applies to actions in memory only.
+     *
+     * @param file               History file, or null to keep all history in memory
+     * @param maxActionsInMemory Max count of actions kept in memory
+     * @param content            The text this manager works on
+     * @throws IOException if the file can not be opened
+     */
+    public void setHistoryFile(@Nullable File file, int maxActionsInMemory, @NonNull Content content) throws IOException {
+        if (maxActionsInMemory <= 0) {
+            throw new IllegalArgumentException("max actions in memory must be positive");
+        }
+        closeHistoryFile();
+        if (file == null) {
+            return;
+        }
+        var historyFile = new UndoHistoryFile(file);
+        try {
+            if (!actionStack.isEmpty() || !undoEnabled || !historyFile.isSavedFor(content)) {
+                historyFile.clear();
+            } else {
+                historyFile.markModified();
+            }
+        } catch (IOException e) {
+            historyFile.close();
+            throw e;
+        }
+        this.historyFile = historyFile;
+        this.maxActionsInMemory = maxActionsInMemory;
+        cleanStack();
+    }
+
+    /**
+     * Store all the actions that can be undone to history file, so that the history can be loaded
+     * by {@link #setHistoryFile(File, int, Content)} when the text is opened again. Actions that
+     * can be redone are discarded.
+     *
+     * @param content The text this manager works on
+     * @throws IllegalStateException if no history file is set
+     * @throws IOException           if the file can not be written
+     */
+    public void saveHistory(@NonNull Content content) throws IOException {
+        if (historyFile == null) {
+            throw new IllegalStateException("no history file is set");
+        }
+        exitReplaceMode();
+        cleanBeforePush();
+        while (stackPointer > 0) {
+            var action = actionStack.get(0);
+            if (UndoHistoryFile.isSupported(action)) {
+                historyFile.push(action);
+            } else {
+                // History before the action can not be kept
+                historyFile.clear();
+            }
+            release(actionStack.remove(0));
+            stackPointer--;
+        }
+        historyFile.markSaved(content);
+    }
+
+    /**
+     * Close history file. Actions stored in the file are discarded.
+     */
+    public void closeHistoryFile() {
+        if (historyFile != null) {
+            try {
+                historyFile.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close history file", e);
+            }
+            historyFile = null;
+        }
+    }
+
+    /**
+     * Remove all the actions in history file
+     */
+    private void discardSpilledActions() {
+        if (historyFile != null && historyFile.size() > 0) {
+            try {
+                historyFile.clear();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to clear history file", e);
+                closeHistoryFile();
+            }
+        }
+    }
+
+    /**
+     * Move oldest actions in memory to history file, if there are too many actions or they use
+     * too much memory. The last action is always kept in memory.
+     */
+    private void spillActions() {
+        if (historyFile == null) {
+            return;
+        }
+        try {
+            while (stackPointer > 0 && actionStack.size() > 1
+                    && (actionStack.size() > maxActionsInMemory || memoryUsage > maxMemoryUsage)
+                    && UndoHistoryFile.isSupported(actionStack.get(0))) {
+                historyFile.push(actionStack.get(0));
+                release(actionStack.remove(0));
+                stackPointer--;
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to write history file, history is kept in memory from now on", e);
+            closeHistoryFile();
+        }
+    }
+
+    /**
+     * Load the last action in history file into memory
+     */
+    private boolean loadSpilledAction() {
+        try {
+            var action = historyFile.pop();
+            actionStack.add(0, action);
+            retain(action);
+            stackPointer++;
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read history file, history in the file is discarded", e);
+            closeHistoryFile();
+            return false;
+        }
+    }
+
+    /**
+     * Count the given action, which is added to history, in memory usage
+     */
+    private void retain(@Nullable ContentAction action) {
+        memoryUsage += measure(action, 1);
+    }
+
+    /**
+     * Remove the given action, which is removed from history, from memory usage
+     */
+    private void release(@Nullable ContentAction action) {
+        memoryUsage -= measure(action, -1);
+    }
+
+    /**
+     * Estimate memory usage of the given action, and update reference counts of chunks it uses
+     */
+    private static long measure(@Nullable ContentAction action, int refDelta) {
+        if (action instanceof InsertAction) {
+            return ACTION_OVERHEAD + measure(((InsertAction) action).text, refDelta);
+        } else if (action instanceof DeleteAction) {
+            return ACTION_OVERHEAD + measure(((DeleteAction) action).text, refDelta);
+        } else if (action instanceof ReplaceAction) {
+            var replace = (ReplaceAction) action;
+            return ACTION_OVERHEAD + measure(replace.insert, refDelta) + measure(replace.delete, refDelta);
+        } else if (action instanceof MultiAction) {
+            long size = ACTION_OVERHEAD;
+            for (var subAction : ((MultiAction) action)._actions) {
+                size += measure(subAction, refDelta);
+            }
+            return size;
+        }
+        return action == null ? 0 : ACTION_OVERHEAD;
+    }
+
+    /**
+     * Estimate memory usage of the given text. A chunk of {@link TextBuffer} is retained as a whole
+     * by the texts in it, so it is counted by the first text referring to it in history, and
+     * uncounted by the last one.
+     */
+    private static long measure(@NonNull CharSequence text, int refDelta) {
+        if (text instanceof BufferedText) {
+            var chunk = ((BufferedText) text).chunk;
+            chunk.refs += refDelta;
+            if (refDelta > 0 ? chunk.refs == refDelta : chunk.refs == 0) {
+                return 2L * chunk.data.length;
+            }
+            return 0;
+        }
+        return 2L * text.length();
+    }
+
+    /**
+     * Merge the given action into an action in history
+     *
+     * @return Whether the merged action becomes empty and should be removed
+     */
+    private boolean mergeAction(@NonNull ContentAction target, @NonNull ContentAction action) {
+        release(target);
+        target.merge(action);
+        if (target instanceof InsertAction && ((InsertAction) target).text.length() == 0) {
+            // Inserted text is deleted entirely
+            return true;
+        }
+        retain(target);
+        return false;
+    }
+
     /**
      * Clean stack after add or state change
-     * This is to limit stack size
+     * This is to limit stack size and memory usage
      */
     private void cleanStack() {
         if (!undoEnabled) {
+            for (var action : actionStack) {
+                release(action);
+            }
             actionStack.clear();
             stackPointer = 0;
+            discardSpilledActions();
         } else {
-            while (stackPointer > 1 && actionStack.size() > maxStackSize) {
-                actionStack.remove(0);
+            try {
+                while (getSpilledActionCount() > 0 && getHistorySize() > maxStackSize) {
+                    historyFile.removeFirst();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to compact history file, history in the file is discarded", e);
+                closeHistoryFile();
+            }
+            spillActions();
+            while (stackPointer > 1 && (actionStack.size() > maxStackSize || memoryUsage > maxMemoryUsage)) {
+                release(actionStack.remove(0));
                 stackPointer--;
+                // Older history can not be undone now
+                discardSpilledActions();
             }
         }
     }
@@ -249,7 +549,7 @@ public final class UndoManager implements ContentListener, Parcelable {
      */
     private void cleanBeforePush() {
         while (stackPointer < actionStack.size()) {
-            actionStack.remove(actionStack.size() - 1);
+            release(actionStack.remove(actionStack.size() - 1));
         }
     }
 
@@ -265,37 +565,38 @@ public final class UndoManager implements ContentListener, Parcelable {
         }
         cleanBeforePush();
         if (content.isInBatchEdit()) {
-            if (actionStack.isEmpty()) {
-                MultiAction a = new MultiAction();
-                a.addAction(action);
-                a.cursor = action.cursor;
-                actionStack.add(a);
-                stackPointer++;
-            } else {
-                ContentAction a = actionStack.get(actionStack.size() - 1);
-                if (a instanceof MultiAction && !forceNewMultiAction) {
-                    MultiAction ac = (MultiAction) a;
-                    ac.addAction(action);
+            ContentAction a = actionStack.isEmpty() ? null : actionStack.get(actionStack.size() - 1);
+            if (a instanceof MultiAction && !forceNewMultiAction) {
+                // Only the new action is measured, as the MultiAction can be large
+                var actions = ((MultiAction) a)._actions;
+                ContentAction last = actions.isEmpty() ? null : actions.get(actions.size() - 1);
+                if (last != null && last.canMerge(action)) {
+                    if (mergeAction(last, action)) {
+                        actions.remove(actions.size() - 1);
+                    }
                 } else {
-                    MultiAction ac = new MultiAction();
-                    ac.addAction(action);
-                    ac.cursor = action.cursor;
-                    actionStack.add(ac);
-                    stackPointer++;
+                    actions.add(action);
+                    retain(action);
                 }
+            } else {
+                MultiAction ac = new MultiAction();
+                ac.addAction(action);
+                ac.cursor = action.cursor;
+                actionStack.add(ac);
+                stackPointer++;
+                retain(ac);
             }
         } else {
-            if (actionStack.isEmpty()) {
+            ContentAction last = actionStack.isEmpty() ? null : actionStack.get(actionStack.size() - 1);
+            if (last != null && last.canMerge(action)) {
+                if (mergeAction(last, action)) {
+                    actionStack.remove(actionStack.size() - 1);
+                    stackPointer--;
+                }
+            } else {
                 actionStack.add(action);
                 stackPointer++;
-            } else {
-                ContentAction last = actionStack.get(actionStack.size() - 1);
-                if (last.canMerge(action)) {
-                    last.merge(action);
-                } else {
-                    actionStack.add(action);
-                    stackPointer++;
-                }
+                retain(action);
             }
         }
         forceNewMultiAction = false;
@@ -330,7 +631,7 @@ public final class UndoManager implements ContentListener, Parcelable {
         insertAction.startColumn = startColumn;
         insertAction.endLine = endLine;
         insertAction.endColumn = endColumn;
-        insertAction.text = insertedContent;
+        insertAction.text = textBuffer.store(insertedContent);
         if (replaceMark && deleteAction != null) {
             ReplaceAction rep = new ReplaceAction();
             rep.delete = deleteAction;
@@ -357,7 +658,7 @@ public final class UndoManager implements ContentListener, Parcelable {
         deleteAction.startColumn = startColumn;
         deleteAction.endLine = endLine;
         deleteAction.startLine = startLine;
-        deleteAction.text = deletedContent;
+        deleteAction.text = textBuffer.store(deletedContent);
         deleteAction.cursor = memorizedCursorRange;
         if (!replaceMark) {
             pushAction(content, deleteAction);
@@ -458,6 +759,13 @@ public final class UndoManager implements ContentListener, Parcelable {
                 return (ac.startColumn == endColumn && ac.startLine == endLine
                         && ac.text.length() + text.length() < 10000
                         && Math.abs(ac.createTime - createTime) < sMergeTimeLimit);
+            } else if (action instanceof DeleteAction) {
+                // Deleting the end of inserted text, such as typing and then backspacing
+                DeleteAction ac = (DeleteAction) action;
+                return (ac.endColumn == endColumn && ac.endLine == endLine
+                        && (ac.startLine > startLine || (ac.startLine == startLine && ac.startColumn >= startColumn))
+                        && ac.text.length() <= text.length()
+                        && Math.abs(ac.createTime - createTime) < sMergeTimeLimit);
             }
             return false;
         }
@@ -467,17 +775,17 @@ public final class UndoManager implements ContentListener, Parcelable {
             if (!canMerge(action)) {
                 throw new IllegalArgumentException();
             }
+            if (action instanceof DeleteAction) {
+                DeleteAction ac = (DeleteAction) action;
+                this.endColumn = ac.startColumn;
+                this.endLine = ac.startLine;
+                text = TextBuffer.truncate(text, text.length() - ac.text.length());
+                return;
+            }
             InsertAction ac = (InsertAction) action;
             this.endColumn = ac.endColumn;
             this.endLine = ac.endLine;
-            StringBuilder sb;
-            if (text instanceof StringBuilder) {
-                sb = (StringBuilder) text;
-            } else {
-                sb = new StringBuilder(text);
-                text = sb;
-            }
-            sb.append(ac.text);
+            text = TextBuffer.concat(text, ac.text);
         }
 
         @NonNull
@@ -534,6 +842,11 @@ public final class UndoManager implements ContentListener, Parcelable {
         };
         private final List<ContentAction> _actions = new ArrayList<>();
 
+        @NonNull
+        List<ContentAction> getActions() {
+            return _actions;
+        }
+
         public void addAction(ContentAction action) {
             if (_actions.isEmpty()) {
                 _actions.add(action);
@@ -627,9 +940,10 @@ public final class UndoManager implements ContentListener, Parcelable {
         public boolean canMerge(ContentAction action) {
             if (action instanceof DeleteAction) {
                 DeleteAction ac = (DeleteAction) action;
-                return (ac.endColumn == startColumn && ac.endLine == startLine
+                return ((ac.endColumn == startColumn && ac.endLine == startLine)
+                        || (ac.startColumn == startColumn && ac.startLine == startLine))
                         && ac.text.length() + text.length() < 10000
-                        && Math.abs(ac.createTime - createTime) < sMergeTimeLimit);
+                        && Math.abs(ac.createTime - createTime) < sMergeTimeLimit;
             }
             return false;
         }
@@ -640,16 +954,22 @@ public final class UndoManager implements ContentListener, Parcelable {
                 throw new IllegalArgumentException();
             }
             DeleteAction ac = (DeleteAction) action;
-            this.startColumn = ac.startColumn;
-            this.startLine = ac.startLine;
-            StringBuilder sb;
-            if (text instanceof StringBuilder) {
-                sb = (StringBuilder) text;
+            if (ac.endColumn == startColumn && ac.endLine == startLine) {
+                // Backward deletion, such as backspacing
+                this.startColumn = ac.startColumn;
+                this.startLine = ac.startLine;
+                text = TextBuffer.concat(ac.text, text);
             } else {
-                sb = new StringBuilder(text);
-                text = sb;
+                // Forward deletion at the same position. Map the end of new deletion to the text
+                // before this action
+                if (ac.endLine == startLine) {
+                    this.endColumn += ac.endColumn - startColumn;
+                } else {
+                    this.endLine += ac.endLine - startLine;
+                    this.endColumn = ac.endColumn;
+                }
+                text = TextBuffer.concat(text, ac.text);
             }
-            sb.insert(0, ac.text);
         }
 
         @NonNull
@@ -746,4 +1066,158 @@ public final class UndoManager implements ContentListener, Parcelable {
             parcel.writeParcelable(delete, flags);
         }
     }
+
+    /**
+     * Append-only char buffer for texts of actions. Small texts are stored in shared chunks, so
+     * that history does not keep many small objects and unused capacity of builders. Text at the
+     * end of current chunk can be extended or truncated in place when actions are merged.
+     */
+    private static final class TextBuffer {
+
+        private final static int CHUNK_SIZE = 16384;
+        private Chunk chunk;
+        private int used;
+
+        @NonNull
+        CharSequence store(@NonNull CharSequence text) {
+            int length = text.length();
+            if (length > CHUNK_SIZE / 4) {
+                // Large texts are stored separately
+                if (text instanceof String) {
+                    return text;
+                }
+                var data = new Chunk(length);
+                TextUtils.getChars(text, 0, length, data.data, 0);
+                return new BufferedText(this, data, 0, length);
+            }
+            if (chunk == null || used + length > CHUNK_SIZE) {
+                chunk = new Chunk(CHUNK_SIZE);
+                used = 0;
+            }
+            TextUtils.getChars(text, 0, length, chunk.data, used);
+            var result = new BufferedText(this, chunk, used, length);
+            used += length;
+            return result;
+        }
+
+        /**
+         * Check whether the text is at the end of current chunk
+         */
+        private boolean isTail(@NonNull BufferedText text) {
+            return text.chunk == chunk && text.offset + text.length == used;
+        }
+
+        @NonNull
+        static CharSequence concat(@NonNull CharSequence a, @NonNull CharSequence b) {
+            if (a instanceof BufferedText) {
+                var text = (BufferedText) a;
+                var buffer = text.buffer;
+                int length = b.length();
+                if (buffer.isTail(text) && buffer.used + length <= CHUNK_SIZE) {
+                    TextUtils.getChars(b, 0, length, buffer.chunk.data, buffer.used);
+                    buffer.used += length;
+                    text.length += length;
+                    return text;
+                }
+                return buffer.store(new StringBuilder(a.length() + length).append(a).append(b));
+            }
+            StringBuilder sb;
+            if (a instanceof StringBuilder) {
+                sb = (StringBuilder) a;
+            } else {
+                sb = new StringBuilder(a);
+            }
+            return sb.append(b);
+        }
+
+        @NonNull
+        static CharSequence truncate(@NonNull CharSequence text, int length) {
+            if (text instanceof BufferedText) {
+                var bufferedText = (BufferedText) text;
+                var buffer = bufferedText.buffer;
+                if (buffer.isTail(bufferedText)) {
+                    buffer.used = bufferedText.offset + length;
+                }
+                bufferedText.length = length;
+                return bufferedText;
+            } else if (text instanceof StringBuilder) {
+                ((StringBuilder) text).setLength(length);
+                return text;
+            }
+            return text.subSequence(0, length);
+        }
+
+    }
+
+    /**
+     * Chars shared by texts in {@link TextBuffer}
+     */
+    private static final class Chunk {
+
+        private final char[] data;
+        /**
+         * Count of references from actions in history
+         */
+        private int refs;
+
+        Chunk(int size) {
+            data = new char[size];
+        }
+    }
+
+    /**
+     * Text stored in {@link TextBuffer}
+     */
+    private static final class BufferedText implements CharSequence, GetChars {
+
+        private final TextBuffer buffer;
+        private final Chunk chunk;
+        private final char[] data;
+        private final int offset;
+        private int length;
+
+        BufferedText(@NonNull TextBuffer buffer, @NonNull Chunk chunk, int offset, int length) {
+            this.buffer = buffer;
+            this.chunk = chunk;
+            this.data = chunk.data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            return data[offset + index];
+        }
+
+        @NonNull
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new StringIndexOutOfBoundsException();
+            }
+            return new String(data, offset + start, end - start);
+        }
+
+        @Override
+        public void getChars(int start, int end, char[] dest, int destOffset) {
+            if (start < 0 || end > length || start > end) {
+                throw new StringIndexOutOfBoundsException();
+            }
+            System.arraycopy(data, offset + start, dest, destOffset, end - start);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return new String(data, offset, length);
+        }
+    }
 }
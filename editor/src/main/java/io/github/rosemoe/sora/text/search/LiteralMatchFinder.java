@@ -0,0 +1,180 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.search;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Find plain text in text, with Boyer-Moore-Horspool algorithm.
+ * <p>
+ * For case-insensitive search, both pattern and text are folded by {@link Character#toLowerCase(char)},
+ * the same as {@link io.github.rosemoe.sora.text.TextUtils#indexOf(CharSequence, CharSequence, boolean, int)}.
+ * The pattern is folded once, and the skip table is indexed by the low byte of chars.
+ *
+ * @author Rosemoe
+ */
+public class LiteralMatchFinder implements MatchFinder {
+
+    private final static char[] ASCII_LOWER = new char[128];
+
+    static {
+        for (char ch = 0; ch < 128; ch++) {
+            ASCII_LOWER[ch] = Character.toLowerCase(ch);
+        }
+    }
+
+    private final String pattern;
+    /**
+     * Pattern chars, folded if case-insensitive
+     */
+    private final char[] chars;
+    private final boolean ignoreCase;
+    /**
+     * Skip distance by low byte of the char aligned with pattern end
+     */
+    private final int[] skips;
+    private boolean hitEnd;
+
+    /**
+     * @param pattern    Text to find, must not be empty
+     * @param ignoreCase Whether to compare characters case-insensitively
+     */
+    public LiteralMatchFinder(@NonNull String pattern, boolean ignoreCase) {
+        if (pattern.isEmpty()) {
+            throw new IllegalArgumentException("pattern length must be > 0");
+        }
+        this.pattern = pattern;
+        this.ignoreCase = ignoreCase;
+        int len = pattern.length();
+        chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = ignoreCase ? fold(pattern.charAt(i)) : pattern.charAt(i);
+        }
+        skips = new int[256];
+        Arrays.fill(skips, len);
+        for (int i = 0; i < len - 1; i++) {
+            skips[chars[i] & 0xff] = len - 1 - i;
+        }
+    }
+
+    private LiteralMatchFinder(@NonNull LiteralMatchFinder src) {
+        pattern = src.pattern;
+        chars = src.chars;
+        ignoreCase = src.ignoreCase;
+        skips = src.skips;
+    }
+
+    private static char fold(char ch) {
+        return ch < 128 ? ASCII_LOWER[ch] : Character.toLowerCase(ch);
+    }
+
+    @Override
+    public long find(@NonNull CharSequence text, int fromIndex, int toIndex) {
+        var chars = this.chars;
+        int len = chars.length;
+        int max = Math.min(toIndex - 1, text.length() - len);
+        // Matches have fixed length, so only a range cut by text end can change with more text
+        hitEnd = toIndex - 1 > max;
+        int i = Math.max(0, fromIndex);
+        if (i > max) {
+            return -1;
+        }
+        if (!ignoreCase && text instanceof String && max == text.length() - len) {
+            // Intrinsic of the runtime
+            int index = ((String) text).indexOf(pattern, i);
+            if (index == -1) {
+                return -1;
+            }
+            hitEnd = false;
+            return IntPair.pack(index, index + len);
+        }
+        int last = len - 1;
+        char lastChar = chars[last];
+        var skips = this.skips;
+        if (ignoreCase) {
+            while (i <= max) {
+                char ch = fold(text.charAt(i + last));
+                if (ch == lastChar && regionMatches(text, i, last)) {
+                    hitEnd = false;
+                    return IntPair.pack(i, i + len);
+                }
+                i += skips[ch & 0xff];
+            }
+        } else if (len == 1) {
+            for (; i <= max; i++) {
+                if (text.charAt(i) == lastChar) {
+                    hitEnd = false;
+                    return IntPair.pack(i, i + 1);
+                }
+            }
+        } else {
+            while (i <= max) {
+                char ch = text.charAt(i + last);
+                if (ch == lastChar && regionMatches(text, i, last)) {
+                    hitEnd = false;
+                    return IntPair.pack(i, i + len);
+                }
+                i += skips[ch & 0xff];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the first {@code count} chars of pattern with text at the given index
+     */
+    private boolean regionMatches(@NonNull CharSequence text, int index, int count) {
+        var chars = this.chars;
+        if (ignoreCase) {
+            for (int j = 0; j < count; j++) {
+                if (fold(text.charAt(index + j)) != chars[j]) {
+                    return false;
+                }
+            }
+        } else {
+            for (int j = 0; j < count; j++) {
+                if (text.charAt(index + j) != chars[j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hitEnd() {
+        return hitEnd;
+    }
+
+    @NonNull
+    @Override
+    public MatchFinder copy() {
+        // Tables are shared
+        return new LiteralMatchFinder(this);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.search;
+
+import androidx.annotation.NonNull;
+
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Finds matches of a search query in text. Implementations are not required to be thread-safe,
+ * use {@link #copy()} to get a finder for another thread.
+ *
+ * @author Rosemoe
+ */
+public interface MatchFinder {
+
+    /**
+     * Find the first match whose start is in the given range. The match may end after {@code toIndex}.
+     * Empty matches are never returned.
+     *
+     * @param text      Text to search in
+     * @param fromIndex Min start index of match, inclusive
+     * @param toIndex   Max start index of match, exclusive
+     * @return Start and end of the match packed by {@link IntPair}, or -1 if there is no match
+     */
+    long find(@NonNull CharSequence text, int fromIndex, int toIndex);
+
+    /**
+     * Check whether the result of last {@link #find(CharSequence, int, int)} call may change, if the
+     * text had more chars after its end. This is used to search a long text in windows.
+     * <p>
+     * By default, this returns true, so windows are extended to the end of text.
+     */
+    default boolean hitEnd() {
+        return true;
+    }
+
+    /**
+     * Create a finder for the same query, which can be used in another thread
+     */
+    @NonNull
+    MatchFinder copy();
+
+}
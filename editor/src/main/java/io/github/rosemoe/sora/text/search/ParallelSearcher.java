@@ -0,0 +1,450 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.TextReference;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Search text by splitting it into line-aligned chunks and searching the chunks in parallel on
+ * a shared bounded {@link ForkJoinPool}. Results are merged in order, and are the same as the
+ * results of searching the whole text sequentially, where each search starts at the end of last match.
+ * <p>
+ * {@link #searchLines(Content, MatchFinder, boolean, TextReference.Validator)} reads lines of
+ * {@link Content} directly, for queries whose matches never contain line separators.
+ * <p>
+ * {@link #searchWindows(Content, MatchFinder, boolean, TextReference.Validator)} is for queries whose
+ * matches may cross lines. It copies a window of lines around each chunk to a String, for finders
+ * that are slow on other {@link CharSequence}s or copy their input. Each chunk collects matches
+ * starting in it, and when the first matches of a chunk overlap the last match of previous chunks,
+ * the chunk is searched again from the end of that match until its results agree with the
+ * sequential ones.
+ *
+ * @author Rosemoe
+ */
+public class ParallelSearcher {
+
+    /**
+     * Approximate size of a chunk, in chars
+     */
+    public final static int CHUNK_SIZE = 1 << 20;
+    /**
+     * Min count of chars before a window, which can be seen by lookbehind of regular expressions
+     */
+    private final static int WINDOW_CONTEXT = 1024;
+    /**
+     * Initial count of chars after a window. It grows when the finder needs more text
+     */
+    private final static int WINDOW_LOOKAHEAD = 4096;
+    /**
+     * Max count of chars after a window. When the finder needs more, the rest of text is searched
+     * in a single window, instead of growing windows of every chunk
+     */
+    private final static int MAX_WINDOW_LOOKAHEAD = CHUNK_SIZE;
+
+    private static ForkJoinPool sPool;
+
+    private static synchronized ForkJoinPool getPool() {
+        if (sPool == null) {
+            // Leave a core for the UI thread
+            sPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        return sPool;
+    }
+
+    /**
+     * Search the whole text in line-aligned windows. Matches may cross lines. Each window is copied
+     * to a String with some lines before it, so that lookbehind of regular expressions up to
+     * about 1024 chars works, and with lines after it, which are extended as long as
+     * {@link MatchFinder#hitEnd()} reports that the finder needs more text. If a window needs more
+     * than about {@link #CHUNK_SIZE} chars after it, the text from that window to the end is searched
+     * sequentially instead.
+     * <p>
+     * Lines are read by {@link Content#getReadOnlyLine(int)}, so the text should be a snapshot.
+     *
+     * @param text      Text to search in. It must not be modified during the search
+     * @param finder    Finder of the query
+     * @param parallel  Whether to search windows in parallel. Otherwise, the text is searched on the calling thread
+     * @param validator Called periodically to check if the search is cancelled, may be null
+     * @return Matches packed by {@link IntPair}, in order
+     * @throws TextReference.ValidateFailedException if the validator cancels the search
+     */
+    @NonNull
+    public static LongArrayList searchWindows(@NonNull Content text, @NonNull MatchFinder finder, boolean parallel, @Nullable TextReference.Validator validator) {
+        int lineCount = text.getLineCount();
+        var tasks = new ArrayList<WindowTask>();
+        int startLine = 0;
+        int startIndex = 0;
+        int index = 0;
+        for (int i = 0; i < lineCount; i++) {
+            index += text.getColumnCount(i) + text.getLineSeparator(i).getLength();
+            if (index - startIndex >= CHUNK_SIZE || i == lineCount - 1) {
+                tasks.add(new WindowTask(text, parallel ? finder.copy() : finder, startLine, i + 1, startIndex, index, validator));
+                startLine = i + 1;
+                startIndex = index;
+            }
+        }
+        var results = new LongArrayList();
+        int lastEnd = 0;
+        var pool = !parallel || tasks.size() == 1 ? null : getPool();
+        try {
+            if (pool != null) {
+                for (var task : tasks) {
+                    pool.execute(task);
+                }
+            }
+            for (var task : tasks) {
+                var chunkResults = pool == null ? task.compute() : task.join();
+                if (chunkResults == null) {
+                    // The window of this task exceeds the lookahead limit
+                    var rest = new WindowTask(text, finder, task.startLine, lineCount, task.start, index, validator);
+                    merge(rest, rest.compute(), lastEnd, validator, results);
+                    break;
+                }
+                lastEnd = merge(task, chunkResults, lastEnd, validator, results);
+            }
+            return results;
+        } finally {
+            if (pool != null) {
+                for (var task : tasks) {
+                    task.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Search lines of the given text. Matches must not cross lines. Lines are read by
+     * {@link Content#getReadOnlyLine(int)}, so the text is not copied.
+     *
+     * @param text      Text to search in. It must not be modified during the search
+     * @param finder    Finder of the query
+     * @param parallel  Whether to search chunks in parallel. Otherwise, the text is searched on the calling thread
+     * @param validator Called periodically to check if the search is cancelled, may be null
+     * @return Matches packed by {@link IntPair}, in order
+     * @throws TextReference.ValidateFailedException if the validator cancels the search
+     */
+    @NonNull
+    public static LongArrayList searchLines(@NonNull Content text, @NonNull MatchFinder finder, boolean parallel, @Nullable TextReference.Validator validator) {
+        return searchLines(text, 0, text.getLineCount(), finder, parallel, validator);
+    }
+
+    /**
+     * Search the given lines of text. Matches must not cross lines.
+     *
+     * @param startLine First line to search, inclusive
+     * @param endLine   Last line to search, exclusive
+     * @see #searchLines(Content, MatchFinder, boolean, TextReference.Validator)
+     */
+    @NonNull
+    public static LongArrayList searchLines(@NonNull Content text, int startLine, int endLine, @NonNull MatchFinder finder, boolean parallel, @Nullable TextReference.Validator validator) {
+        int lineCount = text.getLineCount();
+        int startIndex = startLine < lineCount ? text.getCharIndex(startLine, 0) : text.length();
+        int endIndex = endLine < lineCount ? text.getCharIndex(endLine, 0) : text.length();
+        if (!parallel || endIndex - startIndex < CHUNK_SIZE * 2) {
+            var results = new LongArrayList();
+            new LineChunkTask(text, finder, startLine, endLine, startIndex, validator).searchTo(results);
+            return results;
+        }
+        var tasks = new ArrayList<LineChunkTask>();
+        int index = startIndex;
+        for (int i = startLine; i < endLine; i++) {
+            index += text.getColumnCount(i) + text.getLineSeparator(i).getLength();
+            if (index - startIndex >= CHUNK_SIZE || i == endLine - 1) {
+                tasks.add(new LineChunkTask(text, finder.copy(), startLine, i + 1, startIndex, validator));
+                startLine = i + 1;
+                startIndex = index;
+            }
+        }
+        var pool = getPool();
+        try {
+            for (var task : tasks) {
+                pool.execute(task);
+            }
+            var results = new LongArrayList();
+            for (var task : tasks) {
+                var chunkResults = task.join();
+                for (int i = 0; i < chunkResults.size(); i++) {
+                    results.add(chunkResults.get(i));
+                }
+            }
+            return results;
+        } finally {
+            for (var task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Search the given line, and add matches to {@code results}
+     *
+     * @param lineStart Index of the line start in text
+     */
+    public static void searchLine(@NonNull CharSequence line, int lineStart, @NonNull MatchFinder finder, @NonNull LongArrayList results) {
+        int length = line.length();
+        int nextStart = 0;
+        while (nextStart < length) {
+            var match = finder.find(line, nextStart, length);
+            if (match == -1) {
+                break;
+            }
+            nextStart = IntPair.getSecond(match);
+            results.add(IntPair.pack(lineStart + IntPair.getFirst(match), lineStart + nextStart));
+        }
+    }
+
+    /**
+     * Search matches starting in the range of the given task sequentially
+     */
+    private static void searchRange(@NonNull RangeTask task, @Nullable TextReference.Validator validator, @NonNull LongArrayList results) {
+        int start = task.start;
+        while (start < task.end) {
+            if (validator != null) {
+                validator.validate();
+            }
+            var match = task.find(start);
+            if (match == -1) {
+                break;
+            }
+            results.add(match);
+            start = IntPair.getSecond(match);
+        }
+    }
+
+    /**
+     * Append results of a chunk to the merged results
+     *
+     * @param lastEnd End of last merged match
+     * @return End of last merged match after this chunk
+     */
+    private static int merge(@NonNull RangeTask chunk, @NonNull LongArrayList chunkResults, int lastEnd, @Nullable TextReference.Validator validator, @NonNull LongArrayList results) {
+        int index = 0;
+        int size = chunkResults.size();
+        if (size > 0 && IntPair.getFirst(chunkResults.get(0)) < lastEnd) {
+            // Overlaps the previous match. Search from its end until we meet a match of this chunk
+            int pos = lastEnd;
+            while (true) {
+                if (validator != null) {
+                    validator.validate();
+                }
+                // The task is done, so its finder can be used here
+                var match = pos < chunk.end ? chunk.find(pos) : -1;
+                if (match == -1) {
+                    index = size;
+                    break;
+                }
+                var matchStart = IntPair.getFirst(match);
+                while (index < size && IntPair.getFirst(chunkResults.get(index)) < matchStart) {
+                    index++;
+                }
+                if (index < size && chunkResults.get(index) == match) {
+                    break;
+                }
+                results.add(match);
+                lastEnd = pos = IntPair.getSecond(match);
+            }
+        }
+        for (; index < size; index++) {
+            var match = chunkResults.get(index);
+            results.add(match);
+            lastEnd = IntPair.getSecond(match);
+        }
+        return lastEnd;
+    }
+
+    private static class LineChunkTask extends RecursiveTask<LongArrayList> {
+
+        private final Content text;
+        private final MatchFinder finder;
+        private final int startLine;
+        private final int endLine;
+        private final int startIndex;
+        private final TextReference.Validator validator;
+
+        LineChunkTask(@NonNull Content text, @NonNull MatchFinder finder, int startLine, int endLine, int startIndex, @Nullable TextReference.Validator validator) {
+            this.text = text;
+            this.finder = finder;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.startIndex = startIndex;
+            this.validator = validator;
+        }
+
+        void searchTo(@NonNull LongArrayList results) {
+            int lineStart = startIndex;
+            for (int line = startLine; line < endLine; line++) {
+                if (validator != null) {
+                    validator.validate();
+                }
+                var lineText = text.getReadOnlyLine(line);
+                searchLine(lineText, lineStart, finder, results);
+                lineStart += lineText.length() + text.getLineSeparator(line).getLength();
+            }
+        }
+
+        @Override
+        protected LongArrayList compute() {
+            var results = new LongArrayList();
+            searchTo(results);
+            return results;
+        }
+    }
+
+    /**
+     * Task that collects matches starting in a range of text
+     */
+    private abstract static class RangeTask extends RecursiveTask<LongArrayList> {
+
+        protected final MatchFinder finder;
+        protected final int start;
+        protected final int end;
+        protected final TextReference.Validator validator;
+
+        RangeTask(@NonNull MatchFinder finder, int start, int end, @Nullable TextReference.Validator validator) {
+            this.finder = finder;
+            this.start = start;
+            this.end = end;
+            this.validator = validator;
+        }
+
+        /**
+         * Find the first match starting in [fromIndex, end)
+         */
+        abstract long find(int fromIndex);
+
+        @Override
+        protected LongArrayList compute() {
+            var results = new LongArrayList();
+            searchRange(this, validator, results);
+            return results;
+        }
+    }
+
+    private static class WindowTask extends RangeTask {
+
+        private final Content text;
+        private final int startLine;
+        private final int endLine;
+        private String window;
+        /**
+         * Index of the window start in text
+         */
+        private int windowStart;
+        private int windowEndLine;
+        private int windowEnd;
+        /**
+         * Whether the lookahead is limited by {@link #MAX_WINDOW_LOOKAHEAD}
+         */
+        private boolean limited;
+        private boolean exceeded;
+
+        WindowTask(@NonNull Content text, @NonNull MatchFinder finder, int startLine, int endLine, int start, int end, @Nullable TextReference.Validator validator) {
+            super(finder, start, end, validator);
+            this.text = text;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+
+        /**
+         * Copy the lines of this task to {@link #window}, with at least {@code lookahead} chars after them
+         * if there are
+         */
+        private void loadWindow(int lookahead) {
+            int line = startLine;
+            int index = start;
+            while (line > 0 && start - index < WINDOW_CONTEXT) {
+                line--;
+                index -= getLineLength(line);
+            }
+            windowStart = index;
+            windowEndLine = endLine;
+            windowEnd = end;
+            int lineCount = text.getLineCount();
+            while (windowEndLine < lineCount && windowEnd - end < lookahead) {
+                windowEnd += getLineLength(windowEndLine++);
+            }
+            var sb = new StringBuilder(windowEnd - windowStart);
+            for (; line < windowEndLine; line++) {
+                sb.append(text.getReadOnlyLine(line)).append(text.getLineSeparator(line).getContent());
+            }
+            window = sb.toString();
+        }
+
+        private int getLineLength(int line) {
+            return text.getReadOnlyLine(line).length() + text.getLineSeparator(line).getLength();
+        }
+
+        @Override
+        long find(int fromIndex) {
+            if (window == null) {
+                loadWindow(WINDOW_LOOKAHEAD);
+            }
+            while (true) {
+                var match = finder.find(window, fromIndex - windowStart, end - windowStart);
+                if (!finder.hitEnd() || windowEndLine == text.getLineCount()) {
+                    return match == -1 ? -1 : IntPair.pack(IntPair.getFirst(match) + windowStart, IntPair.getSecond(match) + windowStart);
+                }
+                // The result may change with more text
+                int lookahead = Math.max(windowEnd - end, WINDOW_LOOKAHEAD) * 2;
+                if (lookahead > MAX_WINDOW_LOOKAHEAD) {
+                    if (limited) {
+                        exceeded = true;
+                        return -1;
+                    }
+                    // Searching again while merging. Load the rest of text at once
+                    lookahead = Integer.MAX_VALUE;
+                }
+                loadWindow(lookahead);
+            }
+        }
+
+        /**
+         * @return Matches starting in the range of this task, or null if the lookahead limit is exceeded
+         */
+        @Override
+        @Nullable
+        protected LongArrayList compute() {
+            limited = true;
+            try {
+                var results = super.compute();
+                return exceeded ? null : results;
+            } finally {
+                limited = false;
+                // Windows of all tasks are not kept until merged. It's loaded again if needed
+                window = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Find matches of regular expression in text
+ *
+ * @author Rosemoe
+ */
+public class RegexMatchFinder implements MatchFinder {
+
+    private final Pattern pattern;
+    private Matcher matcher;
+    private CharSequence input;
+    private boolean hitEnd;
+
+    public RegexMatchFinder(@NonNull Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Get the matcher of last {@link #find(CharSequence, int, int)} call, for retrieving groups of the match
+     */
+    @Nullable
+    public Matcher getMatcher() {
+        return matcher;
+    }
+
+    @Override
+    public long find(@NonNull CharSequence text, int fromIndex, int toIndex) {
+        if (matcher == null) {
+            matcher = pattern.matcher(text);
+            // Lookaround and anchors see the whole text, as if there were no region
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            input = text;
+        } else if (input != text) {
+            matcher.reset(text);
+            input = text;
+        }
+        int length = text.length();
+        // Limit the scan to the lines of the range, so that a range without matches is not
+        // searched to the next match in the whole text
+        int regionEnd = findLineEnd(text, toIndex);
+        int pos = Math.max(0, fromIndex);
+        hitEnd = false;
+        while (pos < toIndex && pos < length) {
+            matcher.region(pos, regionEnd);
+            boolean found = matcher.find();
+            if (matcher.hitEnd() && regionEnd < length) {
+                // The match may continue in later lines
+                matcher.region(pos, length);
+                found = matcher.find();
+            }
+            hitEnd = matcher.hitEnd();
+            if (!found) {
+                break;
+            }
+            int start = matcher.start();
+            int end = matcher.end();
+            if (start >= toIndex) {
+                break;
+            }
+            if (start == end) {
+                // Do not match empty text
+                pos = end + 1;
+                continue;
+            }
+            return IntPair.pack(start, end);
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean hitEnd() {
+        return hitEnd;
+    }
+
+    /**
+     * Find the end of the line containing the char before {@code index}, including its line separator
+     */
+    private static int findLineEnd(@NonNull CharSequence text, int index) {
+        int length = text.length();
+        if (index >= length) {
+            return length;
+        }
+        if (index > 0 && text.charAt(index - 1) == '\n') {
+            return index;
+        }
+        while (index < length) {
+            char ch = text.charAt(index++);
+            if (ch == '\n') {
+                break;
+            }
+            if (ch == '\r' && (index == length || text.charAt(index) != '\n')) {
+                break;
+            }
+        }
+        return index;
+    }
+
+    @NonNull
+    @Override
+    public MatchFinder copy() {
+        return new RegexMatchFinder(pattern);
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.ContentListener;
+import io.github.rosemoe.sora.util.FenwickTree;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Trigram index of {@link Content} lines, for finding lines that may contain a literal quickly.
+ * <p>
+ * Lines are grouped into blocks of about {@link #BLOCK_CHARS} chars. Each block records the
+ * trigrams of its lines in a bitset by hash, with chars folded to lower case,
+ * so that the index serves both case-sensitive and case-insensitive queries. A block whose bitset
+ * does not contain all trigrams of a literal can not contain the literal. Bits can not be removed,
+ * so blocks touched by a modification are rebuilt from their lines.
+ * <p>
+ * The index is maintained by {@link ContentListener} callbacks. Use {@link Content#setTrigramIndexEnabled(boolean)}
+ * to attach it to a text.
+ *
+ * @author Rosemoe
+ */
+public class TrigramIndex implements ContentListener {
+
+    /**
+     * Target char count of a block
+     */
+    public final static int BLOCK_CHARS = 1024;
+    /**
+     * Bits in the bitset of each block
+     */
+    private final static int BLOCK_BITS = 4096;
+
+    private final Content content;
+    private final List<Block> blocks = new ArrayList<>();
+    /**
+     * Fenwick tree of line counts of blocks
+     */
+    private final FenwickTree lineTree = new FenwickTree();
+
+    /**
+     * Create and build the index for the given text. This costs O(n) time.
+     */
+    public TrigramIndex(@NonNull Content content) {
+        this.content = content;
+        blocks.addAll(buildBlocks(0, content.getLineCount()));
+        rebuildTree();
+    }
+
+    private static char fold(char ch) {
+        return Character.toLowerCase(Character.toUpperCase(ch));
+    }
+
+    private static int bitOf(char a, char b, char c) {
+        int hash = (a * 31 + b) * 31 + c;
+        hash ^= hash >>> 13;
+        hash *= 0x5bd1e995;
+        hash ^= hash >>> 15;
+        return hash & (BLOCK_BITS - 1);
+    }
+
+    /**
+     * Build blocks for the given lines
+     */
+    @NonNull
+    private List<Block> buildBlocks(int startLine, int endLine) {
+        var result = new ArrayList<Block>();
+        var block = new Block();
+        for (int line = startLine; line < endLine; line++) {
+            var text = content.getReadOnlyLine(line);
+            int length = text.length();
+            if (length >= 3) {
+                char a = fold(text.charAt(0));
+                char b = fold(text.charAt(1));
+                for (int i = 2; i < length; i++) {
+                    char c = fold(text.charAt(i));
+                    int bit = bitOf(a, b, c);
+                    block.bits[bit >> 6] |= 1L << bit;
+                    a = b;
+                    b = c;
+                }
+            }
+            block.lineCount++;
+            block.charCount += length;
+            if (block.charCount >= BLOCK_CHARS) {
+                result.add(block);
+                block = new Block();
+            }
+        }
+        if (block.lineCount > 0 || result.isEmpty()) {
+            result.add(block);
+        }
+        return result;
+    }
+
+    /**
+     * Rebuild the blocks in the given range, which have the given lines after modification
+     *
+     * @param startBlock First block to rebuild, inclusive
+     * @param endBlock   Last block to rebuild, exclusive
+     * @param startLine  First line of the start block
+     * @param lineCount  Line count of these blocks after modification
+     */
+    private void rebuildBlocks(int startBlock, int endBlock, int startLine, int lineCount) {
+        var newBlocks = buildBlocks(startLine, startLine + lineCount);
+        var oldBlocks = blocks.subList(startBlock, endBlock);
+        if (newBlocks.size() == oldBlocks.size()) {
+            // Usually the case for modifications in a line. Blocks are not moved
+            for (int i = 0; i < newBlocks.size(); i++) {
+                var block = newBlocks.get(i);
+                lineTree.add(startBlock + i, block.lineCount - oldBlocks.set(i, block).lineCount);
+            }
+            return;
+        }
+        oldBlocks.clear();
+        blocks.addAll(startBlock, newBlocks);
+        rebuildTree();
+    }
+
+    /**
+     * Rebuild Fenwick tree of line counts in O(B) time, where B is the block count
+     */
+    private void rebuildTree() {
+        lineTree.rebuild(blocks.size(), i -> blocks.get(i).lineCount);
+    }
+
+    /**
+     * Find lines that may contain the given literal. Lines that do not contain the literal are
+     * possibly included.
+     *
+     * @param literal Literal to find, which must not contain line separators
+     * @return Line ranges, start line inclusive and end line exclusive, packed by {@link IntPair} in order.
+     * Or null if the literal is too short to use the index.
+     */
+    @Nullable
+    public synchronized LongArrayList findCandidateLines(@NonNull String literal) {
+        int length = literal.length();
+        if (length < 3) {
+            return null;
+        }
+        var mask = new long[BLOCK_BITS / 64];
+        char a = fold(literal.charAt(0));
+        char b = fold(literal.charAt(1));
+        for (int i = 2; i < length; i++) {
+            char c = fold(literal.charAt(i));
+            int bit = bitOf(a, b, c);
+            mask[bit >> 6] |= 1L << bit;
+            a = b;
+            b = c;
+        }
+        var results = new LongArrayList();
+        int line = 0;
+        int rangeStart = -1;
+        for (var block : blocks) {
+            if (block.containsAll(mask)) {
+                if (rangeStart == -1) {
+                    rangeStart = line;
+                }
+            } else if (rangeStart != -1) {
+                results.add(IntPair.pack(rangeStart, line));
+                rangeStart = -1;
+            }
+            line += block.lineCount;
+        }
+        if (rangeStart != -1) {
+            results.add(IntPair.pack(rangeStart, line));
+        }
+        return results;
+    }
+
+    /**
+     * Get a literal that every match of the given regex contains, for querying the index. This is
+     * conservative, and only literal chars outside groups and classes are considered.
+     *
+     * @return The longest such literal, or null if none is found
+     */
+    @Nullable
+    public static String findRequiredLiteral(@NonNull String regex) {
+        if (regex.indexOf('|') != -1) {
+            return null;
+        }
+        String best = null;
+        var current = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char ch = regex.charAt(i);
+            char literal = 0;
+            if (ch == '\\' && i + 1 < length) {
+                char next = regex.charAt(++i);
+                if (Character.isLetterOrDigit(next)) {
+                    // Escapes like \x41 and \p{L} take operands, which are not literals
+                    i = skipEscapeOperands(regex, i);
+                } else if (!inClass && depth == 0) {
+                    literal = next;
+                }
+            } else if (inClass) {
+                if (ch == ']') {
+                    inClass = false;
+                }
+            } else if (ch == '[') {
+                inClass = true;
+            } else if (ch == '{') {
+                // Skip the bounds of the quantifier
+                int end = regex.indexOf('}', i);
+                i = end == -1 ? length : end;
+            } else if (ch == '(') {
+                if (hasCommentsFlag(regex, i + 1)) {
+                    // Whitespace and comments are ignored then
+                    return null;
+                }
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+            } else if (depth == 0 && ".*+?{}^$".indexOf(ch) == -1) {
+                literal = ch;
+            }
+            if (literal != 0) {
+                // A quantifier after the char makes it optional or repeated
+                if (i + 1 < length && "*?{+".indexOf(regex.charAt(i + 1)) != -1) {
+                    char quantifier = regex.charAt(i + 1);
+                    if (quantifier == '+') {
+                        current.append(literal);
+                    }
+                    best = longer(best, current);
+                    current.setLength(0);
+                } else {
+                    current.append(literal);
+                }
+            } else {
+                best = longer(best, current);
+                current.setLength(0);
+            }
+        }
+        best = longer(best, current);
+        return best;
+    }
+
+    /**
+     * Skip operands of the escape whose letter or digit is at the given index
+     *
+     * @return index of the last char of the escape
+     */
+    private static int skipEscapeOperands(@NonNull String regex, int index) {
+        int last = regex.length() - 1;
+        char kind = regex.charAt(index);
+        char next = index < last ? regex.charAt(index + 1) : 0;
+        switch (kind) {
+            case 'x':
+                return next == '{' ? indexOrLast(regex, "}", index, last) : Math.min(last, index + 2);
+            case 'u':
+                return Math.min(last, index + 4);
+            case 'c':
+                return Math.min(last, index + 1);
+            case 'p':
+            case 'P':
+                return next == '{' ? indexOrLast(regex, "}", index, last) : Math.min(last, index + 1);
+            case 'N':
+                return next == '{' ? indexOrLast(regex, "}", index, last) : index;
+            case 'k':
+                return next == '<' ? indexOrLast(regex, ">", index, last) : index;
+            case 'Q': {
+                int end = regex.indexOf("\\E", index);
+                return end == -1 ? last : end + 1;
+            }
+            case '0': {
+                // Octal escape, up to 3 digits
+                int end = index;
+                while (end < last && end - index < 3 && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7') {
+                    end++;
+                }
+                return end;
+            }
+            default:
+                if (kind >= '1' && kind <= '9') {
+                    // Back reference, with as many digits as possible
+                    int end = index;
+                    while (end < last && Character.isDigit(regex.charAt(end + 1))) {
+                        end++;
+                    }
+                    return end;
+                }
+                return index;
+        }
+    }
+
+    private static int indexOrLast(@NonNull String regex, @NonNull String target, int from, int last) {
+        int index = regex.indexOf(target, from);
+        return index == -1 ? last : index;
+    }
+
+    /**
+     * Check if inline flags start at the given index and enable {@link java.util.regex.Pattern#COMMENTS}
+     */
+    private static boolean hasCommentsFlag(@NonNull String regex, int index) {
+        if (index >= regex.length() || regex.charAt(index) != '?') {
+            return false;
+        }
+        for (int i = index + 1; i < regex.length(); i++) {
+            char ch = regex.charAt(i);
+            if (ch == 'x') {
+                return true;
+            }
+            if (!Character.isLetter(ch)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static String longer(@Nullable String best, @NonNull StringBuilder current) {
+        if (current.length() > 0 && (best == null || current.length() > best.length())) {
+            return current.toString();
+        }
+        return best;
+    }
+
+    @Override
+    public void beforeReplace(@NonNull Content content) {
+
+    }
+
+    @Override
+    public synchronized void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
+        int index = lineTree.search(startLine);
+        rebuildBlocks(index, index + 1, lineTree.prefixSum(index), blocks.get(index).lineCount + endLine - startLine);
+    }
+
+    @Override
+    public synchronized void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
+        int startBlock = lineTree.search(startLine);
+        int endBlock = lineTree.search(endLine) + 1;
+        int blockStartLine = lineTree.prefixSum(startBlock);
+        int lineCount = lineTree.prefixSum(endBlock) - blockStartLine;
+        rebuildBlocks(startBlock, endBlock, blockStartLine, lineCount - (endLine - startLine));
+    }
+
+    private static class Block {
+
+        final long[] bits = new long[BLOCK_BITS / 64];
+        int lineCount;
+        int charCount;
+
+        boolean containsAll(@NonNull long[] mask) {
+            for (int i = 0; i < mask.length; i++) {
+                if ((bits[i] & mask[i]) != mask[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+}
@@ -164,6 +164,65 @@ public class BlockIntList {
         modCount++;
     }
 
+    /**
+     * Append values in bulk. Blocks are filled to the size they would have after separating.
+     */
+    public void addAll(int[] values, int offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > values.length) {
+            throw new ArrayIndexOutOfBoundsException("offset = " + offset + ", count = " + count + ", length = " + values.length);
+        }
+        var block = head;
+        while (block.next != null) {
+            block = block.next;
+        }
+        final int fillSize = blockSize * 3 / 4;
+        while (count > 0) {
+            if (block.size() >= fillSize) {
+                var newNext = newBlock();
+                newNext.size = 0;
+                newNext.max = 0;
+                newNext.next = null;
+                block.next = newNext;
+                block = newNext;
+            }
+            int n = Math.min(count, fillSize - block.size());
+            System.arraycopy(values, offset, block.data, block.size, n);
+            block.size += n;
+            for (int i = 0; i < n; i++) {
+                block.max = Math.max(block.max, values[offset + i]);
+            }
+            offset += n;
+            count -= n;
+            length += n;
+        }
+        modCount++;
+    }
+
+    /**
+     * Replace values in bulk, from {@code index}
+     */
+    public void setRange(int index, int[] values, int offset, int count) {
+        if (index < 0 || count < 0 || index + count > size()) {
+            throw new ArrayIndexOutOfBoundsException("index = " + index + ", count = " + count + ", length = " + size());
+        }
+        if (count == 0) {
+            return;
+        }
+        findBlock1(index);
+        var block = foundBlock;
+        int begin = foundIndex;
+        while (count > 0) {
+            int n = Math.min(count, block.size() - begin);
+            System.arraycopy(values, offset, block.data, begin, n);
+            block.compute();
+            offset += n;
+            count -= n;
+            begin = 0;
+            block = block.next;
+        }
+        modCount++;
+    }
+
     public int remove(int index) {
         if (index < 0 || index >= size()) {
             throw new ArrayIndexOutOfBoundsException("index = " + index + ", length = " + size());
@@ -190,6 +249,7 @@ public class BlockIntList {
             previous.next = block.next;
             System.arraycopy(block.data, 0, previous.data, previous.size, block.size);
             previous.size += block.size;
+            previous.max = Math.max(previous.max, block.max);
         }
         modCount++;
         length--;
@@ -218,6 +278,10 @@ public class BlockIntList {
         if (toIndex > length || fromIndex < 0 || fromIndex > toIndex) {
             throw new IndexOutOfBoundsException();
         }
+        if (fromIndex == toIndex) {
+            return;
+        }
+        invalidateCacheFrom(fromIndex);
         // Find the block
         Block previous = null;
         Block block = head;
@@ -236,20 +300,25 @@ public class BlockIntList {
                 if (previous != null) {
                     previous.next = block.next;
                     recycled.add(block);
+                } else {
+                    // Keep the head block
+                    previous = block;
                 }
                 deleteLength -= block.size();
                 block.size = 0;
+                block.max = 0;
                 block = block.next;
                 continue;
             }
-            begin = 0;
             int end = Math.min(block.size(), begin + deleteLength);
             block.remove(begin, end);
             deleteLength -= (end - begin);
+            begin = 0;
             previous = block;
             block = block.next;
         }
         length -= (toIndex - fromIndex);
+        modCount++;
     }
 
     public void clear() {
@@ -342,6 +411,8 @@ public class BlockIntList {
             this.size = divPoint;
             this.next = newNext;
             newNext.next = oldNext;
+            compute();
+            newNext.compute();
         }
 
         private void compute() {
@@ -0,0 +1,112 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Fenwick tree of int values, used to sum sizes of blocks in block lists.
+ * <p>
+ * Prefix sums, point updates and searches take O(log n) time, and rebuilding the tree takes O(n)
+ * time.
+ *
+ * @author Rosemoe
+ */
+public class FenwickTree {
+
+    private int[] tree = new int[1];
+    private int size;
+
+    /**
+     * Get count of values in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rebuild the tree with the given values in O(n) time
+     *
+     * @param size   Count of values
+     * @param values Value at each index
+     */
+    public void rebuild(int size, @NonNull IntUnaryOperator values) {
+        if (tree.length < size + 1 || tree.length > 4 * (size + 1)) {
+            tree = new int[size + 1];
+        }
+        this.size = size;
+        for (int i = 1; i <= size; i++) {
+            tree[i] = values.applyAsInt(i - 1);
+        }
+        for (int i = size + 1; i < tree.length; i++) {
+            tree[i] = 0;
+        }
+        for (int i = 1; i <= size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * Add delta to the value at the given index
+     */
+    public void add(int index, int delta) {
+        for (int i = index + 1; i <= size; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Sum of the values before the given index
+     */
+    public int prefixSum(int index) {
+        int sum = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Find the last index whose prefix sum (of values before it) is not greater than the given
+     * value. If all the values are before the given value, the last index is returned.
+     */
+    public int search(int value) {
+        int pos = 0;
+        int sum = 0;
+        for (int step = Integer.highestOneBit(size); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= size && sum + tree[next] <= value) {
+                pos = next;
+                sum += tree[next];
+            }
+        }
+        return Math.min(pos, size - 1);
+    }
+
+}
@@ -1347,16 +1347,15 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * @param line The line to search
      */
     protected long findLeadingAndTrailingWhitespacePos(ContentLine line) {
-        var buffer = line.getBackingCharArray();
         int column = line.length();
         int leading = 0;
         int trailing = column;
-        while (leading < column && isWhitespace(buffer[leading])) {
+        while (leading < column && isWhitespace(line.charAt(leading))) {
             leading++;
         }
         // Only when this action is needed
         if (leading != column && (nonPrintableOptions & (FLAG_DRAW_WHITESPACE_INNER | FLAG_DRAW_WHITESPACE_TRAILING)) != 0) {
-            while (trailing > 0 && isWhitespace(buffer[trailing - 1])) {
+            while (trailing > 0 && isWhitespace(line.charAt(trailing - 1))) {
                 trailing--;
             }
         }
@@ -1381,16 +1380,14 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         if (editorSearcher.currentPattern == null || editorSearcher.searchOptions == null) {
             return;
         }
-        if (!editorSearcher.isResultValid()) {
-            return;
-        }
-        var res = editorSearcher.lastResults;
+        // Partial results are displayed while searching
+        var res = editorSearcher.isResultValid() ? editorSearcher.lastResults : editorSearcher.partialResults;
         if (res == null) {
             return;
         }
         var lineLeft = text.getCharIndex(line, 0);
         var lineRight = lineLeft + text.getColumnCount(line);
-        for (int i = Math.max(0, positions.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
+        for (int i = Math.max(0, res.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
             var region = res.get(i);
             var start = IntPair.getFirst(region);
             var end = IntPair.getSecond(region);
@@ -1581,6 +1578,8 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * Create layout for text
      */
     protected void createLayout(boolean clearWordwrapCache) {
+        // Soft breaks of lines are changed
+        renderContext.invalidateMeasureCache();
         if (layout != null) {
             if (layout instanceof LineBreakLayout && !wordwrap) {
                 ((LineBreakLayout) layout).reuse(text);
@@ -1804,10 +1803,10 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
             int line = cur.getLeftLine();
             if (props.deleteEmptyLineFast || (props.deleteMultiSpaces != 1 && col > 0 && text.charAt(line, col - 1) == ' ')) {
                 // Check whether selection is in leading spaces
-                var text = this.text.getLine(cur.getLeftLine()).getBackingCharArray();
+                var text = this.text.getLine(cur.getLeftLine());
                 var inLeading = true;
                 for (int i = col - 1; i >= 0; i--) {
-                    char ch = text[i];
+                    char ch = text.charAt(i);
                     if (ch != ' ' && ch != '\t') {
                         inLeading = false;
                         break;
@@ -1819,7 +1818,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
                     var emptyLine = true;
                     var max = this.text.getColumnCount(line);
                     for (int i = col; i < max; i++) {
-                        char ch = text[i];
+                        char ch = text.charAt(i);
                         if (ch != ' ' && ch != '\t') {
                             emptyLine = false;
                             break;
@@ -3125,7 +3124,8 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
     /**
      * Check whether the editor is actually editable. This is not only related to user
      * property 'editable', but also editor states. When the editor is busy at initializing
-     * its layout or awaiting the result of format, it is also not editable.
+     * its layout or awaiting the result of format, it is also not editable. Read-only texts and
+     * texts that are still loading are never editable.
      * <p>
      * Do not modify the text externally in editor when this method returns false.
      *
@@ -3133,9 +3133,11 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * @see CodeEditor#setEditable(boolean)
      * @see CodeEditor#setLayoutBusy(boolean)
      * @see #isFormatting()
+     * @see Content#isReadOnly()
+     * @see Content#isLoading()
      */
     public boolean isEditable() {
-        return editable && !layoutBusy && !isFormatting();
+        return editable && !layoutBusy && !isFormatting() && (text == null || (!text.isReadOnly() && !text.isLoading()));
     }
 
     /**
@@ -4083,6 +4085,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
             cursorPosition = findCursorBlock();
         }
         renderContext.invalidateRenderNodes();
+        renderContext.invalidateMeasureCache();
         renderer.updateTimestamp();
         invalidate();
     }
@@ -5012,12 +5015,22 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         }
 
         layout.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        // Spans and soft breaks of the lines are updated now
+        renderContext.getCache().invalidateMeasure(startLine, endLine);
         checkForRelayout();
 
         // Notify input method
         updateCursor();
         waitForNextChange = false;
 
+        if (content.isLoading()) {
+            // Text is appended by loader. Keep selection and scroll position as they are
+            editorLanguage.getAnalyzeManager().insert(start, end, insertedContent);
+            dispatchEvent(new ContentChangeEvent(this, ContentChangeEvent.ACTION_INSERT, start, end, insertedContent, false));
+            invalidate();
+            return;
+        }
+
         updateCursorAnchor();
         ensureSelectionVisible();
 
@@ -5058,6 +5071,8 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         }
 
         layout.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        // Spans and soft breaks of the line are updated now
+        renderContext.getCache().invalidateMeasure(startLine, startLine);
         checkForRelayout();
 
         updateCursor();
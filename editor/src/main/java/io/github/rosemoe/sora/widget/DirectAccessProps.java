@@ -440,4 +440,22 @@ public class DirectAccessProps implements Serializable {
      */
     public boolean disableTextExtracting = false;
 
+    /**
+     * When wordwrap layout is created for large texts, wrap the lines around the viewport first and
+     * estimate rows of other lines, then wrap the whole text in background. The editor is usable
+     * meanwhile, instead of waiting for the layout.
+     * <p>
+     * Default value is {@code true}
+     */
+    public boolean lazyWordwrap = true;
+
+    /**
+     * When the text typeface is monospaced, compute widths of lines by column counts instead of
+     * measuring them, for lines without RTL text, emoji and other characters out of the columns.
+     * Other lines are still measured.
+     * <p>
+     * Layouts pick up changes when they are recreated. Default value is {@code true}
+     */
+    public boolean monospaceFastPath = true;
+
 }
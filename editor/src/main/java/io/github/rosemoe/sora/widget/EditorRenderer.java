@@ -143,11 +143,17 @@ public class EditorRenderer {
     @Nullable
     private Drawable verticalScrollbarTrackDrawable;
     private volatile long displayTimestamp;
+    private long measureConfigTimestamp;
+    private int measureConfigHash;
     private Paint.FontMetricsInt metricsLineNumber;
     private Paint.FontMetricsInt metricsGraph;
     private int cachedGutterWidth;
     private Cursor cursor;
     protected ContentLine lineBuf;
+    /**
+     * Reused for decoding compact lines to draw
+     */
+    private char[] drawTextBuffer;
     protected Content content;
     private volatile boolean renderingFlag;
     protected boolean basicDisplayMode;
@@ -557,6 +563,12 @@ public class EditorRenderer {
         forcedRecreateLayout = false;
 
         prepareLines(editor.getFirstVisibleLine(), editor.getLastVisibleLine());
+        // Keep measure cache of visible lines, with some lines for scrolling
+        var measureCache = editor.getRenderContext().getCache();
+        int minCapacity = 2 * (editor.getLastVisibleLine() - editor.getFirstVisibleLine() + 1);
+        if (measureCache.getMeasureCacheCapacity() < minCapacity) {
+            measureCache.setMeasureCacheCapacity(minCapacity);
+        }
         buildMeasureCacheForLines(editor.getFirstVisibleLine(), editor.getLastVisibleLine(), displayTimestamp, true);
         var stuckLines = getStuckCodeBlocks();
         int stuckLineCount = stuckLines == null ? 0 : stuckLines.size();
@@ -1539,7 +1551,7 @@ public class EditorRenderer {
             final float waveWidth = editor.getDpUnit() * editor.getProps().indicatorWaveWidth;
             var start = new CharPosition();
             var end = new CharPosition();
-            var indexer = cursor.getIndexer();
+            var indexer = cursor.getTextIndexer();
             for (var region : collectedDiagnostics) {
                 var startIndex = Math.max(firstIndex, region.startIndex);
                 var endIndex = Math.min(lastIndex, region.endIndex);
@@ -1636,10 +1648,9 @@ public class EditorRenderer {
             float spaceWidth = paintGeneral.getSpaceWidth();
             float rowCenter = verticalCanvasOffset - editor.getOffsetY();
             offset += measureText(lineBuf, line, rowStart, paintStart - rowStart);
-            var chars = lineBuf.getBackingCharArray();
             var lastPos = paintStart;
             while (paintStart < paintEnd) {
-                char ch = chars[paintStart];
+                char ch = lineBuf.charAt(paintStart);
                 int paintCount = 0;
                 boolean paintLine = false;
                 if (ch == ' ' || ch == '\t') {
@@ -1900,7 +1911,10 @@ public class EditorRenderer {
      */
     protected void drawText(Canvas canvas, ContentLine line, int index, int count, int contextStart, int contextCount, boolean isRtl, float offX, float offY, int lineNumber) {
         int end = index + count;
-        var src = line.getBackingCharArray();
+        var src = line.getCharsForRead(drawTextBuffer);
+        if (line.isCompact()) {
+            drawTextBuffer = src;
+        }
         end = Math.min(src.length, end);
         int st = index;
         var renderFuncChars = editor.isRenderFunctionCharacters();
@@ -2381,8 +2395,8 @@ public class EditorRenderer {
         var layout = editor.getLayout();
         var startRow = layout.getRowIndexForPosition(start);
         var endRow = layout.getRowIndexForPosition(end);
-        var posStart = cursor.getIndexer().getCharPosition(start);
-        var posEnd = cursor.getIndexer().getCharPosition(end);
+        var posStart = cursor.getTextIndexer().getCharPosition(start);
+        var posEnd = cursor.getTextIndexer().getCharPosition(end);
         var itr = layout.obtainRowIterator(startRow, preloadedLines);
         var list = new ArrayList<TextDisplayPosition>();
         for (int i = startRow; i <= endRow && itr.hasNext(); i++) {
@@ -2563,7 +2577,7 @@ public class EditorRenderer {
         var gtr = GraphicTextRow.obtain(basicDisplayMode);
         gtr.set(content, lineIndex, contextStart, end, cache == null || cache.getWidths() == null ? editor.getSpansForLine(lineIndex) : null, paintGeneral, context);
         if (editor.getLayout() instanceof WordwrapLayout && (cache == null || cache.getWidths() == null)) {
-            gtr.setSoftBreaks(((WordwrapLayout) editor.getLayout()).getSoftBreaksForLine(lineIndex));
+            gtr.setSoftBreaks(((WordwrapLayout) editor.getLayout()).getSoftBreakColumnsForLine(lineIndex));
         }
         var res = gtr.findOffsetByAdvance(start, target);
 
@@ -2614,12 +2628,11 @@ public class EditorRenderer {
                 }
             } else {
                 if (offset < end) {
-                    var chars = line.getBackingCharArray();
                     while (offset > start) {
-                        char ch = chars[offset];
+                        char ch = line.charAt(offset);
                         if (Character.isLowSurrogate(ch)) {
                             if (offset - 1 >= start) {
-                                if (isCombiningCharacter(Character.toCodePoint(chars[offset - 1], ch))) {
+                                if (isCombiningCharacter(Character.toCodePoint(line.charAt(offset - 1), ch))) {
                                     offset -= 2;
                                 } else if (isCombiningCharacter(ch)) {
                                     offset -= 1;
@@ -2638,12 +2651,11 @@ public class EditorRenderer {
         }
         if (!rtl && !forLast && offset > start) {
             // Try to combine one character again
-            var chars = line.getBackingCharArray();
-            if (Character.isLowSurrogate(chars[offset - 1])) {
-                if (offset - 1 > start && !couldBeEmojiPart(Character.toCodePoint(chars[offset - 2], chars[offset - 1]))) {
+            if (Character.isLowSurrogate(line.charAt(offset - 1))) {
+                if (offset - 1 > start && !couldBeEmojiPart(Character.toCodePoint(line.charAt(offset - 2), line.charAt(offset - 1)))) {
                     offset -= 2;
                 }
-            } else if (!Character.isHighSurrogate(chars[offset - 1])) {
+            } else if (!Character.isHighSurrogate(line.charAt(offset - 1))) {
                 offset -= 1;
             }
         }
@@ -2661,11 +2673,22 @@ public class EditorRenderer {
      */
     @UnsupportedUserUsage
     public long findFirstVisibleCharForWordwrap(float target, int lineIndex, int start, int end, int contextStart, Paint paint) {
+        return findFirstVisibleCharForWordwrap(content, target, lineIndex, start, end, contextStart, paint);
+    }
+
+    /**
+     * Find first visible character on a line of the given text, which can be a snapshot of the
+     * editor text
+     *
+     * @return Character position description, {@link CharPosDesc}
+     */
+    @UnsupportedUserUsage
+    public long findFirstVisibleCharForWordwrap(@NonNull Content text, float target, int lineIndex, int start, int end, int contextStart, Paint paint) {
         if (start >= end) {
             return CharPosDesc.make(end, 0);
         }
         var gtr = GraphicTextRow.obtain(basicDisplayMode);
-        gtr.set(content, lineIndex, contextStart, end, sSpansForWordwrap, paint, editor.getRenderContext());
+        gtr.set(text, lineIndex, contextStart, end, sSpansForWordwrap, paint, editor.getRenderContext());
         gtr.disableCache();
         var res = gtr.findOffsetByAdvance(start, target);
         gtr.recycle();
@@ -2680,26 +2703,24 @@ public class EditorRenderer {
         var context = editor.getRenderContext();
         while (startLine <= endLine && startLine < text.getLineCount()) {
             var line = useCachedContent ? getLine(startLine) : getLineDirect(startLine);
-            var cache = editor.getRenderContext().getCache().getOrCreateMeasureCache(startLine);
+            var cache = context.getCache().getOrCreateMeasureCache(startLine);
             if (cache.getUpdateTimestamp() < timestamp) {
-                var gtr = GraphicTextRow.obtain(basicDisplayMode);
+                checkMeasureConfig(timestamp);
                 var forced = false;
                 if (cache.getWidths() == null || cache.getWidths().length < line.length()) {
                     cache.setWidths(new float[Math.max(line.length() + 8, 90)]);
                     forced = true;
                 }
-                var spans = editor.getSpansForLine(startLine);
-                gtr.set(text, startLine, 0, line.length(), spans, paintGeneral, context);
-                var softBreaks = (editor.layout instanceof WordwrapLayout) ? ((WordwrapLayout) editor.layout).getSoftBreaksForLine(startLine) : null;
-                gtr.setSoftBreaks(softBreaks);
-                var hash = Objects.hash(spans, line.length(), editor.getTabWidth(), basicDisplayMode,
-                        softBreaks, paintGeneral.getFlags(), paintGeneral.getTextSize(), paintGeneral.getTextScaleX(),
-                        paintGeneral.getLetterSpacing(), paintGeneral.getFontFeatureSettings(), paintGeneral.getTypeface().hashCode());
-                if (context.getCache().getStyleHash(startLine) != hash || forced) {
+                if (!context.getCache().isMeasureValid(startLine) || forced) {
+                    var gtr = GraphicTextRow.obtain(basicDisplayMode);
+                    gtr.set(text, startLine, 0, line.length(), editor.getSpansForLine(startLine), paintGeneral, context);
+                    if (editor.layout instanceof WordwrapLayout) {
+                        gtr.setSoftBreaks(((WordwrapLayout) editor.layout).getSoftBreakColumnsForLine(startLine));
+                    }
                     gtr.buildMeasureCache();
-                    context.getCache().setStyleHash(startLine, hash);
+                    gtr.recycle();
+                    context.getCache().markMeasureValid(startLine);
                 }
-                gtr.recycle();
                 cache.setUpdateTimestamp(timestamp);
             }
             startLine++;
@@ -2710,6 +2731,24 @@ public class EditorRenderer {
         buildMeasureCacheForLines(startLine, endLine, displayTimestamp, false);
     }
 
+    /**
+     * Check paint attributes that affect measure results, and invalidate all the measure cache if
+     * they are changed. Attributes are only checked once for each timestamp, as their setters
+     * update the timestamp.
+     */
+    private void checkMeasureConfig(long timestamp) {
+        if (measureConfigTimestamp == timestamp) {
+            return;
+        }
+        measureConfigTimestamp = timestamp;
+        var hash = Objects.hash(editor.getTabWidth(), basicDisplayMode, paintGeneral.getFlags(), paintGeneral.getTextSize(),
+                paintGeneral.getTextScaleX(), paintGeneral.getLetterSpacing(), paintGeneral.getFontFeatureSettings(), paintGeneral.getTypeface());
+        if (hash != measureConfigHash) {
+            measureConfigHash = hash;
+            editor.getRenderContext().invalidateMeasureCache();
+        }
+    }
+
     /**
      * Measure text width with editor's text paint
      *
@@ -2733,7 +2772,7 @@ public class EditorRenderer {
         }
         gtr.set(content, line, 0, text.length(), spans, paintGeneral, editor.getRenderContext());
         if (editor.layout instanceof WordwrapLayout && (cache == null || cache.getWidths() == null)) {
-            gtr.setSoftBreaks(((WordwrapLayout) editor.layout).getSoftBreaksForLine(line));
+            gtr.setSoftBreaks(((WordwrapLayout) editor.layout).getSoftBreakColumnsForLine(line));
         }
         var res = gtr.measureText(index, index + count);
         gtr.recycle();
@@ -24,13 +24,17 @@
 package io.github.rosemoe.sora.widget;
 
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.widget.Toast;
 
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,7 +44,14 @@ import io.github.rosemoe.sora.event.ContentChangeEvent;
 import io.github.rosemoe.sora.event.PublishSearchResultEvent;
 import io.github.rosemoe.sora.event.SelectionChangeEvent;
 import io.github.rosemoe.sora.text.Content;
-import io.github.rosemoe.sora.text.TextUtils;
+import io.github.rosemoe.sora.text.ContentSnapshot;
+import io.github.rosemoe.sora.text.TextEdit;
+import io.github.rosemoe.sora.text.TextReference;
+import io.github.rosemoe.sora.text.search.LiteralMatchFinder;
+import io.github.rosemoe.sora.text.search.MatchFinder;
+import io.github.rosemoe.sora.text.search.ParallelSearcher;
+import io.github.rosemoe.sora.text.search.RegexMatchFinder;
+import io.github.rosemoe.sora.text.search.TrigramIndex;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.util.LongArrayList;
 import io.github.rosemoe.sora.util.regex.RegexBackrefGrammar;
@@ -72,13 +83,36 @@ public class EditorSearcher {
      * No overlapping region is permitted.
      */
     protected LongArrayList lastResults;
+    /**
+     * Results of a running search, covering the lines around the visible area. They are only
+     * used to display matches before the search is done.
+     */
+    protected LongArrayList partialResults;
     private boolean cyclicJumping = true;
 
+    /**
+     * Max count of characters on lines touched by an edit to update results without a full search
+     */
+    private final static int MAX_INCREMENTAL_RANGE = 65536;
+    /**
+     * Count of replacements between progress updates in {@link #replaceAll(String, Runnable)}, must be a power of 2
+     */
+    private final static int REPLACE_PROGRESS_INTERVAL = 1024;
+    /**
+     * Regex constructs that may match line separators or depend on text out of current line
+     */
+    private final static String[] MULTILINE_REGEX_CONSTRUCTS = {
+            "\\n", "\\r", "\\R", "\\s", "\\W", "\\D", "\\H", "\\v", "\\x", "\\u", "\\0",
+            "\\c", "\\p", "\\P", "\\A", "\\Z", "\\z", "\\G", "[^", "(?"
+    };
+
     EditorSearcher(@NonNull CodeEditor editor) {
         this.editor = editor;
         this.editor.subscribeEvent(ContentChangeEvent.class, ((event, unsubscribe) -> {
             if (hasQuery()) {
-                executeMatch();
+                if (!updateResultsIncrementally(event)) {
+                    executeMatch();
+                }
             }
         }));
     }
@@ -134,10 +168,116 @@ public class EditorSearcher {
             currentThread.interrupt();
         }
         var runnable = new SearchRunnable(editor.getText(), searchOptions, currentPattern);
+        partialResults = null;
         currentThread = new Thread(runnable);
         currentThread.start();
     }
 
+    /**
+     * Update {@link #lastResults} for the given modification by shifting matches after the
+     * modified lines and searching only these lines again.
+     *
+     * @return false if the results can not be updated in this way
+     */
+    private boolean updateResultsIncrementally(@NonNull ContentChangeEvent event) {
+        var results = lastResults;
+        if (results == null || !isResultValid() || !isLineBoundQuery(currentPattern, searchOptions)) {
+            return false;
+        }
+        int action = event.getAction();
+        if (action != ContentChangeEvent.ACTION_INSERT && action != ContentChangeEvent.ACTION_DELETE) {
+            return false;
+        }
+        var text = editor.getText();
+        var start = event.getChangeStart();
+        var end = event.getChangeEnd();
+        int endLine = action == ContentChangeEvent.ACTION_INSERT ? end.line : start.line;
+        // Region of modified lines in new text
+        int windowStart = start.index - start.column;
+        int windowEnd = text.getCharIndex(endLine, text.getColumnCount(endLine));
+        if (windowEnd - windowStart > MAX_INCREMENTAL_RANGE) {
+            return false;
+        }
+        int delta = action == ContentChangeEvent.ACTION_INSERT ? end.index - start.index : start.index - end.index;
+        int oldWindowEnd = windowEnd - delta;
+
+        var newResults = new LongArrayList();
+        int i = 0;
+        int size = results.size();
+        while (i < size && IntPair.getFirst(results.get(i)) < windowStart) {
+            newResults.add(results.get(i++));
+        }
+        // Matches never cross lines, so the old matches on modified lines are all in the window
+        while (i < size && IntPair.getFirst(results.get(i)) <= oldWindowEnd) {
+            i++;
+        }
+        var finder = createFinder(currentPattern, searchOptions);
+        for (int line = start.line; line <= endLine; line++) {
+            int lineStart = line == start.line ? windowStart : text.getCharIndex(line, 0);
+            ParallelSearcher.searchLine(text.getReadOnlyLine(line), lineStart, finder, newResults);
+        }
+        for (; i < size; i++) {
+            var region = results.get(i);
+            newResults.add(IntPair.pack(IntPair.getFirst(region) + delta, IntPair.getSecond(region) + delta));
+        }
+        lastResults = newResults;
+        editor.invalidate();
+        editor.dispatchEvent(new PublishSearchResultEvent(editor));
+        return true;
+    }
+
+    /**
+     * Check if matches of the query never contain line separators and can be found by searching
+     * single lines
+     */
+    private static boolean isLineBoundQuery(@NonNull String pattern, @NonNull SearchOptions options) {
+        if (pattern.indexOf('\n') != -1 || pattern.indexOf('\r') != -1) {
+            return false;
+        }
+        if (options.type != SearchOptions.TYPE_REGULAR_EXPRESSION) {
+            return true;
+        }
+        // This is conservative, and a false result only costs a full search
+        for (var construct : MULTILINE_REGEX_CONSTRUCTS) {
+            if (pattern.contains(construct)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find lines that may contain matches of the query by the trigram index of the text
+     *
+     * @return Line ranges packed by {@link IntPair}, or null if all lines should be searched
+     * @see Content#setTrigramIndexEnabled(boolean)
+     */
+    @Nullable
+    private static LongArrayList findCandidateLines(@NonNull Content content, @NonNull String pattern, @NonNull SearchOptions options) {
+        var index = content.getTrigramIndex();
+        if (index == null || !isLineBoundQuery(pattern, options)) {
+            return null;
+        }
+        var literal = options.type == SearchOptions.TYPE_REGULAR_EXPRESSION ? TrigramIndex.findRequiredLiteral(pattern) : pattern;
+        return literal == null ? null : index.findCandidateLines(literal);
+    }
+
+    @NonNull
+    private static Pattern compilePattern(@NonNull String pattern, @NonNull SearchOptions options) {
+        if (options.type == SearchOptions.TYPE_WHOLE_WORD) {
+            pattern = "\\b" + Pattern.quote(pattern) + "\\b";
+        }
+        return Pattern.compile(pattern, (options.caseInsensitive ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE);
+    }
+
+    @NonNull
+    private static MatchFinder createFinder(@NonNull String pattern, @NonNull SearchOptions options) {
+        if (options.type == SearchOptions.TYPE_NORMAL) {
+            return new LiteralMatchFinder(pattern, options.caseInsensitive);
+        }
+        return new RegexMatchFinder(compilePattern(pattern, options));
+    }
+
     /**
      * Stop searching.
      */
@@ -147,6 +287,7 @@ public class EditorSearcher {
         }
         currentThread = null;
         lastResults = null;
+        partialResults = null;
         currentPattern = null;
         searchOptions = null;
         editor.dispatchEvent(new PublishSearchResultEvent(editor));
@@ -335,8 +476,11 @@ public class EditorSearcher {
 
     /**
      * Replace all matched position. Note that after invoking this, a blocking {@link ProgressDialog}
-     * is shown until the action is done (either succeeded or failed). The given callback will be executed
+     * is shown until the action is done (either succeeded, failed or cancelled). The given callback will be executed
      * on success.
+     * <p>
+     * Replacements are computed in background, and then applied as a single batched edit by
+     * {@link Content#applyEdits(List)}, so the action can be undone at once.
      *
      * @param replacement The text for replacement
      * @param whenSucceeded Callback when action is succeeded
@@ -352,58 +496,34 @@ public class EditorSearcher {
             return;
         }
         var context = editor.getContext();
-        final var dialog = ProgressDialog.show(context, I18nConfig.getString(context, R.string.sora_editor_replaceAll), I18nConfig.getString(context, R.string.sora_editor_editor_search_replacing), true, false);
         final var res = lastResults;
         final var options = searchOptions;
         final var pattern = currentPattern;
+        final var snapshot = editor.getText().createSnapshot();
+        final var cancelled = new AtomicBoolean();
+        final var dialog = new ProgressDialog(context);
+        dialog.setTitle(I18nConfig.getString(context, R.string.sora_editor_replaceAll));
+        dialog.setMessage(I18nConfig.getString(context, R.string.sora_editor_editor_search_replacing));
+        dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        dialog.setMax(res.size());
+        dialog.setCancelable(false);
+        dialog.setButton(DialogInterface.BUTTON_NEGATIVE, context.getString(android.R.string.cancel), (d, which) -> cancelled.set(true));
+        dialog.show();
         new Thread(() -> {
             try {
-                var sb = editor.getText().toStringBuilder();
-                if (options.type == SearchOptions.TYPE_REGULAR_EXPRESSION && options.regexBackrefGrammar != null) {
-                    var regex = Pattern.compile(pattern, (options.caseInsensitive ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE);
-                    Matcher matcher = null;
-                    List<RegexBackrefToken> tokens = null;
-                    int delta = 0;
-                    var text = sb.toString();
-                    for (int i = 0; i < res.size(); i++) {
-                        var region = res.get(i);
-                        var start = IntPair.getFirst(region);
-                        var end = IntPair.getSecond(region);
-                        var regionText = text.substring(start, end);
-                        if (matcher == null) {
-                            matcher = regex.matcher(regionText);
-                        } else {
-                            matcher.reset(regionText);
-                        }
-                        if (!matcher.find()) {
-                            continue;
-                        }
-                        if (tokens == null) {
-                            tokens = new RegexBackrefParser(options.regexBackrefGrammar).parse(replacement, matcher.groupCount());
-                        }
-                        var computedReplacement = RegexBackrefHelper.computeReplacement(matcher, tokens);
-                        var newLength = computedReplacement.length();
-                        var oldLength = end - start;
-                        sb.replace(start + delta, end + delta, computedReplacement);
-                        delta += newLength - oldLength;
-                    }
-                } else {
-                    int newLength = replacement.length();
-                    int delta = 0;
-                    for (int i = 0; i < res.size(); i++) {
-                        var region = res.get(i);
-                        var start = IntPair.getFirst(region);
-                        var end = IntPair.getSecond(region);
-                        var oldLength = end - start;
-                        sb.replace(start + delta, end + delta, replacement);
-                        delta += newLength - oldLength;
-                    }
-                }
+                var edits = computeReplaceEdits(snapshot, res, options, pattern, replacement, cancelled,
+                        progress -> editor.postInLifecycle(() -> dialog.setProgress(progress)));
                 editor.postInLifecycle(() -> {
-                    var pos = editor.getCursor().left();
-                    editor.getText().replace(0, 0, editor.getLineCount() - 1, editor.getText().getColumnCount(editor.getLineCount() - 1), sb);
-                    editor.setSelectionAround(pos.line, pos.column);
                     dialog.dismiss();
+                    if (edits == null || cancelled.get()) {
+                        return;
+                    }
+                    var text = editor.getText();
+                    if (text.getDocumentVersion() != snapshot.getDocumentVersion()) {
+                        Toast.makeText(editor.getContext(), "Replace failed: text is modified", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    text.applyEdits(edits);
 
                     if (whenSucceeded != null) {
                         whenSucceeded.run();
@@ -415,10 +535,57 @@ public class EditorSearcher {
                     Toast.makeText(editor.getContext(), "Replace failed:" + e, Toast.LENGTH_SHORT).show();
                     dialog.dismiss();
                 });
+            } finally {
+                snapshot.release();
             }
         }).start();
     }
 
+    /**
+     * Compute edits for replacing all the given matches. Each match becomes its own edit, so
+     * the text between matches is left untouched by {@link Content#applyEdits(List)}.
+     *
+     * @param progress Receives the count of matches handled so far, called from the computing thread
+     * @return The edits, or null if cancelled
+     */
+    @Nullable
+    static List<TextEdit> computeReplaceEdits(@NonNull Content text, @NonNull LongArrayList res, @NonNull SearchOptions options,
+                                              @NonNull String pattern, @NonNull String replacement, @NonNull AtomicBoolean cancelled,
+                                              @Nullable IntConsumer progress) {
+        var indexer = text.getIndexer();
+        var edits = new ArrayList<TextEdit>(res.size());
+        Matcher matcher = null;
+        List<RegexBackrefToken> tokens = null;
+        if (options.type == SearchOptions.TYPE_REGULAR_EXPRESSION && options.regexBackrefGrammar != null) {
+            matcher = Pattern.compile(pattern, (options.caseInsensitive ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE).matcher("");
+            // Parse the replacement once for all matches
+            tokens = new RegexBackrefParser(options.regexBackrefGrammar).parse(replacement, matcher.groupCount());
+        }
+        for (int i = 0; i < res.size(); i++) {
+            if (cancelled.get()) {
+                return null;
+            }
+            if (progress != null && (i & (REPLACE_PROGRESS_INTERVAL - 1)) == 0) {
+                progress.accept(i);
+            }
+            var region = res.get(i);
+            var start = IntPair.getFirst(region);
+            var end = IntPair.getSecond(region);
+            var computedReplacement = replacement;
+            if (matcher != null) {
+                matcher.reset(text.substring(start, end));
+                if (!matcher.find()) {
+                    continue;
+                }
+                computedReplacement = RegexBackrefHelper.computeReplacement(matcher, tokens);
+            }
+            var startPos = indexer.getCharPosition(start);
+            var endPos = indexer.getCharPosition(end);
+            edits.add(new TextEdit(startPos.line, startPos.column, endPos.line, endPos.column, computedReplacement));
+        }
+        return edits;
+    }
+
     protected boolean isResultValid() {
         return currentThread == null || !currentThread.isAlive();
     }
@@ -485,67 +652,130 @@ public class EditorSearcher {
     /**
      * Run for regex matching
      */
-    private final class SearchRunnable implements Runnable {
+    private final class SearchRunnable implements Runnable, TextReference.Validator {
 
-        private final StringBuilder text;
+        private final ContentSnapshot text;
         private final String pattern;
         private final SearchOptions options;
-        private Thread localThread;
+        private final int firstVisibleLine;
+        private final int lastVisibleLine;
+        private final LongArrayList candidateLines;
+        private volatile Thread localThread;
 
         public SearchRunnable(@NonNull Content content, @NonNull SearchOptions options, @NonNull String pattern) {
-            this.text = content.toStringBuilder();
+            // This takes the write lock of text. It's O(1) with TreeLineStorage, but other storages
+            // copy line references, which is O(lines) on the UI thread
+            this.text = content.createSnapshot();
             this.options = options;
             this.pattern = pattern;
+            // Query the index now, as it follows the text instead of the snapshot
+            candidateLines = findCandidateLines(content, pattern, options);
+            int lineCount = text.getLineCount();
+            firstVisibleLine = Math.max(0, Math.min(editor.getFirstVisibleLine(), lineCount - 1));
+            lastVisibleLine = Math.max(firstVisibleLine, Math.min(editor.getLastVisibleLine(), lineCount - 1));
+        }
+
+        /**
+         * Search from the visible lines outwards, publishing results of searched lines as partial
+         * results after each step
+         */
+        @NonNull
+        private LongArrayList searchFromVisibleLines(@NonNull MatchFinder finder) {
+            int lineCount = text.getLineCount();
+            int startLine = firstVisibleLine;
+            int endLine = lastVisibleLine + 1;
+            var results = ParallelSearcher.searchLines(text, startLine, endLine, finder, false, this);
+            int step = Math.max(endLine - startLine, 1);
+            while (startLine > 0 || endLine < lineCount) {
+                publishPartialResults(results);
+                step *= 4;
+                int newStartLine = Math.max(0, startLine - step);
+                int newEndLine = Math.min(lineCount, endLine + step);
+                var above = ParallelSearcher.searchLines(text, newStartLine, startLine, finder, true, this);
+                var below = ParallelSearcher.searchLines(text, endLine, newEndLine, finder, true, this);
+                var merged = new LongArrayList();
+                for (int i = 0; i < above.size(); i++) {
+                    merged.add(above.get(i));
+                }
+                for (int i = 0; i < results.size(); i++) {
+                    merged.add(results.get(i));
+                }
+                for (int i = 0; i < below.size(); i++) {
+                    merged.add(below.get(i));
+                }
+                results = merged;
+                startLine = newStartLine;
+                endLine = newEndLine;
+            }
+            return results;
+        }
+
+        /**
+         * Search only the candidate lines given by the trigram index
+         */
+        @NonNull
+        private LongArrayList searchCandidateLines(@NonNull MatchFinder finder) {
+            var results = new LongArrayList();
+            int lineCount = text.getLineCount();
+            for (int i = 0; i < candidateLines.size(); i++) {
+                var range = candidateLines.get(i);
+                int startLine = IntPair.getFirst(range);
+                int endLine = Math.min(IntPair.getSecond(range), lineCount);
+                var matches = ParallelSearcher.searchLines(text, startLine, endLine, finder, true, this);
+                for (int j = 0; j < matches.size(); j++) {
+                    results.add(matches.get(j));
+                }
+            }
+            return results;
+        }
+
+        private void publishPartialResults(@NonNull LongArrayList results) {
+            editor.postInLifecycle(() -> {
+                if (currentThread == localThread) {
+                    partialResults = results;
+                    editor.invalidate();
+                }
+            });
         }
 
         private boolean checkNotCancelled() {
             return currentThread == localThread && !Thread.interrupted();
         }
 
+        @Override
+        public void validate() {
+            // Called by search workers as well, so the interrupted flag is not cleared here
+            var thread = localThread;
+            if (currentThread != thread || thread.isInterrupted()) {
+                throw new TextReference.ValidateFailedException("search is cancelled");
+            }
+        }
+
         @Override
         public void run() {
             localThread = Thread.currentThread();
-            var results = new LongArrayList();
-            var textLength = text.length();
-            var ignoreCase = options.caseInsensitive;
-            var pattern = this.pattern;
-            switch (options.type) {
-                case SearchOptions.TYPE_NORMAL: {
-                    int nextStart = 0;
-                    var patternLength = pattern.length();
-                    while (nextStart != -1 && nextStart < textLength && checkNotCancelled()) {
-                        nextStart = TextUtils.indexOf(text, pattern, ignoreCase, nextStart);
-                        if (nextStart != -1) {
-                            results.add(IntPair.pack(nextStart, nextStart + patternLength));
-                            nextStart += patternLength;
-                        }
-                    }
-                    break;
+            var finder = createFinder(pattern, options);
+            LongArrayList results;
+            try {
+                if (candidateLines != null) {
+                    results = searchCandidateLines(finder);
+                } else if (isLineBoundQuery(pattern, options)) {
+                    results = searchFromVisibleLines(finder);
+                } else {
+                    // Matches may cross lines. Regex matcher copies its input on some platforms, so
+                    // only windows of lines are given to the finder
+                    results = ParallelSearcher.searchWindows(text, finder, true, this);
                 }
-                case SearchOptions.TYPE_WHOLE_WORD:
-                    pattern = "\\b" + Pattern.quote(pattern) + "\\b";
-                    // fall-through
-                case SearchOptions.TYPE_REGULAR_EXPRESSION:
-                    var regex = Pattern.compile(pattern, (ignoreCase ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE);
-                    int lastEnd = 0;
-                    // Matcher will call toString() on input several times
-                    var string = text.toString();
-                    var matcher = regex.matcher(string);
-                    while (lastEnd < textLength && matcher.find(lastEnd) && checkNotCancelled()) {
-                        lastEnd = matcher.end();
-                        var start = matcher.start();
-                        if (start == lastEnd) {
-                            // Do not match empty text
-                            lastEnd ++;
-                            continue;
-                        }
-                        results.add(IntPair.pack(matcher.start(), lastEnd));
-                    }
+            } catch (TextReference.ValidateFailedException e) {
+                return;
+            } finally {
+                text.release();
             }
             if (checkNotCancelled()) {
                 editor.postInLifecycle(() -> {
                     if (currentThread == localThread) {
                         lastResults = results;
+                        partialResults = null;
                         editor.invalidate();
                         editor.dispatchEvent(new PublishSearchResultEvent(editor));
                         currentThread = null;
@@ -53,7 +53,7 @@ object BidiLayoutHelper {
             editor.renderContext
         )
         if (layout is WordwrapLayout) {
-            gtr.setSoftBreaks(layout.getSoftBreaksForLine(line))
+            gtr.setSoftBreaks(layout.getSoftBreakColumnsForLine(line))
         }
         val column = targetColumn.coerceIn(rowStart, rowEnd)
         var offset = 0f
@@ -99,7 +99,7 @@ object BidiLayoutHelper {
             editor.renderContext
         )
         if (layout is WordwrapLayout) {
-            gtr.setSoftBreaks(layout.getSoftBreaksForLine(line))
+            gtr.setSoftBreaks(layout.getSoftBreakColumnsForLine(line))
         }
         var offset = 0f
         for (i in 0 until dirs.runCount) {
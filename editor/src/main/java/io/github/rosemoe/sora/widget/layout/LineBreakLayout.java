@@ -29,13 +29,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.NoSuchElementException;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.rosemoe.sora.graphics.Paint;
 import io.github.rosemoe.sora.graphics.SingleCharacterWidths;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.text.ContentSnapshot;
 import io.github.rosemoe.sora.util.BlockIntList;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.widget.CodeEditor;
@@ -51,65 +51,100 @@ public class LineBreakLayout extends AbstractLayout {
     private final AtomicInteger reuseCount = new AtomicInteger(0);
     private BlockIntList widthMaintainer;
     private SingleCharacterWidths measurer;
+    /**
+     * Lines of the running measurement that are not touched by later edits, or null if no
+     * measurement is running
+     */
+    private UntouchedLineRanges measuringLines;
 
     public LineBreakLayout(CodeEditor editor, Content text) {
         super(editor, text);
         measurer = new SingleCharacterWidths(editor.getTabWidth());
         measurer.setHandleFunctionCharacters(editor.isRenderFunctionCharacters());
+        measurer.setMonospaceFastPath(editor.getProps().monospaceFastPath);
         widthMaintainer = new BlockIntList();
-        measureAllLines(widthMaintainer);
+        measureAllLines();
     }
 
-    private void measureAllLines(BlockIntList widthMaintainer) {
+    /**
+     * Measure widths of all lines. Lines around the viewport are measured at once, so that the
+     * horizontal scroll range is correct for them. Other lines are split into chunks and measured
+     * in parallel on a snapshot, starting from the chunk of viewport. Results are applied on main
+     * thread, except lines that are modified in the meantime.
+     */
+    private void measureAllLines() {
         if (text == null) {
             return;
         }
-        var shadowPaint = new Paint(editor.isRenderFunctionCharacters());
-        shadowPaint.set(editor.getTextPaint());
-        shadowPaint.onAttributeUpdate();
+        final var snapshot = text.createSnapshot();
+        final int lineCount = snapshot.getLineCount();
+        var widths = new int[lineCount];
+        int rowHeight = Math.max(1, editor.getRowHeight());
+        int visibleLineCount = editor.getHeight() / rowHeight + 1;
+        int firstVisibleLine = Math.max(0, Math.min(lineCount - 1, editor.getOffsetY() / rowHeight));
+        int visibleEnd = Math.min(lineCount - 1, firstVisibleLine + 2 * visibleLineCount);
+        for (int i = Math.max(0, firstVisibleLine - visibleLineCount); i <= visibleEnd; i++) {
+            widths[i] = measureLine(i);
+        }
+        widthMaintainer.clear();
+        widthMaintainer.addAll(widths, 0, lineCount);
+        final var lines = new UntouchedLineRanges(lineCount);
+        measuringLines = lines;
+
         var reuseCountLocal = reuseCount.get();
-        var measurerLocal = measurer;
-        final var monitor = new TaskMonitor(1, (results, cancelledCount) -> {
+        var taskCount = Math.min(SUBTASK_COUNT, (int) Math.ceil((float) lineCount / MIN_LINE_COUNT_FOR_SUBTASK));
+        var sizeEachTask = lineCount / taskCount;
+        final var monitor = new TaskMonitor(taskCount, (results, cancelledCount) -> {
+            snapshot.release();
             final var editor = this.editor;
             if (editor == null || cancelledCount > 0) {
                 return;
             }
             editor.postInLifecycle(() -> {
-                if (LineBreakLayout.this.editor != editor || reuseCountLocal != reuseCount.get()) {
+                if (LineBreakLayout.this.editor != editor || reuseCountLocal != reuseCount.get() || measuringLines != lines) {
                     // This layout could have been abandoned when waiting for Runnable execution
                     // See #307
                     return;
                 }
+                measuringLines = null;
+                for (Object result : results) {
+                    applyWidths((LineWidthResult) result, lines);
+                }
                 editor.setLayoutBusy(false);
                 editor.getEventHandler().scrollBy(0, 0);
             });
         });
-        var task = new LayoutTask<Void>(monitor) {
-            @Override
-            protected Void compute() {
-                widthMaintainer.lock.lock();
-                try {
-                    editor.setLayoutBusy(true);
-                    text.runReadActionsOnLines(0, text.getLineCount() - 1, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
-                        var width = (int) measurerLocal.measureText(line, 0, line.length(), shadowPaint);
-                        if (shouldRun()) {
-                            widthMaintainer.add(width);
-                        } else {
-                            abortFlag.set = true;
-                        }
-                    });
-                } finally {
-                    widthMaintainer.lock.unlock();
-                }
-                return null;
+        // Submit the chunk of viewport first, and then others by their distance to it
+        int visibleTask = Math.min(taskCount - 1, firstVisibleLine / sizeEachTask);
+        submitMeasureTask(monitor, snapshot, visibleTask, taskCount, sizeEachTask, lineCount);
+        for (int i = 1; i < taskCount; i++) {
+            if (visibleTask + i < taskCount) {
+                submitMeasureTask(monitor, snapshot, visibleTask + i, taskCount, sizeEachTask, lineCount);
             }
+            if (visibleTask - i >= 0) {
+                submitMeasureTask(monitor, snapshot, visibleTask - i, taskCount, sizeEachTask, lineCount);
+            }
+        }
+    }
+
+    private void submitMeasureTask(TaskMonitor monitor, ContentSnapshot snapshot, int id, int taskCount, int sizeEachTask, int lineCount) {
+        var start = sizeEachTask * id;
+        var end = id + 1 == taskCount ? (lineCount - 1) : (sizeEachTask * (id + 1) - 1);
+        submitTask(new LineWidthTask(monitor, snapshot, start, end));
+    }
 
-            @Override
-            protected boolean shouldRun() {
-                return super.shouldRun() && reuseCount.get() == reuseCountLocal;
+    /**
+     * Set measured widths of lines that are still valid to current lines
+     */
+    private void applyWidths(@NonNull LineWidthResult result, @NonNull UntouchedLineRanges lines) {
+        int resultEnd = result.start + result.widths.length;
+        for (int i = 0; i < lines.size(); i++) {
+            int start = Math.max(result.start, lines.getStart(i));
+            int end = Math.min(resultEnd, lines.getEnd(i));
+            if (start < end) {
+                widthMaintainer.setRange(start + lines.getOffset(i), result.widths, start - result.start, end - start);
             }
-        };
-        submitTask(task);
+        }
     }
 
     private int measureLine(int lineIndex) {
@@ -141,9 +176,14 @@ public class LineBreakLayout extends AbstractLayout {
     @Override
     public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
         super.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
+        // Width of the line may not be measured yet, if measurement is running
+        boolean measuring = measuringLines != null;
+        if (measuring) {
+            measuringLines.onEdit(startLine, startLine, endLine - startLine);
+        }
         for (int i = startLine; i <= endLine; i++) {
             if (i == startLine) {
-                if (endLine == startLine) {
+                if (endLine == startLine && !measuring) {
                     widthMaintainer.set(i, widthMaintainer.get(i) + measureRegion(i, startColumn, endColumn));
                 } else {
                     widthMaintainer.set(i, measureLine(i));
@@ -157,10 +197,14 @@ public class LineBreakLayout extends AbstractLayout {
     @Override
     public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
         super.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        boolean measuring = measuringLines != null;
+        if (measuring) {
+            measuringLines.onEdit(startLine, endLine, startLine - endLine);
+        }
         if (startLine < endLine) {
             widthMaintainer.removeRange(startLine + 1, endLine + 1);
         }
-        if (startLine == endLine) {
+        if (startLine == endLine && !measuring) {
             widthMaintainer.set(startLine, widthMaintainer.get(startLine) - (int) measurer.measureText(deletedContent, 0, endColumn - startColumn, editor.getTextPaint()));
         } else {
             widthMaintainer.set(startLine, measureLine(startLine));
@@ -187,6 +231,7 @@ public class LineBreakLayout extends AbstractLayout {
     public void destroyLayout() {
         super.destroyLayout();
         widthMaintainer = null;
+        measuringLines = null;
     }
 
     @Override
@@ -259,16 +304,59 @@ public class LineBreakLayout extends AbstractLayout {
         reuseCount.getAndIncrement();
         measurer = new SingleCharacterWidths(editor.getTabWidth());
         measurer.setHandleFunctionCharacters(editor.isRenderFunctionCharacters());
-        try {
-            if (widthMaintainer.lock.tryLock(5, TimeUnit.MILLISECONDS)) {
-                widthMaintainer.lock.unlock();
-                widthMaintainer.clear();
-                measureAllLines(widthMaintainer);
-            } else {
-                measureAllLines(widthMaintainer = new BlockIntList());
-            }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Unable to wait for lock", e);
+        measurer.setMonospaceFastPath(editor.getProps().monospaceFastPath);
+        measureAllLines();
+    }
+
+    private static class LineWidthResult {
+
+        final int start;
+        final int[] widths;
+
+        LineWidthResult(int start, int[] widths) {
+            this.start = start;
+            this.widths = widths;
+        }
+    }
+
+    private class LineWidthTask extends LayoutTask<LineWidthResult> {
+
+        private final ContentSnapshot text;
+        private final int start, end;
+        private final int reuseCountLocal;
+        private final Paint paint;
+        private final SingleCharacterWidths measurer;
+
+        LineWidthTask(TaskMonitor monitor, ContentSnapshot text, int start, int end) {
+            super(monitor);
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            reuseCountLocal = reuseCount.get();
+            paint = new Paint(editor.isRenderFunctionCharacters());
+            paint.set(editor.getTextPaint());
+            paint.onAttributeUpdate();
+            // Measurers are not thread-safe, while glyph widths are shared by font
+            measurer = new SingleCharacterWidths(editor.getTabWidth());
+            measurer.setHandleFunctionCharacters(editor.isRenderFunctionCharacters());
+            measurer.setMonospaceFastPath(editor.getProps().monospaceFastPath);
+        }
+
+        @Override
+        protected LineWidthResult compute() {
+            var widths = new int[end - start + 1];
+            text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
+                widths[index - start] = (int) measurer.measureText(line, 0, line.length(), paint);
+                if (!shouldRun()) {
+                    abortFlag.set = true;
+                }
+            });
+            return new LineWidthResult(start, widths);
+        }
+
+        @Override
+        protected boolean shouldRun() {
+            return super.shouldRun() && reuseCount.get() == reuseCountLocal;
         }
     }
 
@@ -0,0 +1,110 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.layout;
+
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Lines of a background layout computation that are not touched by edits made after it started.
+ * <p>
+ * Ranges are stored in order, as a range of line indices when the computation started, and the
+ * offset from those indices to current line indices. So results of untouched lines can be moved to
+ * their current lines when the computation completes, instead of being thrown away.
+ *
+ * @author Rosemoe
+ */
+class UntouchedLineRanges {
+
+    /**
+     * Pairs of (start, end) packed by {@link IntPair} and offset
+     */
+    private LongArrayList ranges = new LongArrayList();
+
+    /**
+     * @param lineCount Line count when the computation starts
+     */
+    UntouchedLineRanges(int lineCount) {
+        ranges.add(IntPair.pack(0, lineCount));
+        ranges.add(0);
+    }
+
+    /**
+     * Remove the lines touched by an edit, and shift the lines after it
+     *
+     * @param startLine First modified line, in current text before the edit
+     * @param endLine   Last modified line, in current text before the edit
+     * @param delta     Change of line count by the edit
+     */
+    void onEdit(int startLine, int endLine, int delta) {
+        var newRanges = new LongArrayList();
+        for (int i = 0; i < size(); i++) {
+            int start = getStart(i);
+            int end = getEnd(i);
+            int offset = getOffset(i);
+            // Lines before the edit
+            int beforeEnd = Math.min(end, startLine - offset);
+            if (start < beforeEnd) {
+                newRanges.add(IntPair.pack(start, beforeEnd));
+                newRanges.add(offset);
+            }
+            // Lines after the edit
+            int afterStart = Math.max(start, endLine + 1 - offset);
+            if (afterStart < end) {
+                newRanges.add(IntPair.pack(afterStart, end));
+                newRanges.add(offset + delta);
+            }
+        }
+        ranges = newRanges;
+    }
+
+    /**
+     * Count of ranges
+     */
+    int size() {
+        return ranges.size() / 2;
+    }
+
+    /**
+     * Start line of the range, when the computation starts, inclusive
+     */
+    int getStart(int index) {
+        return IntPair.getFirst(ranges.get(index * 2));
+    }
+
+    /**
+     * End line of the range, when the computation starts, exclusive
+     */
+    int getEnd(int index) {
+        return IntPair.getSecond(ranges.get(index * 2));
+    }
+
+    /**
+     * Offset from line index when the computation starts to current line index
+     */
+    int getOffset(int index) {
+        return (int) ranges.get(index * 2 + 1);
+    }
+
+}
@@ -37,7 +37,9 @@ import io.github.rosemoe.sora.graphics.CharPosDesc;
 import io.github.rosemoe.sora.graphics.Paint;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.text.ContentSnapshot;
 import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
 import io.github.rosemoe.sora.util.MyCharacter;
 import io.github.rosemoe.sora.widget.CodeEditor;
 
@@ -55,148 +57,248 @@ public class WordwrapLayout extends AbstractLayout {
 
     private final int width;
     private final boolean antiWordBreaking;
-    private List<RowRegion> rowTable;
+    private WordwrapRowTable rowTable;
+    private final Row tempRow = new Row();
+    /**
+     * Whether rows of some lines are estimated, and the layout is still being computed
+     */
+    private volatile boolean estimated;
+    /**
+     * Lines of the running layout task that are not touched by later edits, or null if no task is
+     * running
+     */
+    private UntouchedLineRanges wrappingLines;
 
     public WordwrapLayout(@NonNull CodeEditor editor, @NonNull Content text, boolean antiWordBreaking, @Nullable WordwrapLayout oldLayout, boolean clearCache) {
         super(editor, text);
         this.antiWordBreaking = antiWordBreaking;
-        rowTable = oldLayout != null ? oldLayout.rowTable : new ArrayList<>();
+        rowTable = oldLayout != null ? oldLayout.rowTable : new WordwrapRowTable();
         if (clearCache) {
             rowTable.clear();
         }
         width = editor.getWidth() - (int) (editor.measureTextRegionOffset() + editor.getTextPaint().measureText("a"));
+        if (rowTable.isEmpty() && editor.getProps().lazyWordwrap && text.getLineCount() >= MIN_LINE_COUNT_FOR_SUBTASK) {
+            estimateAllLines();
+        }
         breakAllLines();
     }
 
+    /**
+     * Fill the row table with estimated rows, and wrap lines around the viewport. So that the
+     * layout is available before all the lines are wrapped.
+     */
+    private void estimateAllLines() {
+        int charsPerRow = Math.max(1, (int) (width / editor.getTextPaint().measureText("a")));
+        var rows = new LongArrayList();
+        int lineCount = text.getLineCount();
+        for (int i = 0; i < lineCount; i++) {
+            int columnCount = text.getColumnCount(i);
+            int start = 0;
+            do {
+                int end = Math.min(columnCount, start + charsPerRow);
+                rows.add(IntPair.pack(start, end));
+                start = end;
+            } while (start < columnCount);
+        }
+        rowTable.set(rows);
+        estimated = true;
+        // Wrap the lines which are to be displayed, with some lines above and below
+        int visibleRowCount = editor.getHeight() / editor.getRowHeight() + 1;
+        int row = Math.min(editor.getOffsetY() / editor.getRowHeight(), rowTable.getRowCount() - 1);
+        int line = rowTable.getLine(Math.max(0, row));
+        int startLine = Math.max(0, line - visibleRowCount);
+        int endLine = Math.min(lineCount - 1, line + 2 * visibleRowCount);
+        breakLines(startLine, endLine, endLine);
+    }
+
+    /**
+     * Replace all rows with the given rows, keeping the first visible line at the same position
+     * on screen if the rows are estimated
+     */
+    private void applyAllRows(@NonNull LongArrayList rows) {
+        if (!estimated) {
+            rowTable.set(rows);
+            return;
+        }
+        estimated = false;
+        int rowHeight = editor.getRowHeight();
+        var scroller = editor.getScroller();
+        int firstRow = Math.max(0, Math.min(scroller.getCurrY() / rowHeight, rowTable.getRowCount() - 1));
+        var row = rowTable.getRow(firstRow, tempRow);
+        int line = row.lineIndex, column = row.startColumn;
+        rowTable.set(rows);
+        int delta = (findRow(line, column) - firstRow) * rowHeight;
+        if (delta != 0) {
+            scroller.startScroll(scroller.getCurrX(), scroller.getCurrY() + delta, 0, 0, 0);
+            scroller.abortAnimation();
+        }
+    }
+
+    /**
+     * Wrap all lines in background on a snapshot of text. Lines modified in the meantime keep the rows
+     * computed on main thread, and other lines take the rows computed in background.
+     */
     private void breakAllLines() {
-        var taskCount = Math.min(SUBTASK_COUNT, (int) Math.ceil((float) text.getLineCount() / MIN_LINE_COUNT_FOR_SUBTASK));
-        var sizeEachTask = text.getLineCount() / taskCount;
+        final var owner = editor;
+        final var snapshot = text.createSnapshot();
+        final int lineCount = snapshot.getLineCount();
+        final var lines = new UntouchedLineRanges(lineCount);
+        wrappingLines = lines;
+        var taskCount = Math.min(SUBTASK_COUNT, (int) Math.ceil((float) lineCount / MIN_LINE_COUNT_FOR_SUBTASK));
+        var sizeEachTask = lineCount / taskCount;
         var monitor = new TaskMonitor(taskCount, (results, cancelledCount) -> {
+            snapshot.release();
             final var editor = this.editor;
-            if (editor != null) {
+            if (editor != null && cancelledCount == 0) {
                 List<WordwrapResult> r2 = new ArrayList<>();
                 for (Object result : results) {
                     r2.add((WordwrapResult) result);
                 }
                 Collections.sort(r2);
                 editor.postInLifecycle(() -> {
-                    if (WordwrapLayout.this.editor != editor) {
+                    if (WordwrapLayout.this.editor != editor || wrappingLines != lines) {
                         // This layout could have been abandoned when waiting for Runnable execution
                         // See #307
                         return;
                     }
-                    if (rowTable != null) {
-                        rowTable.clear();
-                    } else {
-                        rowTable = new ArrayList<>();
-                    }
+                    wrappingLines = null;
+                    var rows = new LongArrayList();
                     for (WordwrapResult wordwrapResult : r2) {
-                        rowTable.addAll(wordwrapResult.regions);
+                        var regions = wordwrapResult.regions;
+                        for (int i = 0; i < regions.size(); i++) {
+                            rows.add(regions.get(i));
+                        }
+                    }
+                    if (lines.size() != 1 || lines.getEnd(0) != lineCount || lines.getOffset(0) != 0) {
+                        // The text is modified during layout
+                        rows = mergeRows(rows, lineCount, lines);
                     }
+                    applyAllRows(rows);
+                    editor.getRenderContext().invalidateMeasureCache();
                     editor.setLayoutBusy(false);
                     editor.getEventHandler().scrollBy(0, 0);
                 });
+            } else {
+                owner.postInLifecycle(() -> {
+                    if (wrappingLines == lines) {
+                        wrappingLines = null;
+                    }
+                    // Keep the busy state of a new layout that is still wrapping lines
+                    var current = owner.getLayout();
+                    if (!(current instanceof WordwrapLayout) || ((WordwrapLayout) current).wrappingLines == null) {
+                        owner.setLayoutBusy(false);
+                    }
+                });
             }
         });
         for (int i = 0; i < taskCount; i++) {
             var start = sizeEachTask * i;
-            var end = i + 1 == taskCount ? (text.getLineCount() - 1) : (sizeEachTask * (i + 1) - 1);
-            submitTask(new WordwrapAnalyzeTask(monitor, i, start, end));
+            var end = i + 1 == taskCount ? (lineCount - 1) : (sizeEachTask * (i + 1) - 1);
+            submitTask(new WordwrapAnalyzeTask(monitor, snapshot, i, start, end));
         }
     }
 
-    private int findRow(int line) {
-        int index;
-        // Binary find line
-        int left = 0, right = rowTable.size();
-        while (left <= right) {
-            var mid = (left + right) / 2;
-            if (mid < 0 || mid >= rowTable.size()) {
-                left = Math.max(0, Math.min(rowTable.size() - 1, mid));
-                break;
+    /**
+     * Build rows of current lines from rows computed in background
+     *
+     * @param computedRows Rows of all lines when the layout task started
+     * @param lineCount    Line count when the layout task started
+     * @param untouched    Lines whose computed rows are still valid
+     */
+    @NonNull
+    private LongArrayList mergeRows(@NonNull LongArrayList computedRows, int lineCount, @NonNull UntouchedLineRanges untouched) {
+        var lineRowStarts = WordwrapRowTable.findLineRowStarts(computedRows, lineCount);
+        var rows = new LongArrayList();
+        int line = 0;
+        for (int i = 0; i < untouched.size(); i++) {
+            int offset = untouched.getOffset(i);
+            for (; line < untouched.getStart(i) + offset; line++) {
+                addCurrentRows(line, rows);
             }
-            int value = rowTable.get(mid).line;
-            if (value < line) {
-                left = mid + 1;
-            } else if (value > line) {
-                right = mid - 1;
-            } else {
-                left = mid;
-                break;
+            for (int j = lineRowStarts[untouched.getStart(i)]; j < lineRowStarts[untouched.getEnd(i)]; j++) {
+                rows.add(computedRows.get(j));
             }
+            line = untouched.getEnd(i) + offset;
         }
-        index = left;
-        while (index > 0 && rowTable.get(index).startColumn > 0) {
-            index--;
+        for (int currentLineCount = text.getLineCount(); line < currentLineCount; line++) {
+            addCurrentRows(line, rows);
         }
-        return index;
+        return rows;
     }
 
-    public int findRow(int line, int column) {
-        int row = findRow(line);
-        while (rowTable.get(row).endColumn <= column && row + 1 < rowTable.size() && rowTable.get(row + 1).line == line) {
-            row++;
+    /**
+     * Add rows of a modified line. They are maintained by edits unless the row table is empty
+     */
+    private void addCurrentRows(int line, @NonNull LongArrayList rows) {
+        if (rowTable.isEmpty()) {
+            breakLine(text, line, text.getLine(line), rows, null);
+            return;
+        }
+        int firstRow = rowTable.getFirstRowOfLine(line);
+        int rowCount = rowTable.getRowCountOfLine(line);
+        for (int row = firstRow; row < firstRow + rowCount; row++) {
+            var region = rowTable.getRow(row, tempRow);
+            rows.add(IntPair.pack(region.startColumn, region.endColumn));
         }
-        return row;
     }
 
-    private void breakLines(int startLine, int endLine) {
-        int insertPosition = 0;
-        while (insertPosition < rowTable.size()) {
-            if (rowTable.get(insertPosition).line < startLine) {
-                insertPosition++;
-            } else {
-                break;
-            }
-        }
-        while (insertPosition < rowTable.size()) {
-            int line = rowTable.get(insertPosition).line;
-            if (line >= startLine && line <= endLine) {
-                rowTable.remove(insertPosition);
-            } else {
-                break;
-            }
-        }
-        List<Integer> breakpoints = new ArrayList<>();
-        List<RowRegion> newRegions = new ArrayList<>();
+    private int findRow(int line) {
+        return rowTable.getFirstRowOfLine(line);
+    }
+
+    public int findRow(int line, int column) {
+        return rowTable.findRow(line, column);
+    }
+
+    /**
+     * Break the given lines, and replace rows of lines in [startLine, oldEndLine] with them
+     */
+    private void breakLines(int startLine, int oldEndLine, int endLine) {
+        var rows = new LongArrayList();
         for (int i = startLine; i <= endLine; i++) {
-            breakLine(i, text.getLine(i), breakpoints, null);
-            for (int j = -1; j < breakpoints.size(); j++) {
-                int start = j == -1 ? 0 : breakpoints.get(j);
-                int end = j + 1 < breakpoints.size() ? breakpoints.get(j + 1) : text.getColumnCount(i);
-                newRegions.add(new RowRegion(i, start, end));
-            }
-            breakpoints.clear();
+            breakLine(text, i, text.getLine(i), rows, null);
         }
-        rowTable.addAll(insertPosition, newRegions);
+        rowTable.replaceLines(startLine, oldEndLine, rows);
     }
 
-    private void breakLine(int line, ContentLine sequence, List<Integer> breakpoints, @Nullable Paint paint) {
+    /**
+     * Break the given line of text, and add its rows to the list
+     */
+    private void breakLine(Content text, int line, ContentLine sequence, LongArrayList rows, @Nullable Paint paint) {
         int start = 0;
         int len = sequence.length();
-        var text = sequence.getBackingCharArray();
+        if (len == 0) {
+            rows.add(IntPair.pack(0, 0));
+            return;
+        }
+
+        if (paint == null) {
+            paint = editor.getTextPaint();
+        }
+        int tabWidth = editor.getTabWidth();
+        // Break by column counts directly if the line can be measured by arithmetic
+        boolean monospace = editor.getProps().monospaceFastPath && !sequence.mayNeedBidi()
+                && paint.countMonospaceColumns(sequence, 0, len, tabWidth) >= 0;
 
         while (start < len) {
-            var next = CharPosDesc.getTextOffset(editor.getRenderer().findFirstVisibleCharForWordwrap(width, line, start, len, 0, paint == null ? editor.getTextPaint() : paint));
+            var next = monospace ? paint.findMonospaceOffset(sequence, start, len, width, tabWidth)
+                    : CharPosDesc.getTextOffset(editor.getRenderer().findFirstVisibleCharForWordwrap(text, width, line, start, len, 0, paint));
             // Force to break the text, though no space is available
             if (next == start) {
                 next++;
             }
-            if (antiWordBreaking && MyCharacter.isAlpha(text[next - 1]) && next < len && (MyCharacter.isAlpha(text[next]) || text[next] == '-')) {
+            if (antiWordBreaking && MyCharacter.isAlpha(sequence.charAt(next - 1)) && next < len && (MyCharacter.isAlpha(sequence.charAt(next)) || sequence.charAt(next) == '-')) {
                 int wordStart = next - 1;
-                while (wordStart > start && MyCharacter.isAlpha(text[wordStart - 1])) {
+                while (wordStart > start && MyCharacter.isAlpha(sequence.charAt(wordStart - 1))) {
                     wordStart--;
                 }
                 if (wordStart > start) {
                     next = wordStart;
                 }
             }
-            breakpoints.add(next);
+            rows.add(IntPair.pack(start, next));
             start = next;
         }
-        if (!breakpoints.isEmpty() && breakpoints.get(breakpoints.size() - 1) == sequence.length()) {
-            breakpoints.remove(breakpoints.size() - 1);
-        }
     }
 
     @Override
@@ -207,44 +309,31 @@ public class WordwrapLayout extends AbstractLayout {
     @Override
     public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
         super.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
-        // Update line numbers
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            for (int row = findRow(startLine + 1); row < rowTable.size(); row++) {
-                rowTable.get(row).line += delta;
-            }
+        if (wrappingLines != null) {
+            wrappingLines.onEdit(startLine, startLine, endLine - startLine);
+        }
+        // Rows are not available until the layout task completes
+        if (!rowTable.isEmpty()) {
+            breakLines(startLine, startLine, endLine);
         }
-        // Re-break
-        breakLines(startLine, endLine);
     }
 
     @Override
     public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
         super.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            int startRow = findRow(startLine);
-            while (startRow < rowTable.size()) {
-                int line = rowTable.get(startRow).line;
-                if (line >= startLine && line <= endLine) {
-                    rowTable.remove(startRow);
-                } else {
-                    break;
-                }
-            }
-            for (int row = findRow(endLine + 1); row < rowTable.size(); row++) {
-                var region = rowTable.get(row);
-                if (region.line >= endLine)
-                    region.line -= delta;
-            }
+        if (wrappingLines != null) {
+            wrappingLines.onEdit(startLine, endLine, startLine - endLine);
+        }
+        if (!rowTable.isEmpty()) {
+            breakLines(startLine, endLine, startLine);
         }
-        breakLines(startLine, startLine);
     }
 
     @Override
     public void destroyLayout() {
         super.destroyLayout();
         rowTable = null;
+        wrappingLines = null;
     }
 
     @NonNull
@@ -258,7 +347,7 @@ public class WordwrapLayout extends AbstractLayout {
             r.lineIndex = rowIndex;
             return r;
         }
-        return rowTable.get(rowIndex).toRow();
+        return rowTable.getRow(rowIndex, new Row());
     }
 
     @Override
@@ -266,7 +355,7 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return Math.max(0, Math.min(row, text.getLineCount() - 1));
         }
-        return row >= rowTable.size() ? rowTable.get(rowTable.size() - 1).line : rowTable.get(row).line;
+        return rowTable.getLine(Math.max(0, Math.min(row, rowTable.getRowCount() - 1)));
     }
 
     @NonNull
@@ -289,11 +378,11 @@ public class WordwrapLayout extends AbstractLayout {
         }
         int row = findRow(line, column);
         if (row > 0) {
-            var offset = column - rowTable.get(row).startColumn;
-            var lastRow = rowTable.get(row - 1);
+            var offset = column - rowTable.getRow(row, tempRow).startColumn;
+            var lastRow = rowTable.getRow(row - 1, tempRow);
             var max = lastRow.endColumn - lastRow.startColumn;
             offset = Math.min(offset, max);
-            return IntPair.pack(lastRow.line, lastRow.startColumn + offset);
+            return IntPair.pack(lastRow.lineIndex, lastRow.startColumn + offset);
         }
         return IntPair.pack(0, 0);
     }
@@ -313,12 +402,12 @@ public class WordwrapLayout extends AbstractLayout {
             }
         }
         int row = findRow(line, column);
-        if (row + 1 < rowTable.size()) {
-            var offset = column - rowTable.get(row).startColumn;
-            var nextRow = rowTable.get(row + 1);
+        if (row + 1 < rowTable.getRowCount()) {
+            var offset = column - rowTable.getRow(row, tempRow).startColumn;
+            var nextRow = rowTable.getRow(row + 1, tempRow);
             var max = nextRow.endColumn - nextRow.startColumn;
             offset = Math.min(offset, max);
-            return IntPair.pack(nextRow.line, nextRow.startColumn + offset);
+            return IntPair.pack(nextRow.lineIndex, nextRow.startColumn + offset);
         } else {
             return IntPair.pack(line, text.getColumnCount(line));
         }
@@ -334,7 +423,7 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return editor.getRowHeight() * text.getLineCount();
         }
-        return rowTable.size() * editor.getRowHeight();
+        return rowTable.getRowCount() * editor.getRowHeight();
     }
 
     @Override
@@ -344,24 +433,7 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return line;
         }
-        var column = pos.column;
-        int row = findRow(line);
-        if (row < rowTable.size()) {
-            var region = rowTable.get(row);
-            if (region.line != line) {
-                return 0;
-            }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
-                row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
-                    row--;
-                    break;
-                }
-            }
-            return row;
-        }
-        return 0;
+        return findRow(line, pos.column);
     }
 
     @Override
@@ -373,10 +445,10 @@ public class WordwrapLayout extends AbstractLayout {
             return IntPair.pack(line, res);
         }
         int row = (int) (yOffset / editor.getRowHeight());
-        row = Math.max(0, Math.min(row, rowTable.size() - 1));
-        RowRegion region = rowTable.get(row);
-        int column = BidiLayout.horizontalIndex(editor, this, text, region.line, region.startColumn, region.endColumn, xOffset);
-        return IntPair.pack(region.line, column);
+        row = Math.max(0, Math.min(row, rowTable.getRowCount() - 1));
+        var region = rowTable.getRow(row, tempRow);
+        int column = BidiLayout.horizontalIndex(editor, this, text, region.lineIndex, region.startColumn, region.endColumn, xOffset);
+        return IntPair.pack(region.lineIndex, column);
     }
 
     @NonNull
@@ -390,27 +462,10 @@ public class WordwrapLayout extends AbstractLayout {
             dest[1] = BidiLayout.horizontalOffset(editor, this, text, line, 0, text.getColumnCount(line), column);
             return dest;
         }
-        int row = findRow(line);
-        if (row < rowTable.size()) {
-            RowRegion region = rowTable.get(row);
-            if (region.line != line) {
-                dest[0] = dest[1] = 0;
-                return dest;
-            }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
-                row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
-                    row--;
-                    region = rowTable.get(row);
-                    break;
-                }
-            }
-            dest[0] = editor.getRowBottom(row);
-            dest[1] = BidiLayout.horizontalOffset(editor, this, text, region.line, region.startColumn, region.endColumn, column);
-        } else {
-            dest[0] = dest[1] = 0;
-        }
+        int row = findRow(line, column);
+        var region = rowTable.getRow(row, tempRow);
+        dest[0] = editor.getRowBottom(row);
+        dest[1] = BidiLayout.horizontalOffset(editor, this, text, region.lineIndex, region.startColumn, region.endColumn, column);
         return dest;
     }
 
@@ -419,80 +474,48 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return 1;
         }
-        int row = findRow(line);
-        int count = 0;
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            count++;
-            row++;
-        }
-        return count;
+        return rowTable.getRowCountOfLine(line);
     }
 
     /**
      * Get soft breaks on the given line
+     *
+     * @see #getSoftBreakColumnsForLine(int)
      */
     public List<Integer> getSoftBreaksForLine(int line) {
-        if (rowTable.isEmpty()) {
-            return Collections.emptyList();
-        }
-        int row = findRow(line);
-        var list = new ArrayList<Integer>();
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            var column = rowTable.get(row).startColumn;
-            if (column != 0) {
-                list.add(column);
-            }
-            row++;
+        var breaks = getSoftBreakColumnsForLine(line);
+        var list = new ArrayList<Integer>(breaks.length);
+        for (int column : breaks) {
+            list.add(column);
         }
         return list;
     }
 
-    @Override
-    public int getRowCount() {
+    /**
+     * Get soft breaks on the given line, without boxing the columns
+     */
+    @NonNull
+    public int[] getSoftBreakColumnsForLine(int line) {
         if (rowTable.isEmpty()) {
-            return text.getLineCount();
+            return new int[0];
         }
-        return rowTable.size();
+        return rowTable.getSoftBreaks(line);
     }
 
-    static class RowRegion {
-
-        final int startColumn;
-        final int endColumn;
-        int line;
-
-        RowRegion(int line, int start, int end) {
-            this.line = line;
-            startColumn = start;
-            endColumn = end;
-        }
-
-        public Row toRow() {
-            var row = new Row();
-            row.isLeadingRow = startColumn == 0;
-            row.startColumn = startColumn;
-            row.endColumn = endColumn;
-            row.lineIndex = line;
-            return row;
-        }
-
-        @NonNull
-        @Override
-        public String toString() {
-            return "RowRegion{" +
-                    "startColumn=" + startColumn +
-                    ", endColumn=" + endColumn +
-                    ", line=" + line +
-                    '}';
+    @Override
+    public int getRowCount() {
+        if (rowTable.isEmpty()) {
+            return text.getLineCount();
         }
+        return rowTable.getRowCount();
     }
 
     private static class WordwrapResult implements Comparable<WordwrapResult> {
 
         int index;
-        List<RowRegion> regions;
+        LongArrayList regions;
 
-        public WordwrapResult(int idx, List<RowRegion> r) {
+        public WordwrapResult(int idx, LongArrayList r) {
             index = idx;
             regions = r;
         }
@@ -520,18 +543,14 @@ public class WordwrapLayout extends AbstractLayout {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            RowRegion region = rowTable.get(currentRow);
-            result.lineIndex = region.line;
-            result.startColumn = region.startColumn;
-            result.endColumn = region.endColumn;
-            result.isLeadingRow = currentRow <= 0 || rowTable.get(currentRow - 1).line != region.line;
+            rowTable.getRow(currentRow, result);
             currentRow++;
             return result;
         }
 
         @Override
         public boolean hasNext() {
-            return currentRow >= 0 && currentRow < rowTable.size();
+            return currentRow >= 0 && currentRow < rowTable.getRowCount();
         }
 
         @Override
@@ -542,11 +561,13 @@ public class WordwrapLayout extends AbstractLayout {
 
     private class WordwrapAnalyzeTask extends LayoutTask<WordwrapResult> {
 
+        private final ContentSnapshot text;
         private final int start, end, id;
         private final Paint paint;
 
-        WordwrapAnalyzeTask(TaskMonitor monitor, int id, int start, int end) {
+        WordwrapAnalyzeTask(TaskMonitor monitor, ContentSnapshot text, int id, int start, int end) {
             super(monitor);
+            this.text = text;
             this.start = start;
             this.id = id;
             this.end = end;
@@ -557,20 +578,15 @@ public class WordwrapLayout extends AbstractLayout {
 
         @Override
         protected WordwrapResult compute() {
-            editor.setLayoutBusy(true);
-            var list = new ArrayList<RowRegion>();
-            var breakpoints = new ArrayList<Integer>();
+            if (!estimated) {
+                editor.setLayoutBusy(true);
+            }
+            var list = new LongArrayList();
             text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
-                breakLine(index, line, breakpoints, paint);
-                for (int j = -1; j < breakpoints.size(); j++) {
-                    int start = j == -1 ? 0 : breakpoints.get(j);
-                    int end = j + 1 < breakpoints.size() ? breakpoints.get(j + 1) : line.length();
-                    list.add(new RowRegion(index, start, end));
-                }
+                breakLine(text, index, line, list, paint);
                 if (!shouldRun()) {
                     abortFlag.set = true;
                 }
-                breakpoints.clear();
             });
             return new WordwrapResult(id, list);
         }
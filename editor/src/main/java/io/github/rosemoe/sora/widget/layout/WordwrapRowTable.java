@@ -0,0 +1,374 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.layout;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.rosemoe.sora.util.FenwickTree;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Row table of {@link WordwrapLayout}.
+ * <p>
+ * Rows are stored in blocks of lines, with line numbers relative to the start of their block, so
+ * that adding or removing lines does not shift the rows after them. Row count and line count of
+ * blocks are summed in two Fenwick trees, and each block records the first row of its lines. Thus
+ * row to line and line to row conversions take O(log n) time, and modifications take O(log n + B)
+ * time, where B is the block size. Modifications that add or remove lines rebuild the trees of
+ * block sums only.
+ * <p>
+ * A row is stored as its start and end column packed by {@link IntPair}. Only the first row of a
+ * line starts at column 0, which marks the start of lines in a list of rows.
+ *
+ * @author Rosemoe
+ */
+class WordwrapRowTable {
+
+    /**
+     * Preferred line count in a block
+     */
+    private final static int BLOCK_SIZE = 256;
+    private final static int[] EMPTY_BREAKS = new int[0];
+
+    private final List<Block> blocks = new ArrayList<>();
+    private final FenwickTree rowTree = new FenwickTree();
+    private final FenwickTree lineTree = new FenwickTree();
+    private int rowCount;
+    private int lineCount;
+
+    /**
+     * Count lines in the given rows
+     */
+    public static int countLines(@NonNull LongArrayList rows) {
+        int count = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            if (IntPair.getFirst(rows.get(i)) == 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check if there is no row in the table
+     */
+    public boolean isEmpty() {
+        return rowCount == 0;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Remove all rows
+     */
+    public void clear() {
+        blocks.clear();
+        rowCount = lineCount = 0;
+        rebuildTrees();
+    }
+
+    /**
+     * Set rows of the whole text
+     *
+     * @param rows Rows of all lines in order
+     */
+    public void set(@NonNull LongArrayList rows) {
+        int lineCount = countLines(rows);
+        var lineRowStarts = findLineRowStarts(rows, lineCount);
+        blocks.clear();
+        addBlocks(0, rows, lineRowStarts, lineCount, (lineCount + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        this.rowCount = rows.size();
+        this.lineCount = lineCount;
+        rebuildTrees();
+    }
+
+    /**
+     * Find the first row of each line in the given rows, with row count at the end
+     */
+    @NonNull
+    static int[] findLineRowStarts(@NonNull LongArrayList rows, int lineCount) {
+        var lineRowStarts = new int[lineCount + 1];
+        int line = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            if (IntPair.getFirst(rows.get(i)) == 0) {
+                lineRowStarts[line++] = i;
+            }
+        }
+        lineRowStarts[lineCount] = rows.size();
+        return lineRowStarts;
+    }
+
+    /**
+     * Split the given rows into blocks and insert them at the given block position
+     *
+     * @param rows          Rows of lines
+     * @param lineRowStarts First row of each line in the rows, with row count at the end
+     * @param lineCount     Line count of these rows
+     * @param blockCount    Count of blocks to create
+     */
+    private void addBlocks(int blockIndex, @NonNull LongArrayList rows, @NonNull int[] lineRowStarts, int lineCount, int blockCount) {
+        var list = new ArrayList<Block>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            int from = lineCount * i / blockCount;
+            int to = lineCount * (i + 1) / blockCount;
+            int rowStart = lineRowStarts[from];
+            int rowEnd = lineRowStarts[to];
+            var blockRows = new long[rowEnd - rowStart];
+            for (int j = rowStart; j < rowEnd; j++) {
+                blockRows[j - rowStart] = rows.get(j);
+            }
+            var blockLineRowStarts = new int[to - from + 1];
+            for (int j = from; j <= to; j++) {
+                blockLineRowStarts[j - from] = lineRowStarts[j] - rowStart;
+            }
+            list.add(new Block(blockRows, blockLineRowStarts));
+        }
+        blocks.addAll(blockIndex, list);
+    }
+
+    /**
+     * Rebuild Fenwick trees of block sums in O(B) time, where B is the block count
+     */
+    private void rebuildTrees() {
+        rowTree.rebuild(blocks.size(), i -> blocks.get(i).rows.length);
+        lineTree.rebuild(blocks.size(), i -> blocks.get(i).lineCount);
+    }
+
+    /**
+     * Get the first row of the given line
+     */
+    public int getFirstRowOfLine(int line) {
+        int blockIndex = lineTree.search(line);
+        var block = blocks.get(blockIndex);
+        int offset = Math.min(line - lineTree.prefixSum(blockIndex), block.lineCount - 1);
+        return rowTree.prefixSum(blockIndex) + block.lineRowStarts[offset];
+    }
+
+    /**
+     * Get row count of the given line
+     */
+    public int getRowCountOfLine(int line) {
+        int blockIndex = lineTree.search(line);
+        var block = blocks.get(blockIndex);
+        int offset = Math.min(line - lineTree.prefixSum(blockIndex), block.lineCount - 1);
+        return block.lineRowStarts[offset + 1] - block.lineRowStarts[offset];
+    }
+
+    /**
+     * Find the row containing the given position, that is the last row of the line which starts
+     * at or before the column
+     */
+    public int findRow(int line, int column) {
+        int blockIndex = lineTree.search(line);
+        var block = blocks.get(blockIndex);
+        int offset = Math.min(line - lineTree.prefixSum(blockIndex), block.lineCount - 1);
+        int row = block.lineRowStarts[offset];
+        int end = block.lineRowStarts[offset + 1];
+        while (row + 1 < end && IntPair.getFirst(block.rows[row + 1]) <= column) {
+            row++;
+        }
+        return rowTree.prefixSum(blockIndex) + row;
+    }
+
+    /**
+     * Get line of the given row
+     */
+    public int getLine(int row) {
+        int blockIndex = rowTree.search(row);
+        var block = blocks.get(blockIndex);
+        int offset = Math.min(row - rowTree.prefixSum(blockIndex), block.rows.length - 1);
+        return lineTree.prefixSum(blockIndex) + block.findLine(offset);
+    }
+
+    /**
+     * Get the given row
+     *
+     * @param row  Row index
+     * @param dest Destination to store the row
+     */
+    @NonNull
+    public Row getRow(int row, @NonNull Row dest) {
+        int blockIndex = rowTree.search(row);
+        var block = blocks.get(blockIndex);
+        int offset = Math.min(row - rowTree.prefixSum(blockIndex), block.rows.length - 1);
+        var region = block.rows[offset];
+        dest.lineIndex = lineTree.prefixSum(blockIndex) + block.findLine(offset);
+        dest.startColumn = IntPair.getFirst(region);
+        dest.endColumn = IntPair.getSecond(region);
+        dest.isLeadingRow = dest.startColumn == 0;
+        return dest;
+    }
+
+    /**
+     * Get start columns of rows on the given line, except the first one
+     */
+    @NonNull
+    public int[] getSoftBreaks(int line) {
+        int blockIndex = lineTree.search(line);
+        var block = blocks.get(blockIndex);
+        int offset = Math.min(line - lineTree.prefixSum(blockIndex), block.lineCount - 1);
+        int start = block.lineRowStarts[offset] + 1;
+        int end = block.lineRowStarts[offset + 1];
+        if (start >= end) {
+            return EMPTY_BREAKS;
+        }
+        var breaks = new int[end - start];
+        for (int i = start; i < end; i++) {
+            breaks[i - start] = IntPair.getFirst(block.rows[i]);
+        }
+        return breaks;
+    }
+
+    /**
+     * Replace rows of lines in [startLine, endLine] with the given rows
+     *
+     * @param rows Rows of new lines
+     */
+    public void replaceLines(int startLine, int endLine, @NonNull LongArrayList rows) {
+        int newLineCount = countLines(rows);
+        int blockIndex = lineTree.search(startLine);
+        int offset = startLine - lineTree.prefixSum(blockIndex);
+        var block = blocks.get(blockIndex);
+        rowCount -= countRows(startLine, endLine);
+        rowCount += rows.size();
+        lineCount += newLineCount - (endLine - startLine + 1);
+        if (startLine == endLine && newLineCount == 1) {
+            // Modification in single line
+            int delta = block.replaceLine(offset, rows);
+            rowTree.add(blockIndex, delta);
+            return;
+        }
+        // Find affected blocks
+        int lastBlockIndex = lineTree.search(endLine);
+        int lastOffset = endLine - lineTree.prefixSum(lastBlockIndex);
+        var lastBlock = blocks.get(lastBlockIndex);
+        int tailSize = lastBlock.lineCount - lastOffset - 1;
+        int newSize = offset + newLineCount + tailSize;
+        // Merge small block into its next one
+        Block nextBlock = null;
+        if (newSize < BLOCK_SIZE / 2 && lastBlockIndex + 1 < blocks.size()) {
+            nextBlock = blocks.get(++lastBlockIndex);
+            newSize += nextBlock.lineCount;
+        }
+        var newRows = new LongArrayList();
+        for (int i = 0; i < block.lineRowStarts[offset]; i++) {
+            newRows.add(block.rows[i]);
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            newRows.add(rows.get(i));
+        }
+        for (int i = lastBlock.lineRowStarts[lastOffset + 1]; i < lastBlock.rows.length; i++) {
+            newRows.add(lastBlock.rows[i]);
+        }
+        if (nextBlock != null) {
+            for (long region : nextBlock.rows) {
+                newRows.add(region);
+            }
+        }
+        blocks.subList(blockIndex, lastBlockIndex + 1).clear();
+        addBlocks(blockIndex, newRows, findLineRowStarts(newRows, newSize), newSize,
+                newSize <= 2 * BLOCK_SIZE ? 1 : (newSize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        rebuildTrees();
+    }
+
+    /**
+     * Count rows of lines in [startLine, endLine]
+     */
+    private int countRows(int startLine, int endLine) {
+        int end = endLine + 1 < lineCount ? getFirstRowOfLine(endLine + 1) : rowCount;
+        return end - getFirstRowOfLine(startLine);
+    }
+
+    /**
+     * Rows of a continuous range of lines
+     */
+    private static class Block {
+
+        long[] rows;
+        final int lineCount;
+        /**
+         * Index of the first row of each line in this block, with row count at the end
+         */
+        final int[] lineRowStarts;
+
+        Block(@NonNull long[] rows, @NonNull int[] lineRowStarts) {
+            this.rows = rows;
+            this.lineRowStarts = lineRowStarts;
+            lineCount = lineRowStarts.length - 1;
+        }
+
+        /**
+         * Find the line of the given row in this block
+         */
+        int findLine(int row) {
+            int low = 0, high = lineCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (lineRowStarts[mid] <= row) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Replace rows of the given line
+         *
+         * @return Delta of row count
+         */
+        int replaceLine(int offset, @NonNull LongArrayList newRows) {
+            int start = lineRowStarts[offset];
+            int end = lineRowStarts[offset + 1];
+            int delta = newRows.size() - (end - start);
+            var target = rows;
+            if (delta != 0) {
+                target = new long[rows.length + delta];
+                System.arraycopy(rows, 0, target, 0, start);
+                System.arraycopy(rows, end, target, end + delta, rows.length - end);
+                for (int i = offset + 1; i <= lineCount; i++) {
+                    lineRowStarts[i] += delta;
+                }
+            }
+            for (int i = 0; i < newRows.size(); i++) {
+                target[start + i] = newRows.get(i);
+            }
+            rows = target;
+            return delta;
+        }
+
+    }
+
+}
@@ -25,6 +25,7 @@
 package io.github.rosemoe.sora.widget.rendering
 
 import androidx.collection.MutableIntList
+import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
 
@@ -32,45 +33,238 @@ import kotlin.concurrent.withLock
  * Cache for editor rendering, including line-based data and measure
  * cache for recently accessed lines.
  *
+ * Measure cache items are stored in slots, linked in LRU order, and indexed by their lines in an
+ * open-addressing hash table. So querying the cache and bumping the order take O(1) time. Lines
+ * of items are shifted on modifications that add or remove lines, which takes O(capacity) time.
+ *
+ * Each line has a measure stamp, which is the measure generation when the line is measured, or 0
+ * if the line is modified after that. Measure results of a line are valid only if its stamp equals
+ * to the current generation, so that the check costs one int comparison.
+ *
  * @author Rosemoe
  */
 class RenderCache {
 
+    companion object {
+        const val DEFAULT_MEASURE_CACHE_CAPACITY = 150
+    }
+
     private val lock = ReentrantLock()
     private val lines = MutableIntList()
-    private val cache = mutableListOf<MeasureCacheItem>()
-    private var maxCacheCount = 75
+    private var measureGeneration = 1
 
-    fun getOrCreateMeasureCache(line: Int): MeasureCacheItem {
-        return queryMeasureCache(line) ?: run {
+    private var items = arrayOfNulls<MeasureCacheItem>(DEFAULT_MEASURE_CACHE_CAPACITY)
+    private var prev = IntArray(DEFAULT_MEASURE_CACHE_CAPACITY)
+    private var next = IntArray(DEFAULT_MEASURE_CACHE_CAPACITY)
+    /**
+     * Slot index plus 1 of items, 0 for empty entries
+     */
+    private var table = IntArray(tableSizeFor(DEFAULT_MEASURE_CACHE_CAPACITY))
+    private var size = 0
+    /**
+     * The least recently used slot
+     */
+    private var head = -1
+    /**
+     * The most recently used slot
+     */
+    private var tail = -1
+
+    /**
+     * Max count of lines in measure cache. It should be greater than the row count displayed
+     * in editor, otherwise lines are measured on every frame.
+     */
+    var measureCacheCapacity: Int
+        get() = items.size
+        set(value) {
+            require(value > 0) { "capacity must be positive" }
             lock.withLock {
-                MeasureCacheItem(line, null, 0L).also {
-                    cache.add(it)
-                    while (cache.size > maxCacheCount && cache.isNotEmpty()) {
-                        cache.removeAt(0)
-                    }
+                if (value != items.size) {
+                    rebuild(value) { true }
                 }
             }
         }
+
+    private fun tableSizeFor(capacity: Int) = Integer.highestOneBit(capacity * 2 - 1) shl 1
+
+    private fun hashOf(line: Int): Int {
+        val hash = line * -0x61c88647
+        return (hash xor (hash ushr 16)) and (table.size - 1)
     }
 
-    fun queryMeasureCache(line: Int) =
-        lock.withLock {
-            cache.firstOrNull { it.line == line }.also {
-                if (it != null) {
-                    cache.remove(it)
-                    cache.add(it)
+    private fun findSlot(line: Int): Int {
+        val mask = table.size - 1
+        var index = hashOf(line)
+        while (true) {
+            val value = table[index]
+            if (value == 0) {
+                return -1
+            }
+            if (items[value - 1]!!.line == line) {
+                return value - 1
+            }
+            index = (index + 1) and mask
+        }
+    }
+
+    private fun putSlot(slot: Int) {
+        val mask = table.size - 1
+        var index = hashOf(items[slot]!!.line)
+        while (table[index] != 0) {
+            index = (index + 1) and mask
+        }
+        table[index] = slot + 1
+    }
+
+    /**
+     * Remove the given slot from hash table, by shifting the following entries backwards
+     */
+    private fun removeSlot(slot: Int) {
+        val mask = table.size - 1
+        var index = hashOf(items[slot]!!.line)
+        while (table[index] != slot + 1) {
+            index = (index + 1) and mask
+        }
+        var hole = index
+        while (true) {
+            index = (index + 1) and mask
+            val value = table[index]
+            if (value == 0) {
+                break
+            }
+            val home = hashOf(items[value - 1]!!.line)
+            // Move the entry to the hole if its home is not in (hole, index]
+            if (((index - home) and mask) >= ((index - hole) and mask)) {
+                table[hole] = value
+                hole = index
+            }
+        }
+        table[hole] = 0
+    }
+
+    private fun unlink(slot: Int) {
+        val p = prev[slot]
+        val n = next[slot]
+        if (p == -1) head = n else next[p] = n
+        if (n == -1) tail = p else prev[n] = p
+    }
+
+    private fun linkLast(slot: Int) {
+        prev[slot] = tail
+        next[slot] = -1
+        if (tail == -1) head = slot else next[tail] = slot
+        tail = slot
+    }
+
+    /**
+     * Rebuild the slots with the given capacity, keeping items accepted by the predicate. The
+     * most recently used items are kept if the capacity is not enough.
+     */
+    private inline fun rebuild(capacity: Int, predicate: (MeasureCacheItem) -> Boolean) {
+        val kept = ArrayList<MeasureCacheItem>(size)
+        var slot = tail
+        while (slot != -1 && kept.size < capacity) {
+            val item = items[slot]!!
+            if (predicate(item)) {
+                kept.add(item)
+            }
+            slot = prev[slot]
+        }
+        if (capacity != items.size) {
+            items = arrayOfNulls(capacity)
+            prev = IntArray(capacity)
+            next = IntArray(capacity)
+            table = IntArray(tableSizeFor(capacity))
+        } else {
+            items.fill(null)
+            table.fill(0)
+        }
+        head = -1
+        tail = -1
+        size = kept.size
+        for (i in kept.indices) {
+            items[i] = kept[kept.size - 1 - i]
+            linkLast(i)
+            putSlot(i)
+        }
+    }
+
+    fun getOrCreateMeasureCache(line: Int): MeasureCacheItem {
+        return lock.withLock {
+            queryMeasureCacheLocked(line) ?: MeasureCacheItem(line, null, 0L).also {
+                val slot = if (size < items.size) {
+                    size++
+                } else {
+                    // Evict the least recently used item
+                    head.also { slot ->
+                        removeSlot(slot)
+                        unlink(slot)
+                    }
                 }
+                items[slot] = it
+                linkLast(slot)
+                putSlot(slot)
             }
         }
+    }
 
-    fun getStyleHash(line: Int) = lines[line]
+    fun queryMeasureCache(line: Int) = lock.withLock { queryMeasureCacheLocked(line) }
 
-    fun setStyleHash(line: Int, hash: Int) {
-        lines[line] = hash
+    private fun queryMeasureCacheLocked(line: Int): MeasureCacheItem? {
+        val slot = findSlot(line)
+        if (slot == -1) {
+            return null
+        }
+        if (slot != tail) {
+            unlink(slot)
+            linkLast(slot)
+        }
+        return items[slot]
+    }
+
+    /**
+     * Check whether measure results of the given line are valid
+     */
+    fun isMeasureValid(line: Int) = lines[line] == measureGeneration
+
+    /**
+     * Mark the given line is measured in current generation
+     */
+    fun markMeasureValid(line: Int) {
+        lines[line] = measureGeneration
+    }
+
+    /**
+     * Invalidate measure results of lines in [startLine, endLine]
+     */
+    fun invalidateMeasure(startLine: Int, endLine: Int) {
+        for (line in startLine..minOf(endLine, lines.size - 1)) {
+            lines[line] = 0
+        }
+    }
+
+    /**
+     * Invalidate measure results of lines in the given range
+     */
+    fun invalidateMeasure(range: StyleUpdateRange) {
+        val itr = range.lineIndexIterator(lines.size - 1)
+        while (itr.hasNext()) {
+            lines[itr.nextInt()] = 0
+        }
+    }
+
+    /**
+     * Invalidate measure results of all lines, by starting a new generation
+     */
+    fun invalidateAllMeasure() {
+        measureGeneration++
+        if (measureGeneration == 0) {
+            measureGeneration = 1
+        }
     }
 
     fun updateForInsertion(startLine: Int, endLine: Int) {
+        invalidateMeasure(startLine, startLine)
         if (startLine != endLine) {
             if (endLine - startLine == 1) {
                 lines.add(startLine, 0)
@@ -78,25 +272,32 @@ class RenderCache {
                 lines.addAll(startLine, IntArray(endLine - startLine))
             }
             lock.withLock {
-                cache.forEach {
-                    if (it.line > startLine) {
-                        it.line += endLine - startLine
+                for (i in 0 until size) {
+                    val item = items[i]!!
+                    if (item.line > startLine) {
+                        item.line += endLine - startLine
                     }
                 }
+                rebuild(items.size) { true }
             }
         }
     }
 
     fun updateForDeletion(startLine: Int, endLine: Int) {
+        invalidateMeasure(startLine, startLine)
         if (startLine != endLine) {
             lines.removeRange(startLine, endLine)
             lock.withLock {
-                cache.removeAll { it.line in startLine..endLine }
-                cache.forEach {
-                    if (it.line > endLine) {
-                        it.line -= endLine - startLine
+                for (i in 0 until size) {
+                    val item = items[i]!!
+                    if (item.line > endLine) {
+                        item.line -= endLine - startLine
+                    } else if (item.line >= startLine) {
+                        // Removed below
+                        item.line = -1
                     }
                 }
+                rebuild(items.size) { it.line != -1 }
             }
         }
     }
@@ -111,8 +312,8 @@ class RenderCache {
         }
         lines.indices.forEach { lines[it] = 0 }
         lock.withLock {
-            cache.clear()
+            rebuild(items.size) { false }
         }
     }
 
-}
\ No newline at end of file
+}
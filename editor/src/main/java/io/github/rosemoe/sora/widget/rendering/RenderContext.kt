@@ -47,6 +47,7 @@ class RenderContext(val editor: CodeEditor) {
         get() = editor.tabWidth
 
     fun updateForRange(range: StyleUpdateRange) {
+        cache.invalidateMeasure(range)
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             renderNodeHolder?.invalidateInRegion(range)
         }
@@ -58,6 +59,13 @@ class RenderContext(val editor: CodeEditor) {
         }
     }
 
+    /**
+     * Invalidate measure cache of all lines, when text styles or layout changes
+     */
+    fun invalidateMeasureCache() {
+        cache.invalidateAllMeasure()
+    }
+
     fun updateForInsertion(startLine: Int, endLine: Int) {
         cache.updateForInsertion(startLine, endLine)
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
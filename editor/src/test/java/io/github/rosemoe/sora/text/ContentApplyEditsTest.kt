@@ -0,0 +1,87 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
+import org.junit.Test
+
+class ContentApplyEditsTest {
+
+    private fun createText(lineCount: Int) = buildString {
+        for (i in 0 until lineCount) {
+            append("line ").append(i).append('\n')
+        }
+    }
+
+    @Test
+    fun `test edits keep text between them`() {
+        val original = createText(1000)
+        val text = Content(original, false)
+        val changedLines = mutableListOf<Int>()
+        text.addContentListener(object : ContentListener {
+            override fun beforeReplace(content: Content) {}
+
+            override fun afterInsert(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, insertedContent: CharSequence) {
+                changedLines.add(startLine)
+            }
+
+            override fun afterDelete(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, deletedContent: CharSequence) {
+                changedLines.add(startLine)
+                assertThat(endLine).isEqualTo(startLine)
+            }
+        })
+        val middleLine = text.getLine(500)
+        text.applyEdits(
+            listOf(
+                TextEdit(999, 0, 999, 4, "last"),
+                TextEdit(1, 0, 1, 4, "first"),
+                TextEdit(2, 0, 2, 0, "a\nb"),
+                TextEdit(2, 0, 2, 0, "c")
+            )
+        )
+        val expected = original.replace("line 1\n", "first 1\n")
+            .replace("line 2\n", "a\nbcline 2\n")
+            .replace("line 999\n", "last 999\n")
+        assertThat(text.toString()).isEqualTo(expected)
+        assertThat(changedLines.all { it <= 2 || it == 999 }).isTrue()
+        assertThat(text.getLine(501)).isSameInstanceAs(middleLine)
+
+        text.undo()
+        assertThat(text.toString()).isEqualTo(original)
+        text.redo()
+        assertThat(text.toString()).isEqualTo(expected)
+    }
+
+    @Test
+    fun `test overlapping edits are rejected`() {
+        val original = createText(10)
+        val text = Content(original, false)
+        assertThrows(IllegalArgumentException::class.java) {
+            text.applyEdits(listOf(TextEdit(1, 0, 1, 4, "a"), TextEdit(1, 2, 2, 0, "b")))
+        }
+        assertThat(text.toString()).isEqualTo(original)
+    }
+
+}
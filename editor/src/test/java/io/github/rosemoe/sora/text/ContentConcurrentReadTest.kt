@@ -0,0 +1,69 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.concurrent.thread
+
+class ContentConcurrentReadTest {
+
+    @Test
+    fun `test reads during writes see consistent lines`() {
+        val text = Content("line\naaaa")
+        text.undoManager.isUndoEnabled = false
+        val stop = AtomicBoolean()
+        val failure = AtomicReference<String>()
+        val readers = List(3) {
+            thread {
+                while (!stop.get()) {
+                    try {
+                        // The last line is either "aaaa", empty, or 16 'b's
+                        val ch = text.charAt(1, 10)
+                        if (ch != 'b') {
+                            failure.set("unexpected char ${ch.code}")
+                        }
+                    } catch (e: IndexOutOfBoundsException) {
+                        // Column is out of bounds for short lines
+                    }
+                    val count = text.getColumnCount(1)
+                    if (count != 0 && count != 4 && count != 16) {
+                        failure.set("unexpected column count $count")
+                    }
+                }
+            }
+        }
+        repeat(100_000) {
+            val length = text.getColumnCount(1)
+            text.delete(1, 0, 1, length)
+            text.insert(1, 0, if (length == 4) "b".repeat(16) else "aaaa")
+        }
+        stop.set(true)
+        readers.forEach { it.join() }
+
+        assertThat(failure.get()).isNull()
+    }
+}
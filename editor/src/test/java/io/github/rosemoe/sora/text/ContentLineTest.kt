@@ -0,0 +1,69 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ContentLineTest {
+
+    @Test
+    fun `test compact storage`() {
+        val line = ContentLine("hello, world")
+        assertThat(line.isCompact).isTrue()
+        line.insert(5, " there")
+        line.delete(0, 1)
+        assertThat(line.isCompact).isTrue()
+        assertThat(line.toString()).isEqualTo("ello there, world")
+
+        line.insert(4, "你好")
+        assertThat(line.isCompact).isFalse()
+        assertThat(line.toString()).isEqualTo("ello你好 there, world")
+        assertThat(line[4]).isEqualTo('你')
+    }
+
+    @Test
+    fun `test reading compact line chars`() {
+        val line = ContentLine("café")
+        val chars = CharArray(4)
+        line.getChars(0, 4, chars, 0)
+        assertThat(String(chars)).isEqualTo("café")
+        assertThat(line.isCompact).isTrue()
+
+        // Reading never changes the storage
+        assertThat(String(line.backingCharArray, 0, line.length)).isEqualTo("café")
+        assertThat(line.isCompact).isTrue()
+        val buffer = CharArray(16)
+        assertThat(line.getCharsForRead(buffer)).isSameInstanceAs(buffer)
+        assertThat(String(buffer, 0, line.length)).isEqualTo("café")
+        assertThat(line.isCompact).isTrue()
+        line.append("!")
+        assertThat(line.toString()).isEqualTo("café!")
+
+        line.append("你")
+        assertThat(line.isCompact).isFalse()
+        assertThat(line.getCharsForRead(buffer)).isNotSameInstanceAs(buffer)
+        assertThat(String(line.getCharsForRead(null), 0, line.length)).isEqualTo("café!你")
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.charset.Charset
+import java.nio.charset.StandardCharsets
+
+class MappedLineStorageTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun createStorage(bytes: ByteArray, charset: Charset = StandardCharsets.UTF_8): MappedLineStorage {
+        val file = folder.newFile()
+        file.writeBytes(bytes)
+        return MappedLineStorage(file, charset)
+    }
+
+    private fun MappedLineStorage.assertLines(vararg lines: Pair<String, LineSeparator>) {
+        assertThat(size()).isEqualTo(lines.size)
+        lines.forEachIndexed { i, (text, separator) ->
+            assertThat(get(i).toString()).isEqualTo(text)
+            assertThat(getColumnCount(i)).isEqualTo(text.length)
+            assertThat(getLineSeparator(i)).isEqualTo(separator)
+        }
+    }
+
+    @Test
+    fun `test line separators`() {
+        createStorage("a\r\nb\rc\nd".toByteArray()).assertLines(
+            "a" to LineSeparator.CRLF,
+            "b" to LineSeparator.CR,
+            "c" to LineSeparator.LF,
+            "d" to LineSeparator.NONE
+        )
+    }
+
+    @Test
+    fun `test trailing separator`() {
+        createStorage("a\r\n".toByteArray()).assertLines("a" to LineSeparator.CRLF, "" to LineSeparator.NONE)
+        createStorage("a\r".toByteArray()).assertLines("a" to LineSeparator.CR, "" to LineSeparator.NONE)
+        createStorage("\n".toByteArray()).assertLines("" to LineSeparator.LF, "" to LineSeparator.NONE)
+    }
+
+    @Test
+    fun `test multi-byte chars`() {
+        // Supplementary chars take two UTF-16 units
+        val line = "é中😀x"
+        createStorage("$line\r\n$line".toByteArray()).assertLines(line to LineSeparator.CRLF, line to LineSeparator.NONE)
+        createStorage("é\r\n".toByteArray(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1)
+            .assertLines("é" to LineSeparator.CRLF, "" to LineSeparator.NONE)
+    }
+
+    @Test
+    fun `test line across scan buffer`() {
+        val line = "a".repeat(65530) + "中😀中"
+        createStorage("$line\r\n\r".toByteArray()).assertLines(
+            line to LineSeparator.CRLF,
+            "" to LineSeparator.CR,
+            "" to LineSeparator.NONE
+        )
+    }
+
+    @Test
+    fun `test malformed bytes`() {
+        val bytes = byteArrayOf('a'.code.toByte(), 0xE4.toByte(), 0xB8.toByte(), '\n'.code.toByte(), 0xED.toByte(), 0xA0.toByte(), 0x80.toByte())
+        val storage = createStorage(bytes)
+        assertThat(storage.size()).isEqualTo(2)
+        for (i in 0 until storage.size()) {
+            assertThat(storage.getColumnCount(i)).isEqualTo(storage[i].length)
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class PrefixSumIndexerTest {
+
+    companion object {
+        const val TEXT = "Hello\nWorld\r\nTest\rTest\n\nEnd"
+        const val CHARSET = "abcdefg \n"
+    }
+
+    @Test
+    fun `test conversions`() {
+        val content = Content(TEXT.repeat(200), false)
+        val reference = Content(TEXT.repeat(200), false)
+        content.isPrefixSumIndexerEnabled = true
+        assertSameIndexes(content, reference)
+    }
+
+    @Test
+    fun `test random modification`() {
+        repeat(10) { seed ->
+            val random = Random(seed)
+            val content = Content(TEXT.repeat(100), false)
+            val reference = Content(TEXT.repeat(100), false)
+            content.isPrefixSumIndexerEnabled = true
+            content.cursor
+            repeat(1000) {
+                if (random.nextBoolean() && reference.length > 0) {
+                    val start = random.nextInt(reference.length)
+                    val end = (start + random.nextInt(if (it % 100 == 0) 3000 else 30)).coerceAtMost(reference.length)
+                    content.delete(start, end)
+                    reference.delete(start, end)
+                } else {
+                    val pos = reference.indexer.getCharPosition(random.nextInt(reference.length + 1))
+                    val text = String(CharArray(random.nextInt(if (it % 100 == 0) 3000 else 20)) { CHARSET.random(random) })
+                    content.insert(pos.line, pos.column, text)
+                    reference.insert(pos.line, pos.column, text)
+                }
+            }
+            assertThat(content.indexer).isInstanceOf(PrefixSumIndexer::class.java)
+            assertSameIndexes(content, reference)
+        }
+    }
+
+    private fun assertSameIndexes(content: Content, reference: Content) {
+        assertThat(content.toString()).isEqualTo(reference.toString())
+        for (index in 0..reference.length) {
+            val pos = content.indexer.getCharPosition(index)
+            val expected = reference.indexer.getCharPosition(index)
+            assertThat(pos.line).isEqualTo(expected.line)
+            assertThat(pos.column).isEqualTo(expected.column)
+            assertThat(content.indexer.getCharIndex(pos.line, pos.column)).isEqualTo(index)
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.io.StringReader
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class StreamingContentLoaderTest {
+
+    private fun load(source: String, chunkSize: Int): Content {
+        val text = Content()
+        val finished = CountDownLatch(1)
+        val loader = StreamingContentLoader(text, StringReader(source), chunkSize)
+        loader.setListener(object : StreamingContentLoader.Listener {
+            override fun onLoadFinished(loader: StreamingContentLoader) {
+                finished.countDown()
+            }
+        })
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            loader.start(executor)
+            assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue()
+        } finally {
+            executor.shutdown()
+        }
+        return text
+    }
+
+    @Test
+    fun `test chunks are appended in order`() {
+        val source = (0 until 5000).joinToString("\n") { "line $it" }
+        val text = load(source, 64)
+        assertThat(text.toString()).isEqualTo(source)
+        assertThat(text.lineCount).isEqualTo(5000)
+        assertThat(text.isLoading).isFalse()
+    }
+
+    @Test
+    fun `test CR at chunk end`() {
+        val source = "abc\r\ndef\r\r\nx\ry\r\n".repeat(20)
+        for (chunkSize in 2..7) {
+            val text = load(source, chunkSize)
+            val expected = Content(source)
+            assertThat(text.toString()).isEqualTo(source)
+            assertThat(text.lineCount).isEqualTo(expected.lineCount)
+            for (i in 0 until text.lineCount) {
+                assertThat(text.getLineSeparator(i)).isEqualTo(expected.getLineSeparator(i))
+            }
+        }
+    }
+
+    @Test
+    fun `test cancel while waiting for delivery`() {
+        val queue = LinkedBlockingQueue<Runnable>()
+        val text = Content()
+        val loader = StreamingContentLoader(text, StringReader("x".repeat(100)), 4)
+        var finished = false
+        loader.setListener(object : StreamingContentLoader.Listener {
+            override fun onLoadFinished(loader: StreamingContentLoader) {
+                finished = true
+            }
+        })
+        // Chunks are not delivered until the queue is run, so the loader blocks on pending chunks
+        loader.start { queue.add(it) }
+        val deadline = System.currentTimeMillis() + 10_000
+        while (queue.size < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5)
+        }
+        loader.cancel()
+        // Wait for the finishing callback
+        while (queue.size < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5)
+        }
+        while (true) {
+            (queue.poll() ?: break).run()
+        }
+
+        assertThat(finished).isTrue()
+        assertThat(text.length).isEqualTo(0)
+        assertThat(text.isLoading).isFalse()
+        assertThat(loader.isRunning).isFalse()
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class TreeLineStorageTest {
+
+    companion object {
+        const val TEXT = "Hello\nWorld\r\nTest\rTest\n\nEnd"
+        const val CHARSET = "abcdefg \n\r"
+    }
+
+    @Test
+    fun `test load text`() {
+        val content = Content(TEXT, false) { TreeLineStorage() }
+        val reference = Content(TEXT, false)
+        assertSameText(content, reference)
+    }
+
+    @Test
+    fun `test create from reader`() {
+        val content = ContentIO.createFrom(TEXT.reader()) { TreeLineStorage() }
+        assertThat(content.toString()).isEqualTo(TEXT)
+        assertThat(content.lineCount).isEqualTo(6)
+    }
+
+    @Test
+    fun `test random modification`() {
+        repeat(20) { seed ->
+            val random = Random(seed)
+            val content = Content(TEXT.repeat(20), false) { TreeLineStorage() }
+            val reference = Content(TEXT.repeat(20), false)
+            repeat(2000) {
+                if (random.nextBoolean() && reference.length > 0) {
+                    val start = random.nextInt(reference.length)
+                    val end = (start + random.nextInt(30)).coerceAtMost(reference.length)
+                    content.delete(start, end)
+                    reference.delete(start, end)
+                } else {
+                    val pos = reference.indexer.getCharPosition(random.nextInt(reference.length + 1))
+                    val text = String(CharArray(random.nextInt(20)) { CHARSET.random(random) })
+                    content.insert(pos.line, pos.column, text)
+                    reference.insert(pos.line, pos.column, text)
+                }
+                assertThat(content.length).isEqualTo(reference.length)
+                assertThat(content.lineCount).isEqualTo(reference.lineCount)
+            }
+            assertSameText(content, reference)
+        }
+    }
+
+    @Test
+    fun `test copy`() {
+        val content = Content(TEXT, false) { TreeLineStorage() }
+        val shallow = content.copyTextShallow()
+        val deep = content.copyText(false)
+        shallow.insert(0, 0, "Shallow\n")
+        deep.insert(1, 0, "Deep\n")
+        assertThat(content.toString()).isEqualTo(TEXT)
+        assertThat(shallow.toString()).isEqualTo("Shallow\n$TEXT")
+        assertThat(deep.toString()).isEqualTo(TEXT.replaceFirst("World", "Deep\nWorld"))
+    }
+
+    @Test
+    fun `test snapshot`() {
+        val content = Content(TEXT.repeat(20), false) { TreeLineStorage() }
+        val snapshots = mutableListOf<Pair<ContentSnapshot, String>>()
+        val random = Random(0)
+        repeat(500) {
+            if (it % 50 == 0) {
+                snapshots.add(content.createSnapshot() to content.toString())
+            }
+            val pos = content.indexer.getCharPosition(random.nextInt(content.length + 1))
+            if (random.nextBoolean() && pos.line + 1 < content.lineCount) {
+                content.delete(pos.line, 0, pos.line + 1, 0)
+            } else {
+                content.insert(pos.line, 0, String(CharArray(random.nextInt(20)) { CHARSET.random(random) }))
+            }
+        }
+        for ((snapshot, text) in snapshots) {
+            assertThat(snapshot.toString()).isEqualTo(text)
+            assertThat(snapshot.isReadOnly).isTrue()
+        }
+    }
+
+    @Test
+    fun `test snapshot isolation after many edits`() {
+        val random = Random(1)
+        val text = buildString {
+            repeat(6000) {
+                append(String(CharArray(random.nextInt(40)) { CHARSET.random(random) }))
+            }
+        }
+        val content = Content(text, false) { TreeLineStorage() }
+        val reference = Content(text, false)
+        val snapshots = mutableListOf<Triple<ContentSnapshot, String, Int>>()
+        repeat(5000) {
+            if (it % 250 == 0) {
+                snapshots.add(Triple(content.createSnapshot(), reference.toString(), reference.lineCount))
+            }
+            if (it % 7 == 0) {
+                // Create line objects in nodes shared with snapshots
+                val snapshot = snapshots.random(random).first
+                snapshot.getLine(random.nextInt(snapshot.lineCount))
+            }
+            if (random.nextBoolean() && reference.length > 0) {
+                val start = random.nextInt(reference.length)
+                val end = (start + random.nextInt(60)).coerceAtMost(reference.length)
+                content.delete(start, end)
+                reference.delete(start, end)
+            } else {
+                val pos = reference.indexer.getCharPosition(random.nextInt(reference.length + 1))
+                val insertedText = String(CharArray(random.nextInt(30)) { CHARSET.random(random) })
+                content.insert(pos.line, pos.column, insertedText)
+                reference.insert(pos.line, pos.column, insertedText)
+            }
+        }
+        assertSameText(content, reference)
+        for ((snapshot, expected, lineCount) in snapshots) {
+            assertThat(snapshot.toString()).isEqualTo(expected)
+            assertThat(snapshot.lineCount).isEqualTo(lineCount)
+        }
+    }
+
+    private fun assertSameText(content: Content, reference: Content) {
+        assertThat(content.toString()).isEqualTo(reference.toString())
+        assertThat(content.lineCount).isEqualTo(reference.lineCount)
+        for (i in 0 until reference.lineCount) {
+            assertThat(content.getColumnCount(i)).isEqualTo(reference.getColumnCount(i))
+            assertThat(content.getLine(i).lineSeparator).isEqualTo(reference.getLine(i).lineSeparator)
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class UndoHistoryFileTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun insertAction(text: String) = UndoManager.InsertAction().also {
+        it.text = text
+        it.endColumn = text.length
+    }
+
+    private fun UndoHistoryFile.popText() = (pop() as UndoManager.InsertAction).text.toString()
+
+    @Test
+    fun `test removed actions stay removed after reopening`() {
+        val path = folder.newFile()
+        UndoHistoryFile(path).use { file ->
+            for (i in 0 until 10) {
+                file.push(insertAction("a$i"))
+            }
+            repeat(3) {
+                file.removeFirst()
+            }
+        }
+
+        UndoHistoryFile(path).use { file ->
+            assertThat(file.size()).isEqualTo(7)
+            for (i in 9 downTo 3) {
+                assertThat(file.popText()).isEqualTo("a$i")
+            }
+            assertThat(file.size()).isEqualTo(0)
+        }
+    }
+
+    @Test
+    fun `test removed actions are compacted`() {
+        val path = folder.newFile()
+        val text = "b".repeat(100_000)
+        UndoHistoryFile(path).use { file ->
+            for (i in 0 until 30) {
+                file.push(insertAction(text + i))
+                if (file.size() > 5) {
+                    file.removeFirst()
+                }
+            }
+        }
+        // Each record takes about 200KB, and 30 records are pushed
+        assertThat(path.length()).isLessThan(3L * 1024 * 1024)
+
+        UndoHistoryFile(path).use { file ->
+            assertThat(file.size()).isEqualTo(5)
+            for (i in 29 downTo 25) {
+                assertThat(file.popText()).isEqualTo(text + i)
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class UndoManagerTest {
+
+    @Test
+    fun `test typing then deleting leaves no action`() {
+        val text = Content("hello\n")
+        text.insert(0, 5, "x")
+        text.insert(0, 6, "y")
+        text.delete(0, 6, 0, 7)
+        text.delete(0, 5, 0, 6)
+
+        assertThat(text.canUndo()).isFalse()
+        assertThat(text.undoManager.historySize).isEqualTo(0)
+        assertThat(text.undoManager.memoryUsage).isEqualTo(0)
+    }
+
+    @Test
+    fun `test batch edit cancelled by merging leaves no action`() {
+        val text = Content("hello\n")
+        text.beginBatchEdit()
+        text.insert(0, 5, "x")
+        text.delete(0, 5, 0, 6)
+        text.endBatchEdit()
+
+        assertThat(text.undoManager.historySize).isEqualTo(0)
+        assertThat(text.undoManager.memoryUsage).isEqualTo(0)
+    }
+
+    @Test
+    fun `test memory usage counts shared chunk once`() {
+        val text = Content("hello\n")
+        val undoManager = text.undoManager
+        text.insert(0, 0, "a")
+        val first = undoManager.memoryUsage
+        // The whole chunk holding the text is retained
+        assertThat(first).isAtLeast(1024L)
+
+        text.insert(1, 0, "b")
+        assertThat(undoManager.memoryUsage - first).isLessThan(1024L)
+
+        text.beginBatchEdit()
+        repeat(1000) {
+            text.insert(0, 0, "c")
+        }
+        text.endBatchEdit()
+        assertThat(undoManager.historySize).isEqualTo(3)
+
+        undoManager.isUndoEnabled = false
+        assertThat(undoManager.memoryUsage).isEqualTo(0)
+    }
+
+    @Test
+    fun `test oldest actions are evicted over budget`() {
+        val text = Content("hello\n")
+        val undoManager = text.undoManager
+        undoManager.maxMemoryUsage = 100_000
+        val line = "z".repeat(10000) + "\n"
+        repeat(20) {
+            text.insert(0, 0, line)
+        }
+
+        assertThat(undoManager.memoryUsage).isAtMost(100_000L)
+        val historySize = undoManager.historySize
+        assertThat(historySize).isIn(1 until 20)
+
+        var undone = 0
+        while (text.canUndo()) {
+            text.undo()
+            undone++
+        }
+        assertThat(undone).isEqualTo(historySize)
+        assertThat(text.lineCount).isEqualTo(22 - historySize)
+    }
+}
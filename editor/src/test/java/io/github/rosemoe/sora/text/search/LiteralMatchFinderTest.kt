@@ -0,0 +1,117 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.search
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.TextUtils
+import io.github.rosemoe.sora.util.IntPair
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.time.measureTime
+
+class LiteralMatchFinderTest {
+
+    private fun findAll(text: CharSequence, finder: MatchFinder): List<Long> {
+        val results = mutableListOf<Long>()
+        var start = 0
+        while (true) {
+            val match = finder.find(text, start, text.length)
+            if (match == -1L) {
+                break
+            }
+            results.add(match)
+            start = IntPair.getSecond(match)
+        }
+        return results
+    }
+
+    private fun indexOfAll(text: CharSequence, pattern: String, ignoreCase: Boolean): List<Long> {
+        val results = mutableListOf<Long>()
+        var start = 0
+        while (true) {
+            val index = TextUtils.indexOf(text, pattern, ignoreCase, start)
+            if (index == -1) {
+                break
+            }
+            results.add(IntPair.pack(index, index + pattern.length))
+            start = index + pattern.length
+        }
+        return results
+    }
+
+    @Test
+    fun `test literal search`() {
+        val random = Random(1)
+        val charset = "aAbBcCİiıIßxyz \n"
+        repeat(2000) {
+            val text = buildString {
+                repeat(random.nextInt(100)) { append(charset[random.nextInt(charset.length)]) }
+            }
+            val pattern = buildString {
+                repeat(1 + random.nextInt(4)) { append(charset[random.nextInt(6)]) }
+            }
+            val ignoreCase = random.nextBoolean()
+            val expected = indexOfAll(text, pattern, ignoreCase)
+            assertThat(findAll(text, LiteralMatchFinder(pattern, ignoreCase))).isEqualTo(expected)
+            assertThat(findAll(StringBuilder(text), LiteralMatchFinder(pattern, ignoreCase))).isEqualTo(expected)
+        }
+    }
+
+    @Test
+    fun `test literal search range`() {
+        val finder = LiteralMatchFinder("abc", false)
+        val text = "xxabcxxabc"
+        assertThat(finder.find(text, 0, 2)).isEqualTo(-1L)
+        assertThat(finder.find(text, 0, 3)).isEqualTo(IntPair.pack(2, 5))
+        assertThat(finder.find(text, 3, 7)).isEqualTo(-1L)
+        assertThat(finder.find(text, 3, 8)).isEqualTo(IntPair.pack(7, 10))
+    }
+
+    @Test
+    fun `test literal search performance`() {
+        val random = Random(2)
+        for (documentSize in intArrayOf(1 shl 16, 1 shl 22)) {
+            val text = StringBuilder(documentSize)
+            repeat(documentSize) { text.append('a' + random.nextInt(26)) }
+            for (pattern in arrayOf("qz", "hello", "abcdefghijklmnop", "thequickbrownfoxjumpsoverthelazydog")) {
+                for (ignoreCase in booleanArrayOf(false, true)) {
+                    lateinit var expected: List<Long>
+                    lateinit var actual: List<Long>
+                    val timeNaive = measureTime {
+                        expected = indexOfAll(text, pattern, ignoreCase)
+                    }
+                    val timeFinder = measureTime {
+                        actual = findAll(text, LiteralMatchFinder(pattern, ignoreCase))
+                    }
+                    println(
+                        "Literal Search Perf Test Result: documentSize = $documentSize, " +
+                                "patternLength = ${pattern.length}, ignoreCase = $ignoreCase\n" +
+                                "TextUtils.indexOf Time = $timeNaive, LiteralMatchFinder Time = $timeFinder"
+                    )
+                    assertThat(actual).isEqualTo(expected)
+                }
+            }
+        }
+    }
+}
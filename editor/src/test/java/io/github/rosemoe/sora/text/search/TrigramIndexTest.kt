@@ -0,0 +1,144 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text.search
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.util.IntPair
+import io.github.rosemoe.sora.util.LongArrayList
+import org.junit.Test
+import java.util.regex.Pattern
+import kotlin.random.Random
+
+class TrigramIndexTest {
+
+    private fun LongArrayList.toList() = List(size()) { get(it) }
+
+    private fun searchCandidates(content: Content, literal: String, finder: MatchFinder): List<Long> {
+        val ranges = content.trigramIndex!!.findCandidateLines(literal)!!
+        val results = mutableListOf<Long>()
+        for (i in 0 until ranges.size()) {
+            val range = ranges[i]
+            results.addAll(ParallelSearcher.searchLines(content, IntPair.getFirst(range), IntPair.getSecond(range), finder, false, null).toList())
+        }
+        return results
+    }
+
+    @Test
+    fun testCandidatesAfterEdits() {
+        val random = Random(17)
+        val words = listOf("foo", "bar", "hello", "World", "Zeta", "lorem")
+        val text = buildString {
+            repeat(10000) {
+                append(words.random(random)).append(random.nextInt(1000))
+                append(if (random.nextInt(7) == 0) '\n' else ' ')
+            }
+        }
+        val content = Content(text)
+        content.isTrigramIndexEnabled = true
+        repeat(200) {
+            val line = random.nextInt(content.lineCount)
+            val column = random.nextInt(content.getColumnCount(line) + 1)
+            if (random.nextBoolean()) {
+                content.insert(line, column, if (random.nextInt(3) == 0) "\nZeta12 x\nhello1" else words.random(random))
+            } else {
+                val endLine = minOf(content.lineCount - 1, line + random.nextInt(3))
+                val endColumn = if (endLine == line) minOf(content.getColumnCount(line), column + random.nextInt(20)) else random.nextInt(content.getColumnCount(endLine) + 1)
+                content.delete(line, column, endLine, endColumn)
+            }
+            for (query in listOf("hello1", "world9", "zeta12 x")) {
+                for (ignoreCase in listOf(false, true)) {
+                    val finder = LiteralMatchFinder(query, ignoreCase)
+                    assertThat(searchCandidates(content, query, finder))
+                        .isEqualTo(ParallelSearcher.searchLines(content, finder, false, null).toList())
+                }
+            }
+        }
+        assertThat(content.trigramIndex!!.findCandidateLines("xyzzy")!!.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun testRequiredLiteral() {
+        assertThat(TrigramIndex.findRequiredLiteral("foo\\d+bar")).isEqualTo("foo")
+        assertThat(TrigramIndex.findRequiredLiteral("x{2,3}hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\.hello\\(")).isEqualTo(".hello(")
+        assertThat(TrigramIndex.findRequiredLiteral("he?llo")).isEqualTo("llo")
+        assertThat(TrigramIndex.findRequiredLiteral("a|bcd")).isNull()
+        assertThat(TrigramIndex.findRequiredLiteral("(?x)hello")).isNull()
+        // Operands of escapes are not literals
+        assertThat(TrigramIndex.findRequiredLiteral("\\x41bc")).isEqualTo("bc")
+        assertThat(TrigramIndex.findRequiredLiteral("\\x{41}hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\u0041hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\0101hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\pLhello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\p{Lu}hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\cAhello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("(?<n>ab)\\k<n>hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\Qa.b\\Ehello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("(a)\\12hello")).isEqualTo("hello")
+    }
+
+    @Test
+    fun testRequiredLiteralEdgeCases() {
+        // Quoted text is skipped without parsing its syntax
+        assertThat(TrigramIndex.findRequiredLiteral("\\Q(a\\Ehello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("[\\Q]\\E]hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("\\Qab\\E+cd")).isEqualTo("cd")
+        assertThat(TrigramIndex.findRequiredLiteral("hello\\Qabc")).isEqualTo("hello")
+        // Back references, with quantifiers
+        assertThat(TrigramIndex.findRequiredLiteral("(foo)\\1bar")).isEqualTo("bar")
+        assertThat(TrigramIndex.findRequiredLiteral("(a)\\1+hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("(?<n>a)\\k<n>+hello")).isEqualTo("hello")
+        // Comments mode, unless it is turned off
+        assertThat(TrigramIndex.findRequiredLiteral("(?ix)hello")).isNull()
+        assertThat(TrigramIndex.findRequiredLiteral("(?x:hello)")).isNull()
+        assertThat(TrigramIndex.findRequiredLiteral("hello(?x) world")).isNull()
+        assertThat(TrigramIndex.findRequiredLiteral("(?i-x)hello")).isEqualTo("hello")
+        assertThat(TrigramIndex.findRequiredLiteral("(?-x)hello")).isEqualTo("hello")
+    }
+
+    @Test
+    fun testRegexCandidatesEqualFullSearch() {
+        val random = Random(23)
+        val words = listOf("Abcd", "xAbcd", "41bcd", "Lbcd", "AAbcd", "hello", "Zbcd")
+        val text = buildString {
+            repeat(5000) {
+                append(words.random(random))
+                append(if (random.nextInt(5) == 0) '\n' else ' ')
+            }
+        }
+        val content = Content(text)
+        content.isTrigramIndexEnabled = true
+        val queries = listOf("\\x41bcd", "\\x{41}bcd", "\\u0041bcd", "\\0101bcd", "\\pLbcd", "\\p{Lu}bcd",
+            "\\cAbcd", "(?<n>A)\\k<n>bcd", "x?Abcd", "hel+o")
+        for (query in queries) {
+            val literal = TrigramIndex.findRequiredLiteral(query)
+            assertThat(literal).isNotNull()
+            val finder = RegexMatchFinder(Pattern.compile(query))
+            assertThat(searchCandidates(content, literal!!, finder))
+                .isEqualTo(ParallelSearcher.searchLines(content, finder, false, null).toList())
+        }
+    }
+
+}
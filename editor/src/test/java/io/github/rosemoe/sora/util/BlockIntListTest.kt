@@ -0,0 +1,79 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.util
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class BlockIntListTest {
+
+    @Test
+    fun `test bulk operations with random modification`() {
+        repeat(50) {
+            val random = Random(it)
+            val list = BlockIntList(8 + random.nextInt(40))
+            val std = mutableListOf<Int>()
+            repeat(500) {
+                when (random.nextInt(5)) {
+                    0 -> {
+                        val values = IntArray(random.nextInt(100)) { random.nextInt(1000) }
+                        list.addAll(values, 0, values.size)
+                        std.addAll(values.toList())
+                    }
+
+                    1 -> {
+                        val index = random.nextInt(std.size + 1)
+                        val values = IntArray(random.nextInt(std.size - index + 1)) { random.nextInt(1000) }
+                        list.setRange(index, values, 0, values.size)
+                        values.forEachIndexed { i, v -> std[index + i] = v }
+                    }
+
+                    2 -> {
+                        val index = random.nextInt(std.size + 1)
+                        val value = random.nextInt(1000)
+                        list.add(index, value)
+                        std.add(index, value)
+                    }
+
+                    3 -> if (std.isNotEmpty()) {
+                        val index = random.nextInt(std.size)
+                        assertThat(list.remove(index)).isEqualTo(std.removeAt(index))
+                    }
+
+                    else -> if (std.isNotEmpty()) {
+                        val from = random.nextInt(std.size)
+                        val to = from + random.nextInt(std.size - from + 1)
+                        list.removeRange(from, to)
+                        std.subList(from, to).clear()
+                    }
+                }
+                assertThat(list.size()).isEqualTo(std.size)
+                assertThat(list.max).isEqualTo(std.maxOrNull() ?: 0)
+            }
+            std.forEachIndexed { i, v -> assertThat(list.get(i)).isEqualTo(v) }
+        }
+    }
+
+}
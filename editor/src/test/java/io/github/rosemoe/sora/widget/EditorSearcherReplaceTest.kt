@@ -0,0 +1,109 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentListener
+import io.github.rosemoe.sora.util.IntPair
+import io.github.rosemoe.sora.util.LongArrayList
+import io.github.rosemoe.sora.util.regex.RegexBackrefGrammar
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicBoolean
+
+class EditorSearcherReplaceTest {
+
+    private fun createText() = buildString {
+        for (i in 0 until 1000) {
+            append("line ").append(i)
+            if (i == 1 || i == 900) {
+                append(" foo")
+            }
+            append('\n')
+        }
+    }
+
+    private fun matchesOf(text: Content, vararg lines: Int): LongArrayList {
+        val res = LongArrayList()
+        for (line in lines) {
+            val column = text.getLine(line).indexOf("foo")
+            val start = text.getCharIndex(line, column)
+            res.add(IntPair.pack(start, start + 3))
+        }
+        return res
+    }
+
+    @Test
+    fun `test replace far apart matches`() {
+        val original = createText()
+        val text = Content(original)
+        val middle = text.getLine(500)
+        val edits = EditorSearcher.computeReplaceEdits(text, matchesOf(text, 1, 900),
+            EditorSearcher.SearchOptions(EditorSearcher.SearchOptions.TYPE_NORMAL, false),
+            "foo", "bar", AtomicBoolean(), null)!!
+        assertThat(edits).hasSize(2)
+
+        val changedLines = mutableListOf<Int>()
+        text.addContentListener(object : ContentListener {
+            override fun beforeReplace(content: Content) {}
+
+            override fun afterInsert(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, insertedContent: CharSequence) {
+                changedLines.add(startLine)
+            }
+
+            override fun afterDelete(content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int, deletedContent: CharSequence) {
+                changedLines.add(startLine)
+            }
+        })
+        text.applyEdits(edits)
+
+        assertThat(text.toString()).isEqualTo(original.replace("foo", "bar"))
+        assertThat(changedLines).containsExactly(900, 900, 1, 1)
+        assertThat(text.getLine(500)).isSameInstanceAs(middle)
+
+        text.undo()
+        assertThat(text.toString()).isEqualTo(original)
+    }
+
+    @Test
+    fun `test replace with regex backrefs`() {
+        val original = createText()
+        val text = Content(original)
+        val edits = EditorSearcher.computeReplaceEdits(text, matchesOf(text, 1, 900),
+            EditorSearcher.SearchOptions(EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, false, RegexBackrefGrammar.DEFAULT),
+            "f(o+)", "b$1", AtomicBoolean(), null)!!
+        text.applyEdits(edits)
+
+        assertThat(text.toString()).isEqualTo(original.replace("foo", "boo"))
+    }
+
+    @Test
+    fun `test cancelled replace`() {
+        val text = Content(createText())
+        val edits = EditorSearcher.computeReplaceEdits(text, matchesOf(text, 1, 900),
+            EditorSearcher.SearchOptions(EditorSearcher.SearchOptions.TYPE_NORMAL, false),
+            "foo", "bar", AtomicBoolean(true), null)
+        assertThat(edits).isNull()
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.widget.layout
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.util.IntPair
+import io.github.rosemoe.sora.util.LongArrayList
+import org.junit.Test
+import kotlin.random.Random
+
+class WordwrapRowTableTest {
+
+    private val random = Random(18)
+
+    /**
+     * Start columns of rows of a random line
+     */
+    private fun randomLine(): IntArray {
+        val count = if (random.nextInt(10) == 0) 1 + random.nextInt(6) else 1
+        val starts = IntArray(count)
+        for (i in 1 until count) {
+            starts[i] = starts[i - 1] + 1 + random.nextInt(10)
+        }
+        return starts
+    }
+
+    private fun rowsOf(lines: List<IntArray>): LongArrayList {
+        val rows = LongArrayList()
+        for (starts in lines) {
+            starts.forEachIndexed { i, start ->
+                rows.add(IntPair.pack(start, if (i + 1 < starts.size) starts[i + 1] else start + 5))
+            }
+        }
+        return rows
+    }
+
+    private fun assertTableEquals(table: WordwrapRowTable, lines: List<IntArray>) {
+        assertThat(table.lineCount).isEqualTo(lines.size)
+        assertThat(table.rowCount).isEqualTo(lines.sumOf { it.size })
+        val row = Row()
+        var firstRow = 0
+        lines.forEachIndexed { line, starts ->
+            assertThat(table.getFirstRowOfLine(line)).isEqualTo(firstRow)
+            assertThat(table.getRowCountOfLine(line)).isEqualTo(starts.size)
+            assertThat(table.findRow(line, starts.last() + 1)).isEqualTo(firstRow + starts.size - 1)
+            assertThat(table.getSoftBreaks(line)).isEqualTo(starts.copyOfRange(1, starts.size))
+            starts.forEachIndexed { i, start ->
+                table.getRow(firstRow + i, row)
+                assertThat(row.lineIndex).isEqualTo(line)
+                assertThat(row.startColumn).isEqualTo(start)
+                assertThat(row.isLeadingRow).isEqualTo(i == 0)
+                assertThat(table.getLine(firstRow + i)).isEqualTo(line)
+            }
+            firstRow += starts.size
+        }
+    }
+
+    @Test
+    fun testReplaceLines() {
+        val lines = MutableList(3000) { randomLine() }
+        val table = WordwrapRowTable()
+        table.set(rowsOf(lines))
+        repeat(1000) {
+            val start = random.nextInt(lines.size)
+            var end = start
+            var count = 1
+            when (random.nextInt(3)) {
+                1 -> count += random.nextInt(if (random.nextInt(20) == 0) 700 else 5)
+                2 -> end = minOf(lines.size - 1, start + random.nextInt(if (random.nextInt(20) == 0) 700 else 5))
+            }
+            val newLines = List(count) { randomLine() }
+            lines.subList(start, end + 1).clear()
+            lines.addAll(start, newLines)
+            table.replaceLines(start, end, rowsOf(newLines))
+            if (it % 100 == 0) {
+                assertTableEquals(table, lines)
+            }
+        }
+        assertTableEquals(table, lines)
+    }
+
+}
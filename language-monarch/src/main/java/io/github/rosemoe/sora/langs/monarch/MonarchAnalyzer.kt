@@ -294,7 +294,7 @@ class MonarchAnalyzer(
                     line, 0
                 ),
                 IndentRange.computeIndentLevel(
-                    (lineC as ContentLine).backingCharArray, line.length - 1, language.tabSize
+                    line, line.length - 1, language.tabSize
                 ),
                 identifiers
             ), null, tokens
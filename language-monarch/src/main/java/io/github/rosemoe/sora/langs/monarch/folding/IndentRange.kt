@@ -88,6 +88,33 @@ object IndentRange {
         return indent
     }
 
+    /**
+     * @see computeIndentLevel
+     */
+    fun computeIndentLevel(line: CharSequence, len: Int, tabSize: Int): Int {
+        var indent = 0
+        var i = 0
+
+        while (i < len) {
+            val chCode = line[i]
+            if (chCode == ' ') {
+                indent++
+            } else if (chCode == '\t') {
+                indent = indent - indent % tabSize + tabSize
+            } else {
+                break
+            }
+            i++
+        }
+
+        if (i == len) {
+            // line only consists of whitespace
+            return -1
+        }
+
+        return indent
+    }
+
     fun computeRanges(
         model: Content,
         tabSize: Int,
@@ -178,6 +178,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
         try {
             var foldingRegions = IndentRange.computeRanges(model, language.getTabSize(), foldingOffside, this, cachedRegExp, delegate);
             blocks.ensureCapacity(foldingRegions.length());
+            char[] lineChars = null;
             for (int i = 0; i < foldingRegions.length() && delegate.isNotCancelled(); i++) {
                 int startLine = foldingRegions.getStartLineNumber(i);
                 int endLine = foldingRegions.getEndLineNumber(i);
@@ -188,8 +189,13 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
                     codeBlock.endLine = endLine;
 
                     // It's safe here to use raw data because the Content is only held by this thread
-                    var length = model.getColumnCount(startLine);
-                    var chars = model.getLine(startLine).getBackingCharArray();
+                    var line = model.getLine(startLine);
+                    var length = line.length();
+                    var chars = line.getCharsForRead(lineChars);
+                    if (line.isCompact()) {
+                        // Decoded into our buffer, which can be reused
+                        lineChars = chars;
+                    }
 
                     codeBlock.startColumn = IndentRange.computeStartColumn(chars, length, language.getTabSize());
                     codeBlock.endColumn = codeBlock.startColumn;
@@ -252,7 +258,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
             tokens.add(span);
         }
-        return new LineTokenizeResult<>(new MyState(lineTokens.getRuleStack(), cachedRegExp == null ? null : cachedRegExp.search(OnigString.of(line), 0), IndentRange.computeIndentLevel(((ContentLine) lineC).getBackingCharArray(), line.length() - 1, language.getTabSize()), identifiers), null, tokens);
+        return new LineTokenizeResult<>(new MyState(lineTokens.getRuleStack(), cachedRegExp == null ? null : cachedRegExp.search(OnigString.of(line), 0), IndentRange.computeIndentLevel(line, line.length() - 1, language.getTabSize()), identifiers), null, tokens);
     }
 
     @Override
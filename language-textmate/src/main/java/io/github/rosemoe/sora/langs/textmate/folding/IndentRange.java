@@ -95,6 +95,33 @@ public class IndentRange {
         return indent;
     }
 
+    /**
+     * @see #computeIndentLevel(char[], int, int)
+     */
+    public static int computeIndentLevel(CharSequence line, int len, int tabSize) {
+        int indent = 0;
+        int i = 0;
+
+        while (i < len) {
+            char chCode = line.charAt(i);
+            if (chCode == ' ') {
+                indent++;
+            } else if (chCode == '\t') {
+                indent = indent - indent % tabSize + tabSize;
+            } else {
+                break;
+            }
+            i++;
+        }
+
+        if (i == len) {
+            // line only consists of whitespace
+            return -1;
+        }
+
+        return indent;
+    }
+
     public static FoldingRegions computeRanges(Content model, int tabSize, boolean offSide, FoldingHelper helper, OnigRegExp pattern, AsyncIncrementalAnalyzeManager<?, ?>.CodeBlockAnalyzeDelegate delegate) throws Exception {
 
         RangesCollector result = new RangesCollector(/*tabSize*/);